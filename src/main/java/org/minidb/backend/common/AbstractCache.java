@@ -1,33 +1,127 @@
 package org.minidb.backend.common;
 
-import org.minidb.backend.dm.dataItem.DataItem;
+import org.minidb.backend.common.eviction.EvictionPolicy;
+import org.minidb.common.constant.CacheConstant;
 import org.minidb.common.constant.MessageConstant;
 import org.minidb.common.exception.CacheFullException;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+/**
+ * 引用计数缓存
+ * 按 key 的哈希将缓存分段，每段由一把锁保护一张以 long 为键的哈希表，不同段上的资源互不阻塞；
+ * 同一资源被多个线程同时请求时，只有一个线程从外部获取，其余线程在该资源的 future 上等待
+ * 未指定淘汰策略时，资源的引用计数归零即被移除；
+ * 指定淘汰策略时，引用计数为零的资源仍留在缓存中，缓存满时由策略选出并淘汰。
+ * 命中、释放等策略事件先写入所在段的缓冲区，由拿到排空锁的线程批量交给策略，淘汰前排空全部缓冲区。
+ * 延迟写回模式下，引用计数归零时不写回资源，直到资源被淘汰、被后台写回或缓存关闭
+ * 每个缓存实例的命中、获取、淘汰等统计信息见 {@link CacheMetrics}，并注册为JMX MBean
+ */
 public abstract class AbstractCache<T> {
-    // 实际缓存的全部资源
-    private HashMap<Long, T> cache;
-    // 缓存中某资源的引用个数
-    private HashMap<Long, Integer> references;
-    // 线程是否在获取资源，true表示正在获取资源
-    private HashMap<Long, Boolean> getting;
+    private static final int LOCK_STRIPES = CacheConstant.LOCK_STRIPES;
+    // 段内缓冲的策略事件达到该个数时尝试排空
+    private static final int DRAIN_THRESHOLD = CacheConstant.POLICY_BUFFER_SIZE / 2;
+
+    /**
+     * 缓存中的一个资源，资源本身、引用计数与获取状态放在同一个对象中
+     */
+    private static class CacheEntry<T> {
+        T value;
+        // 资源的引用个数
+        int references;
+        // 不为null表示资源正在被某个线程从外部获取
+        CompletableFuture<T> loading;
+    }
+
+    /**
+     * 缓存的一段，某个 key 的全部状态变化都在其所在段的锁内完成
+     */
+    private static class Segment<T> {
+        private final Lock lock = new ReentrantLock();
+        final LongObjectHashMap<CacheEntry<T>> entries = new LongObjectHashMap<>();
+        // 段的序号
+        final int index;
+        // 尚未交给淘汰策略的事件，没有淘汰策略时为null
+        final PolicyBuffer events;
+
+        Segment(int index, boolean buffered) {
+            this.index = index;
+            events = buffered ? new PolicyBuffer(CacheConstant.POLICY_BUFFER_SIZE) : null;
+        }
+
+        void lock() {
+            lock.lock();
+        }
+
+        void unlock() {
+            lock.unlock();
+        }
+    }
+
+    private final List<Segment<T>> segments;
     // 缓存的最大缓存资源数
-    private int maxResource;
-    // 缓存中资源的个数
-    private int count = 0;
-    private Lock lock;
+    private final int maxResource;
+    // 缓存中资源的个数（包括正在获取的资源）
+    private final AtomicInteger count = new AtomicInteger(0);
+    // 淘汰策略，为null时不保留引用计数为零的资源
+    private final EvictionPolicy policy;
+    // 持有者将各段缓冲的事件交给淘汰策略，持有时不能再获取段锁
+    private final Lock drainLock = new ReentrantLock();
+    // 缓冲区中有事件的段，每段一位，排空时只检查置位的段
+    private final AtomicLongArray pendingSegments = new AtomicLongArray((LOCK_STRIPES + 63) >>> 6);
+    // 引用计数归零时是否推迟写回，只在指定淘汰策略时生效
+    private final boolean deferWriteBack;
+    // 缓存已满且资源全部被引用时，在此等待资源被释放
+    private final Lock fullLock;
+    private final Condition unpinned;
+    private final AtomicInteger fullWaiters = new AtomicInteger(0);
+    // 缓存的统计信息
+    private final CacheMetrics metrics;
 
     public AbstractCache(int maxResource) {
+        this(maxResource, null);
+    }
+
+    public AbstractCache(int maxResource, EvictionPolicy policy) {
+        this(maxResource, policy, false);
+    }
+
+    public AbstractCache(int maxResource, EvictionPolicy policy, boolean deferWriteBack) {
         this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
-        lock = new ReentrantLock();
+        this.policy = policy;
+        this.deferWriteBack = policy != null && deferWriteBack;
+        fullLock = new ReentrantLock();
+        unpinned = fullLock.newCondition();
+        segments = new ArrayList<>(LOCK_STRIPES);
+        for (int i = 0; i < LOCK_STRIPES; i ++) {
+            segments.add(new Segment<>(i, policy != null));
+        }
+        metrics = new CacheMetrics(maxResource, count::get);
+    }
+
+    /**
+     * 将缓存的统计信息注册为JMX MBean，由创建缓存的一方在构造完成后调用，关闭缓存时注销
+     * 不在构造函数中注册，子类的 cacheName 可以依赖子类的字段
+     */
+    public void registerMetrics() {
+        metrics.register(cacheName());
     }
 
     /**
@@ -37,112 +131,672 @@ public abstract class AbstractCache<T> {
      * @throws Exception
      */
     protected T getFromCache(long key) throws Exception {
+        Segment<T> segment = segmentOf(key);
+        CacheEntry<T> loadingEntry;
+        long deadline = 0;
         // 判断资源的获取情况，总共分为四种
         while(true) {
-            lock.lock();
-            // 1. 资源在缓存中且资源正在被其他线程获取，进入持续的休眠等待
-            if(getting.containsKey(key)) {
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
+            CompletableFuture<T> waiting = null;
+            segment.lock();
+            try {
+                CacheEntry<T> entry = segment.entries.get(key);
+                if(entry != null) {
+                    if(entry.loading != null) {
+                        waiting = entry.loading;
+                    } else {
+                        // 2. 资源在缓存中且无其他线程获取，直接返回
+                        return pin(segment, key, entry);
+                    }
+                } else if(reserve()) {
+                    // 4. 资源不在缓存中且缓存未满，线程准备从外部获取资源
+                    loadingEntry = startLoading(segment, key);
+                    break;
+                } else if(policy == null) {
+                    // 3. 资源不在缓存中且缓存已满，没有淘汰策略时直接失败
+                    throw new CacheFullException(MessageConstant.CACHE_FULL);
                 }
+            } finally {
+                segment.unlock();
+            }
+            if(waiting != null) {
+                // 1. 资源正在被其他线程获取，在该资源的 future 上等待后重新判断
+                awaitLoading(waiting);
                 continue;
             }
+            // 3. 淘汰一个未被引用的资源后重新判断，资源全部被引用时等待其被释放
+            if(!evictOne()) {
+                if(deadline == 0) {
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CacheConstant.FULL_WAIT_MILLIS);
+                }
+                if(!awaitUnpinned(deadline)) {
+                    throw new CacheFullException(MessageConstant.CACHE_FULL);
+                }
+            }
+        }
 
-            // 2. 资源在缓存中且无其他线程获取，直接返回
-            if(cache.containsKey(key)) {
-                T objectFromCache = cache.get(key);
-                references.put(key, references.get(key) + 1);
-                lock.unlock();
-                return objectFromCache;
+        return load(key, segment, loadingEntry);
+    }
+
+    /**
+     * 根据给定的 key 异步获取缓存中的资源，返回的 future 完成时资源已被引用
+     * 资源在缓存中时直接返回已完成的 future；需要从外部获取、等待其他线程获取或等待缓存腾出位置时，
+     * 在 executor 中进行，调用线程不会阻塞
+     * @param key
+     * @param executor
+     * @return
+     */
+    protected CompletableFuture<T> getFromCacheAsync(long key, Executor executor) {
+        Segment<T> segment = segmentOf(key);
+        CacheEntry<T> loadingEntry = null;
+        CompletableFuture<T> waiting = null;
+        segment.lock();
+        try {
+            CacheEntry<T> entry = segment.entries.get(key);
+            if(entry != null) {
+                if(entry.loading == null) {
+                    return CompletableFuture.completedFuture(pin(segment, key, entry));
+                }
+                waiting = entry.loading;
+            } else if(reserve()) {
+                loadingEntry = startLoading(segment, key);
+            } else if(policy == null) {
+                return CompletableFuture.failedFuture(new CacheFullException(MessageConstant.CACHE_FULL));
             }
+        } finally {
+            segment.unlock();
+        }
+
+        if(waiting != null) {
+            // 其他线程获取完成后，在 executor 中重新判断
+            long start = System.nanoTime();
+            return waiting.handle((value, e) -> null).thenComposeAsync(ignored -> {
+                metrics.recordLoaderWait(System.nanoTime() - start);
+                return getFromCacheAsync(key, executor);
+            }, executor);
+        }
+        if(loadingEntry == null) {
+            // 缓存已满，淘汰或等待资源被释放可能阻塞，交给 executor 按同步方式获取
+            return callAsync(() -> getFromCache(key), executor);
+        }
+        CacheEntry<T> reserved = loadingEntry;
+        try {
+            return callAsync(() -> load(key, segment, reserved), executor);
+        } catch (RejectedExecutionException e) {
+            abandonLoading(key, segment, reserved, e);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-            // 3. 资源不在缓存中且缓存已满，线程准备从外部获取资源
-            if(maxResource > 0 && count == maxResource) {
-                lock.unlock();
-                throw new CacheFullException(MessageConstant.CACHE_FULL);
+    /**
+     * 预读：为不在缓存中的 key 占用缓存位置，由 loader 一次获取全部资源
+     * 预读的资源不被引用，直接留在缓存中等待访问或淘汰，因此只在有淘汰策略时进行。
+     * 缓存已满且没有可淘汰的资源时停止占位，已在缓存中或正在获取的 key 被跳过
+     * @param keys 候选的 key
+     * @param loader 根据实际占位的 key 获取资源，返回的资源与 key 一一对应
+     * @return 实际预读的资源个数
+     */
+    protected int preload(long[] keys, Function<long[], List<T>> loader) {
+        if(policy == null) {
+            return 0;
+        }
+        long[] reserved = new long[keys.length];
+        List<CacheEntry<T>> loadingEntries = new ArrayList<>();
+        for (long key : keys) {
+            if(!reserve() && !(evictOne() && reserve())) {
+                break;
             }
-            // 4. 资源不在缓存中且缓存未满，线程也准备从外部获取资源
-            count ++;
-            getting.put(key, true);
-            lock.unlock();
-            break;
+            Segment<T> segment = segmentOf(key);
+            segment.lock();
+            try {
+                if(segment.entries.get(key) != null) {
+                    count.decrementAndGet();
+                    continue;
+                }
+                CacheEntry<T> loadingEntry = new CacheEntry<>();
+                loadingEntry.loading = new CompletableFuture<>();
+                segment.entries.put(key, loadingEntry);
+                reserved[loadingEntries.size()] = key;
+                loadingEntries.add(loadingEntry);
+            } finally {
+                segment.unlock();
+            }
+        }
+        int n = loadingEntries.size();
+        if(n == 0) {
+            return 0;
+        }
+
+        long[] loadKeys = Arrays.copyOf(reserved, n);
+        List<T> values;
+        try {
+            values = loader.apply(loadKeys);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < n; i ++) {
+                abandonLoading(loadKeys[i], segmentOf(loadKeys[i]), loadingEntries.get(i), e);
+            }
+            throw e;
+        }
+        for (int i = 0; i < n; i ++) {
+            long key = loadKeys[i];
+            Segment<T> segment = segmentOf(key);
+            CacheEntry<T> loadingEntry = loadingEntries.get(i);
+            CompletableFuture<T> loading;
+            segment.lock();
+            try {
+                loading = loadingEntry.loading;
+                loadingEntry.value = values.get(i);
+                loadingEntry.loading = null;
+                recordPolicy(segment, PolicyBuffer.ACCESS, key);
+                recordPolicy(segment, PolicyBuffer.EVICTABLE, key);
+            } finally {
+                segment.unlock();
+            }
+            // 等待该资源的线程重新判断时会命中并引用它
+            loading.complete(loadingEntry.value);
+        }
+        metrics.recordPrefetch(n);
+        if(fullWaiters.get() > 0) {
+            signalUnpinned();
         }
+        return n;
+    }
 
-        // 从外部获取资源并放入缓存
-        T objectFromOutside = null;
+    /**
+     * 资源在缓存中时增加一个引用，须持有资源所在段的锁
+     * @param segment
+     * @param key
+     * @param entry
+     * @return
+     */
+    private T pin(Segment<T> segment, long key, CacheEntry<T> entry) {
+        metrics.recordHit();
+        boolean pinned = ++entry.references == 1;
+        if(pinned) {
+            metrics.recordPinned(1);
+        }
+        if(policy != null) {
+            recordPolicy(segment, pinned ? PolicyBuffer.PINNED_ACCESS : PolicyBuffer.ACCESS, key);
+        }
+        return entry.value;
+    }
+
+    /**
+     * 放入一个正在获取的资源，须持有资源所在段的锁并已占用缓存位置
+     * @param segment
+     * @param key
+     * @return
+     */
+    private CacheEntry<T> startLoading(Segment<T> segment, long key) {
+        CacheEntry<T> loadingEntry = new CacheEntry<>();
+        loadingEntry.loading = new CompletableFuture<>();
+        segment.entries.put(key, loadingEntry);
+        metrics.recordMiss();
+        return loadingEntry;
+    }
+
+    /**
+     * 从外部获取资源并放入缓存，完成后唤醒等待该资源的线程
+     * @param key
+     * @param segment
+     * @param loadingEntry
+     * @return
+     * @throws Exception
+     */
+    private T load(long key, Segment<T> segment, CacheEntry<T> loadingEntry) throws Exception {
+        T objectFromOutside;
+        long start = System.nanoTime();
         try {
             objectFromOutside = get2Cache(key);
+            metrics.recordLoad(System.nanoTime() - start);
         } catch(Exception e) {
-            lock.lock();
-            // 出现未知异常，线程停止获取该资源
-            try {
-                count--;
-                getting.remove(key);
-            }finally { lock.unlock();}
+            abandonLoading(key, segment, loadingEntry, e);
             throw e;
         }
 
-        lock.lock();
+        CompletableFuture<T> loading;
+        segment.lock();
         try {
-            getting.remove(key);
-            cache.put(key, objectFromOutside);
-            references.put(key, 1);
-        }finally {
-            lock.unlock();
+            loading = loadingEntry.loading;
+            loadingEntry.value = objectFromOutside;
+            loadingEntry.references = 1;
+            loadingEntry.loading = null;
+            metrics.recordPinned(1);
+            if(policy != null) {
+                recordPolicy(segment, PolicyBuffer.ACCESS, key);
+            }
+        } finally {
+            segment.unlock();
         }
+        loading.complete(objectFromOutside);
 
         return objectFromOutside;
     }
 
     /**
-     * 根据资源的key，将资源的引用计数减一，为零则移除至外部
+     * 出现未知异常，线程停止获取该资源，释放占用的缓存位置
+     * @param key
+     * @param segment
+     * @param loadingEntry
+     * @param e
+     */
+    private void abandonLoading(long key, Segment<T> segment, CacheEntry<T> loadingEntry, Exception e) {
+        segment.lock();
+        try {
+            count.decrementAndGet();
+            segment.entries.remove(key);
+        } finally {
+            segment.unlock();
+        }
+        loadingEntry.loading.completeExceptionally(e);
+    }
+
+    /**
+     * 在 executor 中执行可能抛出受检异常的任务
+     * @param task
+     * @param executor
+     * @return
+     */
+    private static <V> CompletableFuture<V> callAsync(Callable<V> task, Executor executor) {
+        CompletableFuture<V> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 根据资源的key，将资源的引用计数减一
+     * 为零时没有淘汰策略则写回并移出缓存，否则留在缓存中等待淘汰，非延迟写回模式下同时写回外部
      * @param key
      */
     protected void releaseReferenceByKey(long key) {
-        lock.lock();
+        Segment<T> segment = segmentOf(key);
+        segment.lock();
         try {
-            // 获取资源的引用数
-            int reference = references.get(key)-1;
+            CacheEntry<T> entry = segment.entries.get(key);
             // 此资源在缓存中只有一个引用
-            if(reference == 0) {
-                T obj = cache.get(key);
-                releaseByObj(obj);
-                references.remove(key);
-                cache.remove(key);
-                count --;
-            } else {
-                //将资源的引用计数减一，更新
-                references.put(key, reference);
+            if(--entry.references == 0) {
+                metrics.recordPinned(-1);
+                if(policy == null) {
+                    segment.entries.remove(key);
+                    releaseByObj(entry.value);
+                    removedFromCache(entry.value);
+                    count.decrementAndGet();
+                } else {
+                    if(!deferWriteBack) {
+                        releaseByObj(entry.value);
+                    }
+                    recordPolicy(segment, PolicyBuffer.EVICTABLE, key);
+                }
             }
         } finally {
-            lock.unlock();
+            segment.unlock();
+        }
+        if(policy != null && fullWaiters.get() > 0) {
+            signalUnpinned();
         }
     }
 
     /**
-     * 关闭缓存，写回所有资源
+     * 获取资源当前的引用个数，资源不在缓存中或正在获取时返回0
+     * 返回值只反映调用时的状态，调用者须自行保证之后不会产生新的引用，或新的引用不影响其操作
+     * @param key
+     * @return
      */
-    protected void closeCache() {
-        lock.lock();
+    protected int getReferences(long key) {
+        Segment<T> segment = segmentOf(key);
+        segment.lock();
+        try {
+            CacheEntry<T> entry = segment.entries.get(key);
+            return entry == null || entry.loading != null ? 0 : entry.references;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * 对缓存中已获取完成的资源逐个执行 action，执行时持有资源所在段的锁，action 中不能再访问缓存
+     * 持有段锁时资源不会被淘汰，淘汰时的写回也在段锁内完成
+     * @param action
+     */
+    protected void forEachCached(Consumer<T> action) {
+        for (Segment<T> segment : segments) {
+            segment.lock();
+            try {
+                for (long key : segment.entries.keys()) {
+                    CacheEntry<T> entry = segment.entries.get(key);
+                    if(entry != null && entry.loading == null) {
+                        action.accept(entry.value);
+                    }
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * 对缓存中未被引用且满足 filter 的资源分批执行写回操作，资源仍留在缓存中
+     * 写回期间资源被临时引用，不会被淘汰，以免被淘汰后重新读入的资源早于写回完成；
+     * 每批最多 batchSize 个资源，写完一批即释放，避免长时间占用缓存
+     * @param filter
+     * @param batchSize
+     * @param writer
+     */
+    protected void writeBackUnreferenced(Predicate<T> filter, int batchSize, Consumer<List<T>> writer) {
+        writeBack(filter, batchSize, writer, false);
+    }
+
+    /**
+     * 对缓存中满足 filter 的资源分批执行写回操作，includeReferenced 为true时也写回正被引用的资源
+     * @param filter
+     * @param batchSize
+     * @param writer
+     * @param includeReferenced
+     */
+    protected void writeBack(Predicate<T> filter, int batchSize, Consumer<List<T>> writer, boolean includeReferenced) {
+        List<T> batch = new ArrayList<>();
+        long[] batchKeys = new long[batchSize];
+        for (Segment<T> segment : segments) {
+            long[] keys;
+            segment.lock();
+            try {
+                keys = segment.entries.keys();
+            } finally {
+                segment.unlock();
+            }
+            int next = 0;
+            while(next < keys.length) {
+                segment.lock();
+                try {
+                    for (; next < keys.length && batch.size() < batchSize; next ++) {
+                        CacheEntry<T> entry = segment.entries.get(keys[next]);
+                        if(entry == null || entry.loading != null || !filter.test(entry.value)
+                                || (entry.references != 0 && !includeReferenced)) {
+                            continue;
+                        }
+                        if(++entry.references == 1) {
+                            metrics.recordPinned(1);
+                            if(policy != null) {
+                                recordPolicy(segment, PolicyBuffer.PINNED, keys[next]);
+                            }
+                        }
+                        batchKeys[batch.size()] = keys[next];
+                        batch.add(entry.value);
+                    }
+                } finally {
+                    segment.unlock();
+                }
+                if(batch.size() == batchSize) {
+                    writeBatch(batch, batchKeys, writer);
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+        if(!batch.isEmpty()) {
+            writeBatch(batch, batchKeys, writer);
+        }
+    }
+
+    /**
+     * 写回一批被临时引用的资源后释放引用，writer 可以改变批内资源的顺序
+     * @param batch
+     * @param batchKeys
+     * @param writer
+     */
+    private void writeBatch(List<T> batch, long[] batchKeys, Consumer<List<T>> writer) {
+        int size = batch.size();
         try {
-            Set<Long> keys = cache.keySet();
-            for (long key : keys) {
-                // 将资源移除至外部
-                T obj = cache.get(key);
-                releaseByObj(obj);
-                // 从缓存中删除资源
-                references.remove(key);
-                cache.remove(key);
+            writer.accept(batch);
+        } finally {
+            for (int i = 0; i < size; i ++) {
+                releaseReferenceByKey(batchKeys[i]);
             }
+        }
+    }
+
+    /**
+     * 由淘汰策略选出一个未被引用的资源，将其写回并移出缓存
+     * @return 缓存中没有可淘汰的资源时返回false
+     */
+    private boolean evictOne() {
+        while(true) {
+            long victim;
+            drainLock.lock();
+            try {
+                drainAll();
+                victim = policy.selectVictim();
+            } finally {
+                drainLock.unlock();
+            }
+            if(victim == EvictionPolicy.NO_VICTIM) {
+                return false;
+            }
+            Segment<T> segment = segmentOf(victim);
+            segment.lock();
+            try {
+                CacheEntry<T> entry = segment.entries.get(victim);
+                if(entry == null) {
+                    // 已被其他线程淘汰
+                    recordPolicy(segment, PolicyBuffer.REMOVE, victim);
+                    return true;
+                }
+                if(entry.loading != null || entry.references > 0) {
+                    // 选出后又被引用，重新选择
+                    continue;
+                }
+                segment.entries.remove(victim);
+                recordPolicy(segment, PolicyBuffer.REMOVE, victim);
+                releaseByObj(entry.value);
+                removedFromCache(entry.value);
+                count.decrementAndGet();
+                metrics.recordEviction();
+                return true;
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * 记录一个淘汰策略事件，须持有 key 所在段的锁
+     * 缓冲的事件较多时尝试排空，排空锁被占用则留给持有者处理；
+     * 缓冲区已满时丢弃访问事件，其他事件须等待排空后写入。持有排空锁的线程不再获取段锁，不会死锁
+     * @param segment
+     * @param op
+     * @param key
+     */
+    private void recordPolicy(Segment<T> segment, byte op, long key) {
+        PolicyBuffer events = segment.events;
+        if(events.offer(op, key)) {
+            markPending(segment.index);
+            if(events.size() >= DRAIN_THRESHOLD && drainLock.tryLock()) {
+                try {
+                    drainAll();
+                } finally {
+                    drainLock.unlock();
+                }
+            }
+            return;
+        }
+        if(op == PolicyBuffer.ACCESS) {
+            return;
+        }
+        drainLock.lock();
+        try {
+            drainAll();
         } finally {
-            lock.unlock();
+            drainLock.unlock();
+        }
+        // 持有段锁，排空后缓冲区中没有其他事件
+        events.offer(op, key);
+        markPending(segment.index);
+    }
+
+    /**
+     * 标记段的缓冲区中有事件，须在事件写入之后调用
+     * 排空时先清除标记再读取缓冲区，看到标记已置位的写入方，其事件一定会被这次排空读到
+     * @param index
+     */
+    private void markPending(int index) {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        long bits = pendingSegments.get(word);
+        while((bits & bit) == 0) {
+            long witness = pendingSegments.compareAndExchange(word, bits, bits | bit);
+            if(witness == bits) {
+                return;
+            }
+            bits = witness;
+        }
+    }
+
+    /**
+     * 将各段缓冲的事件交给淘汰策略，须持有排空锁
+     */
+    private void drainAll() {
+        for (int word = 0; word < pendingSegments.length(); word ++) {
+            if(pendingSegments.get(word) == 0) {
+                continue;
+            }
+            long bits = pendingSegments.getAndSet(word, 0);
+            while(bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                segments.get(index).events.drainTo(policy);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * 等待有资源的引用计数归零
+     * 每次最多等待一个时间片，避免错过在登记等待之前发出的通知
+     * @param deadline
+     * @return 已超过截止时间时返回false
+     */
+    private boolean awaitUnpinned(long deadline) {
+        fullLock.lock();
+        fullWaiters.incrementAndGet();
+        try {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) {
+                return false;
+            }
+            unpinned.awaitNanos(Math.min(remaining,
+                    TimeUnit.MILLISECONDS.toNanos(CacheConstant.FULL_WAIT_SLICE_MILLIS)));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            fullWaiters.decrementAndGet();
+            fullLock.unlock();
         }
     }
 
+    private void signalUnpinned() {
+        fullLock.lock();
+        try {
+            unpinned.signalAll();
+        } finally {
+            fullLock.unlock();
+        }
+    }
+
+    /**
+     * 关闭缓存，写回所有资源，并注销统计信息的MBean
+     */
+    protected void closeCache() {
+        for (Segment<T> segment : segments) {
+            segment.lock();
+            try {
+                for (long key : segment.entries.keys()) {
+                    CacheEntry<T> entry = segment.entries.get(key);
+                    if(entry.loading != null) {
+                        continue;
+                    }
+                    // 从缓存中删除资源，并将资源移除至外部
+                    segment.entries.remove(key);
+                    if(policy != null) {
+                        recordPolicy(segment, PolicyBuffer.REMOVE, key);
+                    }
+                    if(entry.references > 0) {
+                        metrics.recordPinned(-1);
+                    }
+                    releaseByObj(entry.value);
+                    removedFromCache(entry.value);
+                    count.decrementAndGet();
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+        metrics.unregister();
+    }
+
+    /**
+     * 获取缓存的统计信息
+     * @return
+     */
+    public CacheMetrics getCacheMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 为即将获取的资源占用一个缓存位置，缓存已满时返回false
+     * @return
+     */
+    private boolean reserve() {
+        if(maxResource <= 0) {
+            count.incrementAndGet();
+            return true;
+        }
+        while(true) {
+            int current = count.get();
+            if(current >= maxResource) {
+                return false;
+            }
+            if(count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 等待其他线程获取资源完成，获取失败时由调用者重新判断
+     * @param loading
+     */
+    private void awaitLoading(CompletableFuture<T> loading) {
+        long start = System.nanoTime();
+        try {
+            loading.join();
+        } catch (CompletionException | CancellationException ignored) {
+        }
+        metrics.recordLoaderWait(System.nanoTime() - start);
+    }
+
+    /**
+     * 获取 key 所在的段
+     * @param key
+     * @return
+     */
+    private Segment<T> segmentOf(long key) {
+        int h = Long.hashCode(key);
+        h ^= (h >>> 16);
+        return segments.get(h & (LOCK_STRIPES - 1));
+    }
+
+    /**
+     * 缓存的名称，用于区分统计信息，默认为类名
+     * @return
+     */
+    protected String cacheName() {
+        return getClass().getSimpleName();
+    }
 
     /**
      * 当资源不在缓存时，从外部获取资源并放入缓存中
@@ -152,4 +806,10 @@ public abstract class AbstractCache<T> {
      * 根据资源数据，将资源从缓存移除写入外部
      */
     protected abstract void releaseByObj(T obj);
+    /**
+     * 资源写回后已从缓存中移除时调用，默认不做处理
+     * 有淘汰策略时引用计数归零不会调用，只在资源被淘汰或缓存关闭时调用
+     */
+    protected void removedFromCache(T obj) {
+    }
 }
@@ -0,0 +1,199 @@
+package org.minidb.backend.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 缓存的统计信息
+ * 计数器使用 LongAdder，多个线程同时命中时不会在同一个变量上竞争
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+    private static final int HISTOGRAM_BUCKETS = 32;
+    // 同名缓存可以有多个实例，以编号区分
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(0);
+
+    // 注册为MBean时确定，未注册时为null
+    private volatile String cacheName;
+    private final int maxResource;
+    private final IntSupplier size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // 成功从外部获取资源的次数，获取失败的未命中不计入
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder pinned = new LongAdder();
+    private final LongAdder loadTimeTotal = new LongAdder();
+    private final AtomicLongArray loadTimeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final LongAdder loaderWaits = new LongAdder();
+    private final LongAdder loaderWaitTimeTotal = new LongAdder();
+
+    private ObjectName objectName;
+
+    CacheMetrics(int maxResource, IntSupplier size) {
+        this.maxResource = maxResource;
+        this.size = size;
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    void recordPrefetch(int n) {
+        prefetches.add(n);
+    }
+
+    void recordPinned(int delta) {
+        pinned.add(delta);
+    }
+
+    void recordLoad(long nanos) {
+        loads.increment();
+        loadTimeTotal.add(nanos);
+        long micros = Math.max(nanos / 1000, 1);
+        int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), HISTOGRAM_BUCKETS - 1);
+        loadTimeHistogram.incrementAndGet(bucket);
+    }
+
+    void recordLoaderWait(long nanos) {
+        loaderWaits.increment();
+        loaderWaitTimeTotal.add(nanos);
+    }
+
+    /**
+     * 以 cacheName 注册为JMX MBean，注册失败不影响缓存使用，已注册时不再注册
+     * @param cacheName
+     */
+    synchronized void register(String cacheName) {
+        if(objectName != null) {
+            return;
+        }
+        this.cacheName = cacheName;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.minidb:type=Cache,name=" + cacheName + ",id=" + NEXT_ID.getAndIncrement());
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            objectName = null;
+        }
+    }
+
+    synchronized void unregister() {
+        if(objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception ignored) {
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    @Override
+    public int getMaxResource() {
+        return maxResource;
+    }
+
+    @Override
+    public int getSize() {
+        return size.getAsInt();
+    }
+
+    @Override
+    public long getPinnedCount() {
+        return pinned.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double)hit / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getLoadTimeTotalNanos() {
+        return loadTimeTotal.sum();
+    }
+
+    @Override
+    public long[] getLoadTimeHistogram() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i ++) {
+            histogram[i] = loadTimeHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public long getLoaderWaits() {
+        return loaderWaits.sum();
+    }
+
+    @Override
+    public long getLoaderWaitTimeTotalNanos() {
+        return loaderWaitTimeTotal.sum();
+    }
+
+    /**
+     * 清零累计的计数，当前大小与被引用资源数不受影响
+     */
+    @Override
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        loads.reset();
+        evictions.reset();
+        prefetches.reset();
+        loadTimeTotal.reset();
+        loaderWaits.reset();
+        loaderWaitTimeTotal.reset();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i ++) {
+            loadTimeHistogram.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.minidb.backend.common;
+
+/**
+ * 缓存统计信息的JMX接口，每个缓存实例注册为 org.minidb:type=Cache,name=缓存名,id=编号
+ */
+public interface CacheMetricsMBean {
+    String getCacheName();
+    // 缓存的最大缓存资源数，不大于0表示不限制
+    int getMaxResource();
+    // 缓存中资源的个数（包括正在获取的资源）
+    int getSize();
+    // 引用计数大于零的资源个数
+    long getPinnedCount();
+
+    long getHits();
+    long getMisses();
+    double getHitRatio();
+    long getEvictions();
+    // 预读放入缓存的资源个数
+    long getPrefetches();
+
+    // 成功从外部获取资源的次数与总耗时，获取失败的未命中不计入
+    long getLoadCount();
+    long getLoadTimeTotalNanos();
+    // 获取耗时的直方图，第i个桶为耗时在 [2^i, 2^(i+1)) 微秒内的次数
+    long[] getLoadTimeHistogram();
+
+    // 等待其他线程获取同一资源的次数与总耗时
+    long getLoaderWaits();
+    long getLoaderWaitTimeTotalNanos();
+
+    void reset();
+}
@@ -0,0 +1,155 @@
+package org.minidb.backend.common;
+
+/**
+ * 以 long 为键的开放寻址哈希表
+ * 键直接存放在 long 数组中，查找、插入已有键和删除都不会产生装箱对象。
+ * 使用线性探测，删除时将后续元素前移以保持探测链连续。值不能为null，null表示槽位为空
+ * 非线程安全，由调用者加锁
+ */
+public class LongObjectHashMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    // 元素个数超过该值时扩容，负载因子为0.5
+    private int resizeThreshold;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize * 2, MIN_CAPACITY) - 1) << 1;
+        allocate(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = indexOf(key);
+        while(values[index] != null) {
+            if(keys[index] == key) {
+                return (V)values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * 放入键值对，返回该键原来的值
+     * @param key
+     * @param value
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if(value == null) {
+            throw new NullPointerException();
+        }
+        int index = indexOf(key);
+        while(values[index] != null) {
+            if(keys[index] == key) {
+                V old = (V)values[index];
+                values[index] = value;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if(++size > resizeThreshold) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * 删除键，返回被删除的值
+     * @param key
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = indexOf(key);
+        while(values[index] != null) {
+            if(keys[index] == key) {
+                V old = (V)values[index];
+                shiftBack(index);
+                size --;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 返回当前全部键的拷贝
+     * @return
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i ++) {
+            if(values[i] != null) {
+                result[n ++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 删除 index 处的元素后，将探测链上后续的元素前移填补空位
+     * @param index
+     */
+    private void shiftBack(int index) {
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while(values[next] != null) {
+            int ideal = indexOf(keys[next]);
+            // 元素的理想位置不在 (hole, next] 区间内时，可以移动到空位
+            if(((next - ideal) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i ++) {
+            if(oldValues[i] == null) {
+                continue;
+            }
+            int index = indexOf(oldKeys[i]);
+            while(values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeThreshold = capacity / 2;
+    }
+
+    private int indexOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+}
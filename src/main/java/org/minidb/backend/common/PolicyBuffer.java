@@ -0,0 +1,95 @@
+package org.minidb.backend.common;
+
+import org.minidb.backend.common.eviction.EvictionPolicy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存一个分段上尚未交给淘汰策略的事件
+ * 事件只在分段锁内写入，同一资源的事件按发生顺序排列；读取方持有 AbstractCache 的排空锁，
+ * 写入与读取之间不需要加锁，分段锁下的命中和释放不再争用淘汰策略的全局锁。
+ * 访问事件只影响淘汰顺序，缓冲区满时直接丢弃；可淘汰状态与移除事件不能丢弃，由写入方排空后再写入
+ */
+class PolicyBuffer {
+    static final byte ACCESS = 0;
+    static final byte EVICTABLE = 1;
+    static final byte PINNED = 2;
+    static final byte REMOVE = 3;
+    // 重新被引用并访问，命中未被引用的资源时用一个事件代替 PINNED 与 ACCESS
+    static final byte PINNED_ACCESS = 4;
+
+    private final long[] keys;
+    private final byte[] ops;
+    private final int mask;
+    // 下一个写入位置，只由持有分段锁的线程修改
+    private final AtomicLong tail = new AtomicLong();
+    // 下一个读取位置，只由持有排空锁的线程修改
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity 必须为2的幂
+     */
+    PolicyBuffer(int capacity) {
+        keys = new long[capacity];
+        ops = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * 写入一个事件，须持有所在分段的锁
+     * @param op
+     * @param key
+     * @return 缓冲区已满时返回false
+     */
+    boolean offer(byte op, long key) {
+        long t = tail.get();
+        if(t - head.get() > mask) {
+            return false;
+        }
+        int index = (int)t & mask;
+        keys[index] = key;
+        ops[index] = op;
+        // 写入方随后检查段的待排空标记，须与排空方清除标记、读取 tail 的顺序一致，不能延迟发布
+        tail.set(t + 1);
+        return true;
+    }
+
+    /**
+     * 缓冲的事件个数
+     * @return
+     */
+    int size() {
+        return (int)(tail.get() - head.get());
+    }
+
+    /**
+     * 按写入顺序将事件交给淘汰策略，须持有排空锁
+     * @param policy
+     */
+    void drainTo(EvictionPolicy policy) {
+        long h = head.get();
+        long t = tail.get();
+        for (; h < t; h ++) {
+            int index = (int)h & mask;
+            long key = keys[index];
+            switch (ops[index]) {
+                case ACCESS:
+                    policy.recordAccess(key);
+                    break;
+                case EVICTABLE:
+                    policy.setEvictable(key, true);
+                    break;
+                case PINNED:
+                    policy.setEvictable(key, false);
+                    break;
+                case PINNED_ACCESS:
+                    policy.setEvictable(key, false);
+                    policy.recordAccess(key);
+                    break;
+                default:
+                    policy.remove(key);
+            }
+        }
+        head.lazySet(h);
+    }
+}
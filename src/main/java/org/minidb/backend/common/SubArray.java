@@ -1,13 +1,23 @@
 package org.minidb.backend.common;
 
+import java.nio.ByteBuffer;
+
+/**
+ * 一段数据的视图，data 中 [start, end) 的部分
+ * data 可能是缓存页面的缓冲区（堆外内存或文件映射），只能用指定位置的 get/put 访问，不能修改其 position 和 limit
+ */
 public class SubArray {
     public int start;
     public int end;
-    public byte[] data;
+    public ByteBuffer data;
 
-    public SubArray(int start, int end, byte[] data) {
+    public SubArray(int start, int end, ByteBuffer data) {
         this.start = start;
         this.end = end;
         this.data = data;
     }
+
+    public SubArray(int start, int end, byte[] data) {
+        this(start, end, ByteBuffer.wrap(data));
+    }
 }
@@ -0,0 +1,138 @@
+package org.minidb.backend.common.eviction;
+
+import org.minidb.backend.common.LongObjectHashMap;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CLOCK 淘汰策略
+ * 可淘汰的资源按释放的先后连成一个环，访问时置位引用位。
+ * 淘汰时指针沿环转动：引用位为1则清零并给予第二次机会，为0则选为淘汰对象。
+ * 被钉住的资源不在环上，指针不会扫过它们；每跳过一个节点都会消耗一次访问留下的引用位，
+ * 因此选择淘汰对象的均摊代价为常数，最坏情况下也只需转一圈
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    private static class Node {
+        long key;
+        boolean referenced;
+        Node prev;
+        Node next;
+        boolean linked;
+    }
+
+    private LongObjectHashMap<Node> nodes;
+    // 时钟指针，指向环上下一个检查的节点，环为空时为null
+    private Node hand;
+    private Lock lock;
+
+    public ClockPolicy(int capacity) {
+        nodes = new LongObjectHashMap<>(Math.max(capacity, 1));
+        lock = new ReentrantLock();
+    }
+
+    @Override
+    public void recordAccess(long key) {
+        lock.lock();
+        try {
+            Node node = nodes.get(key);
+            if(node == null) {
+                node = new Node();
+                node.key = key;
+                nodes.put(key, node);
+            }
+            node.referenced = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setEvictable(long key, boolean evictable) {
+        lock.lock();
+        try {
+            Node node = nodes.get(key);
+            if(node == null) {
+                return;
+            }
+            if(evictable) {
+                link(node);
+            } else {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(long key) {
+        lock.lock();
+        try {
+            Node node = nodes.remove(key);
+            if(node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long selectVictim() {
+        lock.lock();
+        try {
+            if(hand == null) {
+                return NO_VICTIM;
+            }
+            // 转一圈后环上所有节点的引用位都已被清零
+            while(hand.referenced) {
+                hand.referenced = false;
+                hand = hand.next;
+            }
+            return hand.key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 将节点放在指针之前，即指针最后到达的位置
+     * @param node
+     */
+    private void link(Node node) {
+        if(node.linked) {
+            return;
+        }
+        if(hand == null) {
+            node.prev = node;
+            node.next = node;
+            hand = node;
+        } else {
+            node.prev = hand.prev;
+            node.next = hand;
+            hand.prev.next = node;
+            hand.prev = node;
+        }
+        node.linked = true;
+    }
+
+    private void unlink(Node node) {
+        if(!node.linked) {
+            return;
+        }
+        if(node.next == node) {
+            hand = null;
+        } else {
+            if(hand == node) {
+                hand = node.next;
+            }
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.linked = false;
+    }
+}
@@ -0,0 +1,55 @@
+package org.minidb.backend.common.eviction;
+
+/**
+ * 缓存的淘汰策略
+ * 策略只记录缓存中资源的访问情况，真正的移除与写回由 AbstractCache 完成。
+ * 引用计数大于零的资源为被钉住的资源，不能作为淘汰对象
+ * 实现需保证线程安全。AbstractCache 将各段缓冲的事件在排空锁下按段批量交给策略，不同段的事件顺序只是近似的访问顺序
+ */
+public interface EvictionPolicy {
+    // 没有可淘汰的资源
+    long NO_VICTIM = Long.MIN_VALUE;
+
+    /**
+     * 资源被访问（命中或从外部获取）
+     * @param key
+     */
+    void recordAccess(long key);
+
+    /**
+     * 资源的引用计数归零（可淘汰）或重新被引用（不可淘汰）
+     * @param key
+     * @param evictable
+     */
+    void setEvictable(long key, boolean evictable);
+
+    /**
+     * 资源已从缓存中移除
+     * @param key
+     */
+    void remove(long key);
+
+    /**
+     * 选出一个可淘汰的资源，但不将其移除
+     * @return 资源的key，没有可淘汰的资源时返回 NO_VICTIM
+     */
+    long selectVictim();
+
+    /**
+     * 根据淘汰策略类型创建淘汰策略
+     * @param type
+     * @param capacity 缓存的最大缓存资源数
+     * @return
+     */
+    static EvictionPolicy newPolicy(EvictionType type, int capacity) {
+        switch (type) {
+            case CLOCK:
+                return new ClockPolicy(capacity);
+            case TINY_LFU:
+                return new TinyLFUPolicy(capacity);
+            case LRU:
+            default:
+                return new LRUPolicy();
+        }
+    }
+}
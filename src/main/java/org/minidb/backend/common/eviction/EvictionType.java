@@ -0,0 +1,13 @@
+package org.minidb.backend.common.eviction;
+
+/**
+ * 缓存可选的淘汰策略
+ */
+public enum EvictionType {
+    // 最近最少使用
+    LRU,
+    // 时钟置换（二次机会）
+    CLOCK,
+    // 窗口 + 分段LRU，由频率草图决定准入
+    TINY_LFU
+}
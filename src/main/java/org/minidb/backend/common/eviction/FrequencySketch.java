@@ -0,0 +1,100 @@
+package org.minidb.backend.common.eviction;
+
+/**
+ * Count-Min 频率草图，用于估计资源近期的访问频率
+ * 每个计数器为4位，最大为15；累计的访问次数达到采样上限时所有计数器减半，使旧的访问逐渐失效
+ */
+class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    // 每个long保存16个4位计数器
+    private long[] table;
+    private int tableMask;
+    private int additions;
+    private int sampleSize;
+
+    FrequencySketch(int capacity) {
+        // 每行的计数器个数约为容量的4到8倍，缓存中的资源与刚被访问过的资源较少共用计数器
+        int counters = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 3;
+        table = new long[Math.max(counters / 16, 1) * DEPTH];
+        tableMask = table.length / DEPTH - 1;
+        sampleSize = 10 * Math.max(capacity, 16);
+    }
+
+    /**
+     * 估计资源的访问频率
+     * @param key
+     * @return
+     */
+    int frequency(long key) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i ++) {
+            frequency = Math.min(frequency, counterOf(key, i));
+        }
+        return frequency;
+    }
+
+    /**
+     * 资源被访问一次
+     * @param key
+     */
+    void increment(long key) {
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i ++) {
+            added |= incrementAt(key, i);
+        }
+        if(added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private int counterOf(long key, int depth) {
+        long hash = hash(key, depth);
+        int index = indexOf(hash, depth);
+        int shift = (int)((hash >>> 32) & 15) << 2;
+        return (int)((table[index] >>> shift) & 15L);
+    }
+
+    private boolean incrementAt(long key, int depth) {
+        long hash = hash(key, depth);
+        int index = indexOf(hash, depth);
+        int shift = (int)((hash >>> 32) & 15) << 2;
+        long mask = 15L << shift;
+        if((table[index] & mask) == mask) {
+            return false;
+        }
+        table[index] += 1L << shift;
+        return true;
+    }
+
+    private int indexOf(long hash, int depth) {
+        return depth * (tableMask + 1) + (int)(hash & tableMask);
+    }
+
+    /**
+     * 每一行使用不同的种子，经过完整的混合使各行的下标互不相关，页面号这类连续的key也能均匀分布
+     * @param key
+     * @param depth
+     * @return
+     */
+    private static long hash(long key, int depth) {
+        long h = key + SEEDS[depth];
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i ++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+}
@@ -0,0 +1,103 @@
+package org.minidb.backend.common.eviction;
+
+import org.minidb.backend.common.LongObjectHashMap;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU 淘汰策略
+ * 只有引用计数为零的资源才会进入队列，按最后一次被释放的先后排序，最早释放的最先淘汰
+ * 队列为侵入式双向链表，节点在资源被移除前一直复用，钉住与释放资源时不产生新对象
+ */
+public class LRUPolicy implements EvictionPolicy {
+
+    private static class Node {
+        long key;
+        Node prev;
+        Node next;
+        boolean linked;
+    }
+
+    private LongObjectHashMap<Node> nodes;
+    // 哨兵节点，head.next为最久未使用的资源
+    private Node head;
+    private Lock lock;
+
+    public LRUPolicy() {
+        nodes = new LongObjectHashMap<>();
+        head = new Node();
+        head.prev = head;
+        head.next = head;
+        lock = new ReentrantLock();
+    }
+
+    @Override
+    public void recordAccess(long key) {
+        // 被钉住的资源不在队列中，释放时再按时间排序
+    }
+
+    @Override
+    public void setEvictable(long key, boolean evictable) {
+        lock.lock();
+        try {
+            Node node = nodes.get(key);
+            if(node == null) {
+                if(!evictable) {
+                    return;
+                }
+                node = new Node();
+                node.key = key;
+                nodes.put(key, node);
+            }
+            unlink(node);
+            if(evictable) {
+                linkLast(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(long key) {
+        lock.lock();
+        try {
+            Node node = nodes.remove(key);
+            if(node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long selectVictim() {
+        lock.lock();
+        try {
+            return head.next == head ? NO_VICTIM : head.next.key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void linkLast(Node node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        node.linked = true;
+    }
+
+    private void unlink(Node node) {
+        if(!node.linked) {
+            return;
+        }
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        node.linked = false;
+    }
+}
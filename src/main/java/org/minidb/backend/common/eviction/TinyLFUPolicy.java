@@ -0,0 +1,205 @@
+package org.minidb.backend.common.eviction;
+
+import org.minidb.backend.common.LongObjectHashMap;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * W-TinyLFU 淘汰策略
+ * 资源首先进入容量约为1%的窗口LRU，溢出后进入主区的试用段；在试用段中再次被访问则晋升至保护段（占主区的80%）。
+ * 淘汰时比较窗口与主区各自最久未使用的可淘汰资源，由频率草图估计的访问频率较低者被淘汰，
+ * 使一次性的扫描访问无法冲掉经常被访问的页面
+ * 每个区域用两条侵入式链表记录资源：一条包含区域内全部资源，按访问先后排序；
+ * 另一条只包含引用计数为零的资源，选择淘汰对象时直接取各区域可淘汰链表的头部
+ */
+public class TinyLFUPolicy implements EvictionPolicy {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static class Node {
+        long key;
+        int region;
+        // 在区域链表中的位置
+        final Link access = new Link(this);
+        // 在区域可淘汰链表中的位置
+        final Link evict = new Link(this);
+    }
+
+    private static class Link {
+        final Node node;
+        Link prev;
+        Link next;
+
+        Link(Node node) {
+            this.node = node;
+        }
+
+        boolean linked() {
+            return prev != null;
+        }
+    }
+
+    /**
+     * 带哨兵的双向链表，head.next 为最久未使用的资源
+     */
+    private static class LinkQueue {
+        final Link head = new Link(null);
+        int size;
+
+        LinkQueue() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        void addLast(Link link) {
+            link.prev = head.prev;
+            link.next = head;
+            head.prev.next = link;
+            head.prev = link;
+            size ++;
+        }
+
+        void remove(Link link) {
+            if(!link.linked()) {
+                return;
+            }
+            link.prev.next = link.next;
+            link.next.prev = link.prev;
+            link.prev = null;
+            link.next = null;
+            size --;
+        }
+
+        Node first() {
+            return head.next == head ? null : head.next.node;
+        }
+    }
+
+    private FrequencySketch sketch;
+    private LongObjectHashMap<Node> nodes;
+    // 三个区域的全部资源与可淘汰资源，下标为 WINDOW、PROBATION、PROTECTED
+    private LinkQueue[] regions;
+    private LinkQueue[] evictables;
+    private int windowCapacity;
+    private int protectedCapacity;
+    private Lock lock;
+
+    public TinyLFUPolicy(int capacity) {
+        int size = Math.max(capacity, 1);
+        sketch = new FrequencySketch(size);
+        nodes = new LongObjectHashMap<>(size);
+        regions = new LinkQueue[] {new LinkQueue(), new LinkQueue(), new LinkQueue()};
+        evictables = new LinkQueue[] {new LinkQueue(), new LinkQueue(), new LinkQueue()};
+        windowCapacity = Math.max(size / 100, 1);
+        protectedCapacity = (int)((size - windowCapacity) * 0.8);
+        lock = new ReentrantLock();
+    }
+
+    @Override
+    public void recordAccess(long key) {
+        lock.lock();
+        try {
+            sketch.increment(key);
+            Node node = nodes.get(key);
+            if(node == null) {
+                node = new Node();
+                node.key = key;
+                nodes.put(key, node);
+                node.region = WINDOW;
+                regions[WINDOW].addLast(node.access);
+                if(regions[WINDOW].size > windowCapacity) {
+                    // 窗口溢出，最久未使用的资源进入试用段
+                    moveTo(regions[WINDOW].first(), PROBATION);
+                }
+            } else if(node.region == PROBATION) {
+                promote(node);
+            } else {
+                moveTo(node, node.region);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setEvictable(long key, boolean evictable) {
+        lock.lock();
+        try {
+            Node node = nodes.get(key);
+            if(node == null) {
+                return;
+            }
+            if(!evictable) {
+                evictables[node.region].remove(node.evict);
+            } else if(!node.evict.linked()) {
+                evictables[node.region].addLast(node.evict);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(long key) {
+        lock.lock();
+        try {
+            Node node = nodes.remove(key);
+            if(node != null) {
+                regions[node.region].remove(node.access);
+                evictables[node.region].remove(node.evict);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long selectVictim() {
+        lock.lock();
+        try {
+            Node candidate = evictables[WINDOW].first();
+            Node victim = evictables[PROBATION].first();
+            if(victim == null) {
+                victim = evictables[PROTECTED].first();
+            }
+            if(candidate == null) {
+                return victim == null ? NO_VICTIM : victim.key;
+            }
+            if(victim == null) {
+                return candidate.key;
+            }
+            // 窗口中的资源频率更高时才允许它淘汰主区的资源
+            return sketch.frequency(candidate.key) > sketch.frequency(victim.key) ? victim.key : candidate.key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 试用段中的资源再次被访问，晋升至保护段，保护段溢出时最久未使用的资源降回试用段
+     * @param node
+     */
+    private void promote(Node node) {
+        moveTo(node, PROTECTED);
+        if(regions[PROTECTED].size > protectedCapacity) {
+            moveTo(regions[PROTECTED].first(), PROBATION);
+        }
+    }
+
+    /**
+     * 将资源移动至区域的末尾（最近使用），可淘汰的资源同时移动至该区域可淘汰链表的末尾
+     * @param node
+     * @param region
+     */
+    private void moveTo(Node node, int region) {
+        regions[node.region].remove(node.access);
+        regions[region].addLast(node.access);
+        if(node.evict.linked()) {
+            evictables[node.region].remove(node.evict);
+            evictables[region].addLast(node.evict);
+        }
+        node.region = region;
+    }
+}
@@ -1,15 +1,38 @@
 package org.minidb.backend.dm;
 
+import org.minidb.backend.common.CacheMetrics;
 import org.minidb.backend.dm.dataItem.DataItem;
 import org.minidb.backend.dm.logger.Logger;
 import org.minidb.backend.dm.page.PageFirst;
 import org.minidb.backend.dm.pageCache.PageCache;
+import org.minidb.backend.dm.pageCache.PageCacheConfig;
 import org.minidb.backend.tm.TransactionManager;
+import org.minidb.common.constant.LogConstant;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 public interface DataManager {
     DataItem read(long uid) throws Exception;
+    // 异步读取数据项，所在页面不在缓存中时由页面缓存的IO线程读取，调用者可以同时发起多个读取
+    CompletableFuture<DataItem> readAsync(long uid);
+    // 预读提示：将这些数据项所在的页面读入缓存，不阻塞调用者
+    void prefetch(List<Long> uids);
     long insert(long xid, byte[] data) throws Exception;
+    // 释放不再被任何事务使用的数据项，带溢出链时一并释放所有溢出块
+    void free(long uid) throws Exception;
+    // 按顺序读取数据项的全部数据（包括溢出块），跳过开头 skip 个字节
+    InputStream openStream(DataItem di, int skip);
+    // 记录模糊检查点，删除恢复不再需要的日志
+    void checkpoint();
+    // 由 Version Manager 提供活跃事务表，未提供时检查点逐个查询事务状态
+    void setActiveTransactions(Supplier<Set<Long>> activeTransactions);
     void close();
+    // 数据项缓存的统计信息
+    CacheMetrics getCacheMetrics();
 
     /**
      * 在页面缓存和日志文件不存在时，创建页面缓存和日志文件、创建Data Manager
@@ -19,11 +42,24 @@ public interface DataManager {
      * @return
      */
     static DataManager createDataManager(String path, long memory, TransactionManager tm) {
-        PageCache pageCache = PageCache.createPageCache(path, memory);
+        return createDataManager(path, PageCacheConfig.builder().memory(memory).build(), tm);
+    }
+
+    /**
+     * 在页面缓存和日志文件不存在时，按页面缓存配置创建页面缓存和日志文件、创建Data Manager
+     * @param path
+     * @param config
+     * @param tm
+     * @return
+     */
+    static DataManager createDataManager(String path, PageCacheConfig config, TransactionManager tm) {
+        PageCache pageCache = PageCache.createPageCache(path, config);
         Logger logger = Logger.create(path);
 
         DataManagerImpl dm = new DataManagerImpl(pageCache, logger, tm);
+        dm.registerMetrics();
         dm.initPageOne();
+        dm.startCheckpointer(LogConstant.CHECKPOINT_INTERVAL_MILLIS);
         return dm;
     }
 
@@ -35,15 +71,28 @@ public interface DataManager {
      * @return
      */
     static DataManager openDataManager(String path, long memory, TransactionManager tm) {
-        PageCache pageCache = PageCache.openPageCache(path, memory);
+        return openDataManager(path, PageCacheConfig.builder().memory(memory).build(), tm);
+    }
+
+    /**
+     * 在页面缓存和日志文件存在时，按页面缓存配置打开页面缓存和日志文件、创建Data Manager
+     * @param path
+     * @param config
+     * @param tm
+     * @return
+     */
+    static DataManager openDataManager(String path, PageCacheConfig config, TransactionManager tm) {
+        PageCache pageCache = PageCache.openPageCache(path, config);
         Logger logger = Logger.open(path);
         DataManagerImpl dm = new DataManagerImpl(pageCache, logger, tm);
+        dm.registerMetrics();
         if(!dm.loadCheckPageOne()) {
             Recover.recover(tm, logger, pageCache);
+            dm.fillPageIndex();
         }
-        dm.fillPageIndex();
         PageFirst.setValidCheckStart(dm.pageFirst);
         dm.pageCache.flushPage(dm.pageFirst);
+        dm.startCheckpointer(LogConstant.CHECKPOINT_INTERVAL_MILLIS);
 
         return dm;
     }
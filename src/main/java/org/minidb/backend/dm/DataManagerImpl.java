@@ -1,61 +1,107 @@
 package org.minidb.backend.dm;
 
 import org.minidb.backend.common.AbstractCache;
+import org.minidb.backend.common.SubArray;
 import org.minidb.backend.dm.dataItem.DataItem;
 import org.minidb.backend.dm.dataItem.DataItemImpl;
+import org.minidb.backend.dm.dataItem.DataItemInputStream;
 import org.minidb.backend.dm.logger.Logger;
 import org.minidb.backend.dm.page.Page;
 import org.minidb.backend.dm.page.PageFirst;
+import org.minidb.backend.dm.page.PageFreeSpaceMap;
 import org.minidb.backend.dm.page.PageOthers;
+import org.minidb.backend.dm.pageIndex.FreeSpaceMap;
 import org.minidb.backend.dm.pageIndex.PageIndex;
 import org.minidb.backend.dm.pageIndex.PageInfo;
 import org.minidb.backend.dm.pageCache.PageCache;
 import org.minidb.backend.tm.TransactionManager;
+import org.minidb.backend.utils.ArrayUtil;
 import org.minidb.backend.utils.Panic;
+import org.minidb.backend.utils.Parser;
 import org.minidb.backend.utils.Types;
 import org.minidb.common.constant.DataItemConstant;
+import org.minidb.common.constant.LogConstant;
 import org.minidb.common.constant.MessageConstant;
-import org.minidb.common.constant.PageConstant;
-import org.minidb.common.exception.DataOverflowException;
+import org.minidb.common.constant.TMConstant;
+import org.minidb.common.exception.BadPageChecksumException;
 import org.minidb.common.exception.DatabaseBusyException;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
 public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager{
     TransactionManager tm;
     PageCache pageCache;
     Logger logger;
     PageIndex pageIndex;
+    FreeSpaceMap freeSpaceMap;
     Page pageFirst;
+    // 创建页面时判断下一页是否为表页，创建须互斥
+    private Lock newPageLock;
+    // 可能仍为活跃状态的事务记录的第一条日志的LSN，撤销这些事务需要从该处开始的日志
+    private Map<Long, Long> firstLsn;
+    // 活跃事务表，由 Version Manager 提供，为null时逐个查询事务状态
+    private Supplier<Set<Long>> activeTransactions;
+    // 最后一个检查点日志的LSN
+    private volatile long lastCheckpointLsn;
+    // 最近一个检查点开始时的日志末尾，页面最后一个镜像早于它时，之后的第一次修改须先记录镜像
+    private volatile long imageThreshold;
+    private Thread checkpointer;
+    private CountDownLatch checkpointerStop;
+    // 需要整理、但插入时仍有其他线程引用的页面，在其他引用释放时再整理
+    private Set<Integer> fragmentedPages;
 
     public DataManagerImpl(PageCache pageCache, Logger logger, TransactionManager tm) {
         super(0);
         this.pageCache = pageCache;
         this.logger = logger;
         this.tm = tm;
-        this.pageIndex = new PageIndex();
+        this.pageIndex = new PageIndex(pageCache.getPageSize());
+        this.freeSpaceMap = new FreeSpaceMap(pageCache);
+        this.newPageLock = new ReentrantLock();
+        this.firstLsn = new ConcurrentHashMap<>();
+        this.fragmentedPages = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    protected String cacheName() {
+        return "DataItemCache";
     }
 
     /**
      * 根据给定的唯一标识符 (uid) 获取数据项。
-     * 计算页面编号和偏移量，从 pageCache 获取对应页面，并使用 DataItem.parseDataItem(pg, offset, this) 解析数据项
+     * 计算页面编号，从 pageCache 获取对应页面，并使用 DataItem.parseDataItem(pg, uid, this) 解析数据项
      * @param uid
      * @return
      * @throws Exception
      */
     @Override
     protected DataItem get2Cache(long uid) throws Exception {
-        short offset = (short)(uid & ((1L << 16) - 1));
-        uid >>>= 32;
-        int pageNumber = (int)(uid & ((1L << 32) - 1));
+        int pageNumber = (int)(uid >>> 32);
         Page pg = pageCache.getPage(pageNumber);
-        return DataItem.parseDataItem(pg, offset, this);
+        return DataItem.parseDataItem(pg, uid, this);
     }
 
     /**
-     * 释放给定数据项所占用的页面资源
+     * 释放给定数据项所占用的页面资源，页面等待整理且这是最后一个引用时先整理页面
      * @param di
      */
     @Override
     protected void releaseByObj(DataItem di) {
+        compactDeferred(di.getPage());
         di.getPage().releasePage();
     }
 
@@ -75,11 +121,50 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         return di;
     }
 
+    /**
+     * 异步读取数据项：先由 getPageAsync 将所在页面读入缓存，页面就绪后再从缓存中读取数据项，此时不会再阻塞于磁盘读取
+     * 数据项无效时 future 的结果为 null
+     * @param uid
+     * @return
+     */
+    @Override
+    public CompletableFuture<DataItem> readAsync(long uid) {
+        int pageNumber = (int)(uid >>> 32);
+        return pageCache.getPageAsync(pageNumber).thenApply(pg -> {
+            try {
+                return read(uid);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                pg.releasePage();
+            }
+        });
+    }
+
+    /**
+     * 预读数据项所在的页面，页号连续的页面合并为一次预读
+     * @param uids
+     */
+    @Override
+    public void prefetch(List<Long> uids) {
+        int[] pageNumbers = new int[uids.size()];
+        for (int i = 0; i < pageNumbers.length; i ++) {
+            pageNumbers[i] = (int)(uids.get(i) >>> 32);
+        }
+        Arrays.sort(pageNumbers);
+        int start = 0;
+        for (int i = 1; i <= pageNumbers.length; i ++) {
+            if(i < pageNumbers.length && pageNumbers[i] <= pageNumbers[i - 1] + 1) {
+                continue;
+            }
+            pageCache.prefetch(pageNumbers[start], pageNumbers[i - 1] - pageNumbers[start] + 1);
+            start = i;
+        }
+    }
+
     /**
      * 插入新数据项。
-     * 检查数据长度是否超过最大限制，若超过则抛出 DataOverflowException。
-     * 尝试找到合适的页面索引存储数据，若没有找到则创建新页面。
-     * 将数据插入页面，并记录相关日志。
+     * 数据超过一页时拆分为溢出链插入。
      * 返回新数据项的唯一标识符
      * @param xid
      * @param data
@@ -89,57 +174,278 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     @Override
     public long insert(long xid, byte[] data) throws Exception {
         byte[] raw = DataItem.wrapDataItemRaw(data);
-        if(raw.length > PageConstant.MAX_FREE_SPACE) {
-            throw new DataOverflowException(MessageConstant.DATA_OVERFLOW);
+        if(raw.length > PageOthers.getMaxFreeSpace(pageCache.getPageSize())) {
+            return insertOverflow(xid, data);
         }
+        return insertRaw(xid, raw);
+    }
+
+    /**
+     * 将超过一页的数据拆分插入：数据的前 OVERFLOW_INLINE_SIZE 字节保留在首个数据项中，其余数据按页拆分为溢出块。
+     * 溢出块从最后一块开始插入，每块插入时已知下一块的uid。
+     * 每块的插入日志只记录一次该块的数据，撤销插入只需释放槽，不需要数据的前像
+     * @param xid
+     * @param data
+     * @return
+     * @throws Exception
+     */
+    private long insertOverflow(long xid, byte[] data) throws Exception {
+        int inline = DataItemConstant.OVERFLOW_INLINE_SIZE;
+        int chunkSize = PageOthers.getMaxFreeSpace(pageCache.getPageSize())
+                - DataItemConstant.DATA_OFFSET - DataItemConstant.NEXT_UID_SIZE;
+        int chunks = (data.length - inline + chunkSize - 1) / chunkSize;
+        long next = 0;
+        for (int i = chunks - 1; i >= 0; i --) {
+            int from = inline + i * chunkSize;
+            int to = Math.min(from + chunkSize, data.length);
+            byte[] chunk = ArrayUtil.concatArray(Parser.long2Byte(next), Arrays.copyOfRange(data, from, to));
+            next = insertRaw(xid, DataItem.wrapDataItemRaw(chunk));
+        }
+        return insertRaw(xid, DataItem.wrapOverflowDataItemRaw(Arrays.copyOf(data, inline), data.length, next));
+    }
+
+    /**
+     * 尝试找到合适的页面索引存储数据，若没有找到则先从空闲空间表加载页面，仍没有找到则创建新页面。
+     * 将数据插入页面，并记录相关日志
+     * @param xid
+     * @param raw
+     * @return
+     * @throws Exception
+     */
+    private long insertRaw(long xid, byte[] raw) throws Exception {
+        int maxFreeSpace = PageOthers.getMaxFreeSpace(pageCache.getPageSize());
 
-        PageInfo pi = null;
         for(int i = 0; i < DataItemConstant.MAX_INSERT_ATTEMPTS; i ++) {
-            pi = pageIndex.select(raw.length);
-            if (pi != null) {
-                break;
-            } else {
-                int newPgno = pageCache.newPage(PageOthers.initRaw());
-                pageIndex.add(newPgno, PageConstant.MAX_FREE_SPACE);
+            PageInfo pi = pageIndex.select(raw.length);
+            while(pi == null && freeSpaceMap.loadNext(pageIndex)) {
+                pi = pageIndex.select(raw.length);
+            }
+            if (pi == null) {
+                int newPgno = newDataPage();
+                addPage(newPgno, maxFreeSpace);
+                continue;
+            }
+            long uid = insertIntoPage(xid, pi.pageNumber, raw);
+            if(uid != 0) {
+                return uid;
             }
         }
-        if(pi == null) {
-            throw new DatabaseBusyException(MessageConstant.DATABASE_BUSY);
-        }
+        throw new DatabaseBusyException(MessageConstant.DATABASE_BUSY);
+    }
 
+    /**
+     * 将数据插入从pageIndex中取出的页面，插入后将页面重新加入pageIndex
+     * 页面的连续空闲空间不足时先整理页面。整理会移动页面中的记录，只在当前线程是页面唯一的引用者时进行，
+     * 此时页面中没有被引用的数据项；否则放弃该页面，以其连续空闲空间重新加入pageIndex，返回0，
+     * 页面留待最后一个其他引用释放时整理（见 compactDeferred）
+     * @param xid
+     * @param pageNumber
+     * @param raw
+     * @return
+     * @throws Exception
+     */
+    private long insertIntoPage(long xid, int pageNumber, byte[] raw) throws Exception {
         Page pg = null;
         int freeSpace = 0;
+        // 需要等待持久化的日志，页面在此之后才能释放
+        long lsn = -1;
         try {
-            pg = pageCache.getPage(pi.pageNumber);
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
+            pg = pageCache.getPage(pageNumber);
+            // 释放和整理会修改同一页面的槽目录，检查空间、记录日志与插入须在页面锁内完成
+            pg.lock();
+            try {
+                if(PageOthers.getContiguousFreeSpace(pg) < raw.length) {
+                    if(pageCache.getReferences(pg) == 1) {
+                        // 整理不记录日志，页面须先有镜像
+                        lsn = markPageDirty(pg);
+                        PageOthers.compact(pg);
+                    } else {
+                        fragmentedPages.add(pageNumber);
+                    }
+                    if(PageOthers.getContiguousFreeSpace(pg) < raw.length) {
+                        freeSpace = PageOthers.getContiguousFreeSpace(pg);
+                        return 0;
+                    }
+                }
+                byte[] log = Recover.insertLog(xid, pg, raw);
+                lsn = log(xid, pg, log);
 
-            short offset = PageOthers.insert(pg, raw);
+                short slot = PageOthers.insert(pg, raw);
+                freeSpace = PageOthers.getFreeSpace(pg);
+                return Types.addressToUid(pageNumber, slot, PageOthers.getGeneration(pg, slot));
+            } finally {
+                pg.unlock();
+            }
+        } finally {
+            // 不持有页面锁等待日志持久化，页面只在没有引用时写回，释放前日志已持久化
+            if(lsn >= 0) {
+                logger.flush(lsn);
+            }
+            // 将取出的pg重新插入pIndex，空闲空间须在释放页面前读取，释放后页面的帧可能被复用
+            if(pg != null) {
+                pg.releasePage();
+            }
+            addPage(pageNumber, freeSpace);
+        }
+    }
 
-            pg.releasePage();
-            return Types.addressToUid(pi.pageNumber, offset);
+    /**
+     * 整理插入时因被引用而未能整理的页面，调用者持有页面的一个引用，页面没有其他引用时才整理
+     * 新的引用在整理完成前无法通过页面锁解析数据项，整理后以全部空闲空间更新pageIndex
+     * @param pg
+     */
+    private void compactDeferred(Page pg) {
+        if(!fragmentedPages.contains(pg.getPageNumber())) {
+            return;
+        }
+        long lsn;
+        pg.lock();
+        try {
+            if(pageCache.getReferences(pg) != 1 || !fragmentedPages.remove(pg.getPageNumber())) {
+                return;
+            }
+            lsn = markPageDirty(pg);
+            PageOthers.compact(pg);
+            pageIndex.update(pg.getPageNumber(), PageOthers.getFreeSpace(pg));
+        } finally {
+            pg.unlock();
+        }
+        // 整理之后没有日志，须在调用者释放页面前等待镜像持久化
+        if(lsn >= 0) {
+            logger.flush(lsn);
+        }
+    }
 
+    /**
+     * 创建一个普通页，下一页的位置属于空闲空间表时先创建表页
+     * @return
+     */
+    private int newDataPage() {
+        newPageLock.lock();
+        try {
+            if(freeSpaceMap.isMapPage(pageCache.getPageNumber() + 1)) {
+                pageCache.newPage(PageFreeSpaceMap.initRaw(pageCache.getPageSize()));
+            }
+            return pageCache.newPage(PageOthers.initRaw(pageCache.getPageSize()));
         } finally {
-            // 将取出的pg重新插入pIndex
-            if(pg != null) {
-                pageIndex.add(pi.pageNumber, PageOthers.getFreeSpace(pg));
-            } else {
-                pageIndex.add(pi.pageNumber, freeSpace);
+            newPageLock.unlock();
+        }
+    }
+
+    /**
+     * 将页面加入pageIndex，并在空闲空间表中记录其空闲空间
+     * @param pageNumber
+     * @param freeSpace
+     */
+    private void addPage(int pageNumber, int freeSpace) {
+        freeSpaceMap.set(pageNumber, freeSpace);
+        pageIndex.add(pageNumber, freeSpace);
+    }
+
+    /**
+     * 释放数据项，带溢出链时再释放所有溢出块
+     * 先释放首个数据项，中途崩溃时只会遗留无法访问的溢出块，不会留下指向已释放溢出块的数据项
+     * @param uid
+     * @throws Exception
+     */
+    @Override
+    public void free(long uid) throws Exception {
+        List<Long> chunks = overflowChunks(uid);
+        freeSlot(uid);
+        for (long chunkUid : chunks) {
+            freeSlot(chunkUid);
+        }
+    }
+
+    /**
+     * 获取数据项的所有溢出块
+     * @param uid
+     * @return
+     * @throws Exception
+     */
+    private List<Long> overflowChunks(long uid) throws Exception {
+        List<Long> chunks = new ArrayList<>();
+        DataItem di = read(uid);
+        if(di == null) {
+            return chunks;
+        }
+        long next = di.getOverflowUid();
+        di.release();
+        while(next != 0) {
+            chunks.add(next);
+            DataItem chunk = read(next);
+            if(chunk == null) {
+                break;
             }
+            SubArray data = chunk.getData();
+            next = data.data.getLong(data.start);
+            chunk.release();
         }
+        return chunks;
     }
 
     /**
-     * 关闭缓存、记录器和第一页的资源
+     * 按顺序读取数据项的全部数据，溢出块在读取时才逐块读入
+     * @param di
+     * @param skip
+     * @return
+     */
+    @Override
+    public InputStream openStream(DataItem di, int skip) {
+        return new DataItemInputStream(this, di, skip);
+    }
+
+    /**
+     * 释放数据项所在的槽，并更新页面在pageIndex中的空闲空间
+     * 释放不属于任何事务，以超级事务记录日志，恢复时总会重做
+     * 已引用该数据项的线程仍可读取页面中的原数据，页面被整理前其空间不会被复用
+     * @param uid
+     * @throws Exception
+     */
+    private void freeSlot(long uid) throws Exception {
+        short slot = (short)(uid & ((1L << 16) - 1));
+        short generation = (short)(uid >>> 16);
+        int pageNumber = (int)(uid >>> 32);
+        Page pg = pageCache.getPage(pageNumber);
+        int freeSpace;
+        try {
+            long lsn;
+            pg.lock();
+            try {
+                lsn = log(TMConstant.SUPER_XID, pg, Recover.freeLog(uid));
+                PageOthers.free(pg, slot, generation);
+                freeSpace = PageOthers.getFreeSpace(pg);
+                // 在页面锁内更新，pageIndex 中的空闲空间与页面的修改顺序一致
+                pageIndex.update(pageNumber, freeSpace);
+            } finally {
+                pg.unlock();
+            }
+            logger.flush(lsn);
+            compactDeferred(pg);
+        } finally {
+            pg.releasePage();
+        }
+        freeSpaceMap.set(pageNumber, freeSpace);
+    }
+
+    /**
+     * 关闭缓存和第一页的资源，所有页面写回后记录最后一个检查点，再关闭记录器
      */
     @Override
     public void close() {
+        stopCheckpointer();
         super.closeCache();
-        logger.close();
 
+        int pageCount = pageCache.getPageNumber();
+        long redoLsn = logger.getNextLsn();
         PageFirst.setValidCheckClose(pageFirst);
+        PageFirst.setPageCount(pageFirst, pageCount);
         pageFirst.releasePage();
         pageCache.closeCache(pageFirst);
+
+        // 所有页面都已写回，检查点不需要脏页表
+        writeCheckpoint(redoLsn, pageCount, new HashMap<>());
+        logger.close();
     }
 
     /**
@@ -149,7 +455,156 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
      */
     public void logDataItem(long xid, DataItem di) {
         byte[] log = Recover.updateLog(xid, di);
-        logger.log(log);
+        logger.flush(log(xid, di.getPage(), log));
+    }
+
+    /**
+     * 追加一条修改页面的日志，不等待其持久化，调用者须在释放页面前等待返回的LSN持久化。
+     * 页面自最近一个检查点开始以来没有镜像时先追加页面镜像。
+     * 以日志分配到的LSN更新页面的 recLsn 和事务的第一条日志LSN，登记在记录器的追加锁内完成，
+     * 检查点先取日志末尾再读取脏页表和活跃事务表，不会漏掉已写日志而尚未登记的修改
+     * @param xid
+     * @param pg
+     * @param log
+     * @return 该日志的LSN
+     */
+    private long log(long xid, Page pg, byte[] log) {
+        pg.lock();
+        try {
+            synchronized (pg) {
+                appendPageImage(pg);
+                return logger.append(log, lsn -> {
+                    pg.updateRecLsn(lsn);
+                    if(xid != TMConstant.SUPER_XID) {
+                        firstLsn.putIfAbsent(xid, lsn);
+                    }
+                });
+            }
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    /**
+     * 页面即将被修改而不记录日志（更新数据项前、整理页面前），需要时先追加页面镜像，再标记为脏页
+     * 判断与标记在页面对象锁内完成，检查点读取脏页表时，该页面或已计入脏页表，或之后的判断已使用新的阈值
+     * @param pg
+     * @return 镜像的LSN，没有追加镜像时返回-1。镜像不等待持久化，之后的日志或调用者在释放页面前刷写
+     */
+    public long markPageDirty(Page pg) {
+        pg.lock();
+        try {
+            synchronized (pg) {
+                long lsn = appendPageImage(pg);
+                pg.setPageDirty(true);
+                return lsn;
+            }
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    /**
+     * 页面最后一个镜像早于最近一个检查点开始时的日志末尾时，追加页面的完整镜像（即 PostgreSQL 的 full_page_writes）
+     * 写回时崩溃可能使页面只写入一部分，恢复时以最后一个镜像重建页面，再重做之后的日志。
+     * 检查点开始后第一次修改的页面都有之后的镜像，检查点时的脏页在脏页表中计入其镜像，重做起点不会晚于需要的镜像。
+     * 调用者持有页面锁和页面对象锁，镜像中不会缺少已记录日志的修改，也不会夹在判断与修改之间读取脏页表
+     * @param pg
+     * @return 镜像的LSN，不需要镜像时返回-1
+     */
+    private long appendPageImage(Page pg) {
+        if(pg.getImageLsn() >= imageThreshold) {
+            return -1;
+        }
+        return logger.append(Recover.pageImageLog(pg), pg::setImageLsn);
+    }
+
+    /**
+     * 设置活跃事务表，检查点据此判断哪些事务可能需要撤销
+     * @param activeTransactions
+     */
+    @Override
+    public void setActiveTransactions(Supplier<Set<Long>> activeTransactions) {
+        this.activeTransactions = activeTransactions;
+    }
+
+    /**
+     * 执行模糊检查点，不写回页面，也不阻塞插入和更新：
+     * 先取日志末尾，再读取页面缓存的脏页表和活跃事务表，记录检查点日志并写入日志文件头，删除恢复不再需要的日志段文件。
+     * 重做从日志末尾与脏页表中最早的 recLsn 开始，撤销需要活跃事务的全部日志
+     */
+    @Override
+    public synchronized void checkpoint() {
+        int pageCount = pageCache.getPageNumber();
+        long redoLsn = logger.getNextLsn();
+        // 先提高镜像阈值再读取脏页表，之后修改的页面会重新记录镜像
+        imageThreshold = redoLsn;
+        pageCache.forgetImagesBefore(redoLsn);
+        Map<Integer, Long> dirtyPages = pageCache.getDirtyPages();
+        for (long recLsn : dirtyPages.values()) {
+            redoLsn = Math.min(redoLsn, recLsn);
+        }
+        writeCheckpoint(redoLsn, pageCount, dirtyPages);
+    }
+
+    /**
+     * 根据活跃事务表整理事务的第一条日志，记录检查点日志
+     * @param redoLsn
+     * @param pageCount
+     * @param dirtyPages
+     */
+    private synchronized void writeCheckpoint(long redoLsn, int pageCount, Map<Integer, Long> dirtyPages) {
+        Set<Long> active = activeTransactions == null ? null : activeTransactions.get();
+        Map<Long, Long> activeFirstLsn = new HashMap<>();
+        for (Map.Entry<Long, Long> entry : firstLsn.entrySet()) {
+            long xid = entry.getKey();
+            if(active == null ? tm.isActive(xid) : active.contains(xid)) {
+                activeFirstLsn.put(xid, entry.getValue());
+            } else {
+                firstLsn.remove(xid, entry.getValue());
+            }
+        }
+        long startLsn = redoLsn;
+        for (long lsn : activeFirstLsn.values()) {
+            startLsn = Math.min(startLsn, lsn);
+        }
+
+        long lsn = logger.log(Recover.checkpointLog(redoLsn, pageCount, activeFirstLsn, dirtyPages));
+        logger.setCheckpoint(lsn);
+        logger.removeBefore(startLsn);
+        lastCheckpointLsn = lsn;
+    }
+
+    /**
+     * 启动后台检查点线程，每隔一段时间检查一次，上次检查点之后的日志足够多时执行检查点
+     * @param intervalMillis
+     */
+    void startCheckpointer(long intervalMillis) {
+        checkpointerStop = new CountDownLatch(1);
+        checkpointer = new Thread(() -> {
+            try {
+                while(!checkpointerStop.await(intervalMillis, TimeUnit.MILLISECONDS)) {
+                    if(logger.getNextLsn() - lastCheckpointLsn >= LogConstant.CHECKPOINT_LOG_SIZE) {
+                        checkpoint();
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "checkpoint");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    private void stopCheckpointer() {
+        if(checkpointer == null) {
+            return;
+        }
+        checkpointerStop.countDown();
+        try {
+            checkpointer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -165,7 +620,7 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
      * 初始化第一页，创建并缓存它，并刷新到持久存储
      */
     void initPageOne() {
-        int pageNumber = pageCache.newPage(PageFirst.InitRaw());
+        int pageNumber = pageCache.newPage(PageFirst.InitRaw(pageCache.getPageSize()));
         assert pageNumber == 1;
         try {
             pageFirst = pageCache.getPage(pageNumber);
@@ -177,11 +632,20 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
 
     /**
      * 在打开已有文件时,读取并检查第一页的有效性，返回检查结果
+     * 第一页校验和错误时将其重置，并返回false以执行恢复
      * @return
      */
     boolean loadCheckPageOne() {
         try {
             pageFirst = pageCache.getPage(1);
+        } catch (BadPageChecksumException e) {
+            pageCache.resetPage(1, PageFirst.InitRaw(pageCache.getPageSize()));
+            try {
+                pageFirst = pageCache.getPage(1);
+            } catch (Exception e1) {
+                Panic.panic(e1);
+            }
+            return false;
         } catch (Exception e) {
             Panic.panic(e);
         }
@@ -189,19 +653,10 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     }
 
     /**
-     * 初始化pageIndex，遍历缓存的页面并记录每个页面的空闲空间
+     * 崩溃恢复后重建空闲空间表并填充pageIndex，遍历所有普通页并记录每个页面的空闲空间
+     * 正常打开时不调用，pageIndex 从空闲空间表中按需加载
      */
     void fillPageIndex() {
-        int pageNumber = pageCache.getPageNumber();
-        for(int i = 2; i <= pageNumber; i ++) {
-            Page page = null;
-            try {
-                page = pageCache.getPage(i);
-            } catch (Exception e) {
-                Panic.panic(e);
-            }
-            pageIndex.add(i, PageOthers.getFreeSpace(page));
-            page.releasePage();
-        }
+        freeSpaceMap.rebuild(pageIndex);
     }
 }
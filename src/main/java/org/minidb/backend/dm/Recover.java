@@ -11,9 +11,16 @@ import org.minidb.backend.utils.ArrayUtil;
 import org.minidb.backend.utils.Panic;
 import org.minidb.backend.utils.Parser;
 import org.minidb.common.constant.LogConstant;
+import org.minidb.common.constant.TMConstant;
+import org.minidb.common.exception.BadPageChecksumException;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 // import com.google.common.primitives.Bytes;
 
@@ -23,28 +30,55 @@ import java.util.Map.Entry;
  */
 public class Recover {
     /**
-     * 事务的插入日志：在xid文件的第pageNumber页面的offset偏移处插入数据raw
+     * 事务的插入日志：在xid文件的第pageNumber页面的slot号槽插入数据raw，插入后槽的代数为generation
      */
     static class InsertLogInfo {
         long xid;
         int pageNumber;
-        short offset;
+        short slot;
+        short generation;
         byte[] raw;
     }
 
     /**
-     * 事务的更新日志：在xid文件的第pageNumber页面的offset偏移处将old raw 更新为 new raw
+     * 释放日志：释放第pageNumber页面的slot号槽中的数据，由超级事务记录，只需重做
+     */
+    static class FreeLogInfo {
+        long xid;
+        int pageNumber;
+        short slot;
+        short generation;
+    }
+
+    /**
+     * 事务的更新日志：在xid文件的第pageNumber页面的slot号槽中将old raw 更新为 new raw
      */
     static class UpdateLogInfo {
         long xid;
         int pageNumber;
-        short offset;
+        short slot;
+        short generation;
         byte[] oldRaw;
         byte[] newRaw;
     }
 
+    /**
+     * 检查点日志：redoLsn 之前的修改都已写回页面，重做从 redoLsn 开始；
+     * activeTransactions 是检查点时的活跃事务及其第一条日志的LSN，撤销需要从这些位置开始的日志；
+     * dirtyPages 是检查点时的脏页及恢复它需要的最早日志LSN；检查点时已分配 pageCount 个页面，恢复时不会截断这些页面
+     */
+    static class CheckpointLogInfo {
+        long redoLsn;
+        int pageCount;
+        Map<Long, Long> activeTransactions;
+        Map<Integer, Long> dirtyPages;
+    }
+
     /**
      * 根据日志记录判断数据恢复类型并恢复崩溃的数据
+     * 只顺序读取一遍日志：需要重做的日志按页面编号分到各个分区，需要撤销的日志按事务分组；
+     * 之后各个分区并行重做，每个分区内按日志顺序执行，同一页面的修改只在一个分区中按原顺序重做；
+     * 重做完成后各个不正常事务并行撤销，由规定 2，不同事务修改的数据互不相同
      * @param transactionManager
      * @param logger
      * @param pageCache
@@ -52,20 +86,53 @@ public class Recover {
     public static void recover(TransactionManager transactionManager, Logger logger, PageCache pageCache) {
         System.out.println("正在根据日志记录恢复崩溃的数据...");
 
-        logger.rewind();
-        int maxPageNumber = 0;
+        CheckpointLogInfo checkpoint = readCheckpoint(logger);
+        rewindToStart(logger, checkpoint);
+        int maxPageNumber = checkpoint == null ? 0 : checkpoint.pageCount;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        List<List<byte[]>> redoPartitions = new ArrayList<>();
+        for (int i = 0; i < parallelism; i ++) {
+            redoPartitions.add(new ArrayList<>());
+        }
+        Map<Long, List<byte[]>> undoLogs = new HashMap<>();
+        // 每个事务的状态只读取一次
+        Map<Long, Boolean> active = new HashMap<>();
         while(true) {
             byte[] log = logger.getNextLogData();
             if(log == null) break;
+            if(isCheckpointLog(log)) {
+                continue;
+            }
+            if(isPageImageLog(log)) {
+                int pageNumber = getPageImagePageNumber(log);
+                maxPageNumber = Math.max(maxPageNumber, pageNumber);
+                redoPartitions.get(pageNumber % parallelism).add(log);
+                continue;
+            }
+            long xid;
             int pageNumber;
             if(isInsertLog(log)) {
-                pageNumber = parseInsertLog(log).pageNumber;
+                InsertLogInfo li = parseInsertLog(log);
+                xid = li.xid;
+                pageNumber = li.pageNumber;
+            } else if(isFreeLog(log)) {
+                FreeLogInfo fi = parseFreeLog(log);
+                xid = fi.xid;
+                pageNumber = fi.pageNumber;
             } else {
-                pageNumber = parseUpdateLog(log).pageNumber;
+                UpdateLogInfo xi = parseUpdateLog(log);
+                xid = xi.xid;
+                pageNumber = xi.pageNumber;
             }
             if(pageNumber > maxPageNumber) {
                 maxPageNumber = pageNumber;
             }
+            // 释放日志由超级事务记录，总是重做；其余日志所属事务已完成则重做，否则撤销
+            if(!isFreeLog(log) && active.computeIfAbsent(xid, transactionManager::isActive)) {
+                undoLogs.computeIfAbsent(xid, k -> new ArrayList<>()).add(log);
+            } else {
+                redoPartitions.get(pageNumber % parallelism).add(log);
+            }
         }
         if(maxPageNumber == 0) {
             maxPageNumber = 1;
@@ -73,90 +140,229 @@ public class Recover {
         pageCache.truncateByPgNumber(maxPageNumber);
         System.out.println("将页面缓存截断至" + maxPageNumber + "页");
 
-        redoTransactions(transactionManager, logger, pageCache);
-        System.out.println("已重做所有正常事务");
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Callable<Void>> redoTasks = new ArrayList<>();
+            for (List<byte[]> logs : redoPartitions) {
+                redoTasks.add(() -> {
+                    redoPartition(pageCache, logs);
+                    return null;
+                });
+            }
+            invokeAll(pool, redoTasks);
+            System.out.println("已重做所有正常事务");
 
-        undoTransactions(transactionManager, logger, pageCache);
-        System.out.println("已撤销所有不正常事务");
+            List<Callable<Void>> undoTasks = new ArrayList<>();
+            for (Entry<Long, List<byte[]>> entry : undoLogs.entrySet()) {
+                undoTasks.add(() -> {
+                    undoTransaction(pageCache, entry.getValue());
+                    transactionManager.abortTransaction(entry.getKey());
+                    return null;
+                });
+            }
+            invokeAll(pool, undoTasks);
+            System.out.println("已撤销所有不正常事务");
+        } finally {
+            pool.shutdown();
+        }
+
+        // 恢复修改的页面没有对应的 recLsn，不会出现在之后检查点的脏页表中，须在此写回
+        pageCache.flushAll();
 
         System.out.println("数据恢复已完成！");
     }
 
     /**
-     * 重做所有正常事务
-     * @param transactionManager
-     * @param logger
+     * 在线程池中执行全部任务并等待完成，任一任务失败时终止
+     * @param pool
+     * @param tasks
+     */
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) {
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Panic.panic(e);
+            }
+        }
+    }
+
+    /**
+     * 按日志顺序重做一个分区中的日志
+     * 页面镜像包含之前所有日志的修改，有镜像的页面从最后一个镜像开始重做，之前的日志直接跳过，
+     * 写回时只写入一部分的页面不会被读取
      * @param pageCache
-     *
+     * @param logs
      */
-    private static void redoTransactions(TransactionManager transactionManager, Logger logger, PageCache pageCache) {
-        logger.rewind();
-        while(true) {
-            byte[] log = logger.getNextLogData();
-            if(log == null) break;
-            // 当事务的状态是已完成，则重做
-            if(isInsertLog(log)) {
-                long xid = parseInsertLog(log).xid;
-                if(!transactionManager.isActive(xid)) {
-                    doInsertLog(pageCache, log, LogConstant.REDO);
+    private static void redoPartition(PageCache pageCache, List<byte[]> logs) {
+        Map<Integer, byte[]> lastImages = new HashMap<>();
+        for (byte[] log : logs) {
+            if(isPageImageLog(log)) {
+                lastImages.put(getPageImagePageNumber(log), log);
+            }
+        }
+        for (byte[] log : logs) {
+            if(isPageImageLog(log)) {
+                int pageNumber = getPageImagePageNumber(log);
+                if(lastImages.get(pageNumber) == log) {
+                    lastImages.remove(pageNumber);
+                    pageCache.resetPage(pageNumber, Arrays.copyOfRange(log, LogConstant.PAGE_IMAGE_DATA_OFFSET, log.length));
                 }
+                continue;
+            }
+            if(lastImages.containsKey(getPageNumber(log))) {
+                continue;
+            }
+            if(isInsertLog(log)) {
+                doInsertLog(pageCache, log, LogConstant.REDO);
+            } else if(isFreeLog(log)) {
+                doFreeLog(pageCache, log);
             } else {
-                long xid = parseUpdateLog(log).xid;
-                if(!transactionManager.isActive(xid)) {
-                    doUpdateLog(pageCache, log, LogConstant.REDO);
-                }
+                doUpdateLog(pageCache, log, LogConstant.REDO);
             }
         }
     }
 
     /**
-     * 撤销所有不正常事务
-     * @param transactionManager
-     *
-     * @param logger
+     * 倒序撤销一个事务的日志
      * @param pageCache
+     * @param logs
      */
-    private static void undoTransactions(TransactionManager transactionManager, Logger logger, PageCache pageCache) {
-        Map<Long, List<byte[]>> logCache = new HashMap<>();
-        logger.rewind();
-        // 获取所有状态为active的日志
-        while(true) {
-            byte[] log = logger.getNextLogData();
-            if(log == null) break;
+    private static void undoTransaction(PageCache pageCache, List<byte[]> logs) {
+        for (int i = logs.size()-1; i >= 0; i --) {
+            byte[] log = logs.get(i);
             if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(transactionManager.isActive(xid)) {
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
+                doInsertLog(pageCache, log, LogConstant.UNDO);
             } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(transactionManager.isActive(xid)) {
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
+                doUpdateLog(pageCache, log, LogConstant.UNDO);
             }
         }
+    }
 
-        // 对所有active log进行倒序undo
-        for(Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
-            List<byte[]> logs = entry.getValue();
-            for (int i = logs.size()-1; i >= 0; i --) {
-                byte[] log = logs.get(i);
-                if(isInsertLog(log)) {
-                    doInsertLog(pageCache, log, LogConstant.UNDO);
-                } else {
-                    doUpdateLog(pageCache, log, LogConstant.UNDO);
-                }
-            }
-            transactionManager.abortTransaction(entry.getKey());
+    /**
+     * 读取最后一个检查点日志，没有检查点时返回null
+     * @param logger
+     * @return
+     */
+    private static CheckpointLogInfo readCheckpoint(Logger logger) {
+        logger.rewind();
+        byte[] log = logger.getNextLogData();
+        if(log == null || !isCheckpointLog(log)) {
+            return null;
         }
+        return parseCheckpointLog(log);
+    }
+
+    /**
+     * 将日志指针移动至恢复开始的位置：有检查点时为 redoLsn 与活跃事务第一条日志中较早的一个，否则为第一条日志
+     * 重做是幂等的，从更早的位置开始重做不影响结果
+     * @param logger
+     * @param checkpoint
+     */
+    private static void rewindToStart(Logger logger, CheckpointLogInfo checkpoint) {
+        if(checkpoint == null) {
+            logger.rewind();
+            return;
+        }
+        long start = checkpoint.redoLsn;
+        for (long lsn : checkpoint.activeTransactions.values()) {
+            start = Math.min(start, lsn);
+        }
+        logger.seek(start);
+    }
+
+    /**
+     * 判断是否为检查点日志
+     * @param log
+     * @return
+     */
+    private static boolean isCheckpointLog(byte[] log) {
+        return log[0] == LogConstant.LOG_TYPE_CHECKPOINT;
+    }
+
+    /**
+     * 生成一条检查点日志
+     * @param redoLsn
+     * @param pageCount
+     * @param activeTransactions
+     * @param dirtyPages
+     * @return
+     */
+    public static byte[] checkpointLog(long redoLsn, int pageCount, Map<Long, Long> activeTransactions,
+                                       Map<Integer, Long> dirtyPages) {
+        ByteBuffer buffer = ByteBuffer.allocate(LogConstant.CHECKPOINT_TABLES_OFFSET
+                + 4 + activeTransactions.size() * 16 + 4 + dirtyPages.size() * 12);
+        buffer.put(LogConstant.LOG_TYPE_CHECKPOINT).putLong(redoLsn).putInt(pageCount);
+        buffer.putInt(activeTransactions.size());
+        for (Entry<Long, Long> entry : activeTransactions.entrySet()) {
+            buffer.putLong(entry.getKey()).putLong(entry.getValue());
+        }
+        buffer.putInt(dirtyPages.size());
+        for (Entry<Integer, Long> entry : dirtyPages.entrySet()) {
+            buffer.putInt(entry.getKey()).putLong(entry.getValue());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 根据检查点日志生成其检查点信息
+     * @param log
+     * @return
+     */
+    private static CheckpointLogInfo parseCheckpointLog(byte[] log) {
+        CheckpointLogInfo checkpointLogInfo = new CheckpointLogInfo();
+        checkpointLogInfo.redoLsn = Parser.parseLong(log, LogConstant.CHECKPOINT_REDO_OFFSET);
+        checkpointLogInfo.pageCount = Parser.parseInt(log, LogConstant.CHECKPOINT_PAGECOUNT_OFFSET);
+        ByteBuffer buffer = ByteBuffer.wrap(log, LogConstant.CHECKPOINT_TABLES_OFFSET,
+                log.length - LogConstant.CHECKPOINT_TABLES_OFFSET);
+        checkpointLogInfo.activeTransactions = new HashMap<>();
+        for (int i = buffer.getInt(); i > 0; i --) {
+            checkpointLogInfo.activeTransactions.put(buffer.getLong(), buffer.getLong());
+        }
+        checkpointLogInfo.dirtyPages = new HashMap<>();
+        for (int i = buffer.getInt(); i > 0; i --) {
+            checkpointLogInfo.dirtyPages.put(buffer.getInt(), buffer.getLong());
+        }
+        return checkpointLogInfo;
+    }
+
+    /**
+     * 判断是否为页面镜像日志
+     * @param log
+     * @return
+     */
+    private static boolean isPageImageLog(byte[] log) {
+        return log[0] == LogConstant.LOG_TYPE_PAGE_IMAGE;
+    }
+
+    /**
+     * 生成一条页面镜像日志，记录页面当前的全部数据
+     * @param page
+     * @return
+     */
+    public static byte[] pageImageLog(Page page) {
+        byte[] logType = {LogConstant.LOG_TYPE_PAGE_IMAGE};
+        byte[] pageNumberRaw = Parser.int2Byte(page.getPageNumber());
+        byte[] data = new byte[page.getPageBuffer().capacity()];
+        page.getPageBuffer().get(0, data);
+        return ArrayUtil.concatArray(logType, pageNumberRaw, data);
+    }
+
+    private static int getPageImagePageNumber(byte[] log) {
+        return Parser.parseInt(log, LogConstant.PAGE_IMAGE_PAGENUM_OFFSET);
+    }
+
+    /**
+     * 获取插入、释放或更新日志修改的页号
+     * @param log
+     * @return
+     */
+    private static int getPageNumber(byte[] log) {
+        if(isInsertLog(log)) {
+            return Parser.parseInt(log, LogConstant.INSERT_PAGENUM_OFFSET);
+        }
+        long uid = Parser.parseLong(log, isFreeLog(log) ? LogConstant.FREE_UID_OFFSET : LogConstant.UPDATE_UID_OFFSET);
+        return (int)(uid >>> 32);
     }
 
     /**
@@ -168,6 +374,60 @@ public class Recover {
         return log[0] == LogConstant.LOG_TYPE_INSERT;
     }
 
+    /**
+     * 判断是否为释放类型日志
+     * @param log
+     * @return
+     */
+    private static boolean isFreeLog(byte[] log) {
+        return log[0] == LogConstant.LOG_TYPE_FREE;
+    }
+
+    /**
+     * 生成一条释放类型的日志
+     * @param uid
+     * @return
+     */
+    public static byte[] freeLog(long uid) {
+        byte[] logType = {LogConstant.LOG_TYPE_FREE};
+        byte[] xidRaw = Parser.long2Byte(TMConstant.SUPER_XID);
+        byte[] uidRaw = Parser.long2Byte(uid);
+        return ArrayUtil.concatArray(logType, xidRaw, uidRaw);
+    }
+
+    /**
+     * 根据单条释放类日志生成其日志释放信息
+     * @param log
+     * @return
+     */
+    private static FreeLogInfo parseFreeLog(byte[] log) {
+        FreeLogInfo freeLogInfo = new FreeLogInfo();
+        freeLogInfo.xid = Parser.parseLong(Arrays.copyOfRange(log, LogConstant.XID_OFFSET, LogConstant.FREE_UID_OFFSET));
+        long uid = Parser.parseLong(Arrays.copyOfRange(log, LogConstant.FREE_UID_OFFSET, LogConstant.FREE_UID_OFFSET + 8));
+        freeLogInfo.slot = (short)(uid & ((1L << 16) - 1));
+        freeLogInfo.generation = (short)(uid >>> 16);
+        uid >>>= 32;
+        freeLogInfo.pageNumber = (int)(uid & ((1L << 32) - 1));
+        return freeLogInfo;
+    }
+
+    /**
+     * 执行释放日志，释放是幂等的，重做已释放的槽不会改变页面
+     * @param pageCache
+     * @param log
+     */
+    private static void doFreeLog(PageCache pageCache, byte[] log) {
+        FreeLogInfo freeLogInfo = parseFreeLog(log);
+        Page pg = getPage(pageCache, freeLogInfo.pageNumber);
+        pg.lock();
+        try {
+            PageOthers.free(pg, freeLogInfo.slot, freeLogInfo.generation);
+        } finally {
+            pg.unlock();
+            pg.releasePage();
+        }
+    }
+
     /**
      * 生成一条更新类型的日志
      * @param xid
@@ -180,7 +440,8 @@ public class Recover {
         byte[] uidRaw = Parser.long2Byte(dataItem.getUid());
         byte[] oldRaw = dataItem.getOldRaw();
         SubArray raw1 = dataItem.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw1.data, raw1.start, raw1.end);
+        byte[] newRaw = new byte[raw1.end - raw1.start];
+        raw1.data.get(raw1.start, newRaw);
         return ArrayUtil.concatArray(logType, xidRaw, uidRaw, oldRaw, newRaw);
     }
 
@@ -193,7 +454,8 @@ public class Recover {
         UpdateLogInfo updateLogInfo = new UpdateLogInfo();
         updateLogInfo.xid = Parser.parseLong(Arrays.copyOfRange(log, LogConstant.XID_OFFSET, LogConstant.UPDATE_UID_OFFSET));
         long uid = Parser.parseLong(Arrays.copyOfRange(log, LogConstant.UPDATE_UID_OFFSET, LogConstant.UPDATE_RAW_OFFSET));
-        updateLogInfo.offset = (short)(uid & ((1L << 16) - 1));
+        updateLogInfo.slot = (short)(uid & ((1L << 16) - 1));
+        updateLogInfo.generation = (short)(uid >>> 16);
         uid >>>= 32;
         updateLogInfo.pageNumber = (int)(uid & ((1L << 32) - 1));
         // 单个数据（旧数据、新数据）的长度
@@ -212,29 +474,26 @@ public class Recover {
      */
     private static void doUpdateLog(PageCache pageCache, byte[] log, int flag) {
         int pageNumber;
-        short offset;
+        short slot;
         byte[] raw;
 
         UpdateLogInfo updateLogInfo = parseUpdateLog(log);
         pageNumber = updateLogInfo.pageNumber;
-        offset = updateLogInfo.offset;
+        slot = updateLogInfo.slot;
         raw = (flag == LogConstant.REDO) ? updateLogInfo.newRaw : updateLogInfo.oldRaw;
 
-        Page pg = null;
-        try {
-            pg = pageCache.getPage(pageNumber);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
+        Page pg = getPage(pageCache, pageNumber);
+        pg.lock();
         try {
-            PageOthers.recoverUpdate(pg, raw, offset);
+            PageOthers.recoverUpdate(pg, raw, slot, updateLogInfo.generation);
         } finally {
+            pg.unlock();
             pg.releasePage();
         }
     }
 
     /**
-     * 生成一条插入类型的日志
+     * 生成一条插入类型的日志，记录插入后数据所在的槽号及槽的代数
      * @param xid
      * @param page
      * @param raw
@@ -244,8 +503,9 @@ public class Recover {
         byte[] logTypeRaw = {LogConstant.LOG_TYPE_INSERT};
         byte[] xidRaw = Parser.long2Byte(xid);
         byte[] pageNumberRaw = Parser.int2Byte(page.getPageNumber());
-        byte[] offsetRaw = Parser.short2Byte(PageOthers.getFreeSpaceOffset(page));
-        return ArrayUtil.concatArray(logTypeRaw, xidRaw, pageNumberRaw, offsetRaw, raw);
+        byte[] slotRaw = Parser.short2Byte(PageOthers.nextSlot(page));
+        byte[] generationRaw = Parser.short2Byte(PageOthers.nextGeneration(page));
+        return ArrayUtil.concatArray(logTypeRaw, xidRaw, pageNumberRaw, slotRaw, generationRaw, raw);
     }
 
     /**
@@ -256,33 +516,53 @@ public class Recover {
     private static InsertLogInfo parseInsertLog(byte[] log) {
         InsertLogInfo insertLogInfo = new InsertLogInfo();
         insertLogInfo.xid = Parser.parseLong(Arrays.copyOfRange(log, LogConstant.XID_OFFSET, LogConstant.INSERT_PAGENUM_OFFSET));
-        insertLogInfo.pageNumber = Parser.parseInt(Arrays.copyOfRange(log, LogConstant.INSERT_PAGENUM_OFFSET, LogConstant.INSERT_OFFSET));
-        insertLogInfo.offset = Parser.parseShort(Arrays.copyOfRange(log, LogConstant.INSERT_OFFSET, LogConstant.INSERT_RAW_OFFSET));
+        insertLogInfo.pageNumber = Parser.parseInt(Arrays.copyOfRange(log, LogConstant.INSERT_PAGENUM_OFFSET, LogConstant.INSERT_SLOT_OFFSET));
+        insertLogInfo.slot = Parser.parseShort(Arrays.copyOfRange(log, LogConstant.INSERT_SLOT_OFFSET, LogConstant.INSERT_GENERATION_OFFSET));
+        insertLogInfo.generation = Parser.parseShort(Arrays.copyOfRange(log, LogConstant.INSERT_GENERATION_OFFSET, LogConstant.INSERT_RAW_OFFSET));
         insertLogInfo.raw = Arrays.copyOfRange(log, LogConstant.INSERT_RAW_OFFSET, log.length);
         return insertLogInfo;
     }
 
     /**
-     * 执行插入日志的插入内容
+     * 执行插入日志的插入内容，撤销插入时释放数据所在的槽
      * @param pageCache
      * @param log
      * @param flag
      */
     private static void doInsertLog(PageCache pageCache, byte[] log, int flag) {
         InsertLogInfo insertLogInfo = parseInsertLog(log);
-        Page pg = null;
-        try {
-            pg = pageCache.getPage(insertLogInfo.pageNumber);
-        } catch(Exception e) {
-            Panic.panic(e);
-        }
+        Page pg = getPage(pageCache, insertLogInfo.pageNumber);
+        pg.lock();
         try {
             if(flag == LogConstant.UNDO) {
-                DataItem.setDataItemRawInvalid(insertLogInfo.raw);
+                PageOthers.free(pg, insertLogInfo.slot, insertLogInfo.generation);
+            } else {
+                PageOthers.recoverInsert(pg, insertLogInfo.raw, insertLogInfo.slot, insertLogInfo.generation);
             }
-            PageOthers.recoverInsert(pg, insertLogInfo.raw, insertLogInfo.offset);
         } finally {
+            pg.unlock();
             pg.releasePage();
         }
     }
+
+    /**
+     * 获取恢复时要修改的页面
+     * 页面校验和错误说明崩溃时该页面只写入了一部分。需要重建的页面在重做时已由日志中的镜像覆盖，
+     * 仍然校验和错误的页面没有可用的镜像，其中未记录日志的数据无法重建，恢复失败
+     * @param pageCache
+     * @param pageNumber
+     * @return
+     */
+    private static Page getPage(PageCache pageCache, int pageNumber) {
+        Page pg = null;
+        try {
+            pg = pageCache.getPage(pageNumber);
+        } catch (BadPageChecksumException e) {
+            System.out.println("第" + pageNumber + "页校验和错误，日志中没有该页面的镜像，无法恢复");
+            Panic.panic(e);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return pg;
+    }
 }
@@ -3,17 +3,21 @@ package org.minidb.backend.dm.dataItem;
 import org.minidb.backend.common.SubArray;
 import org.minidb.backend.dm.DataManagerImpl;
 import org.minidb.backend.dm.page.Page;
+import org.minidb.backend.dm.page.PageOthers;
 import org.minidb.backend.utils.ArrayUtil;
 import org.minidb.backend.utils.Parser;
-import org.minidb.backend.utils.Types;
 import org.minidb.common.constant.DataItemConstant;
 
 // import com.google.common.primitives.Bytes;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public interface DataItem {
     SubArray getData();
+    // 数据项是否带有溢出链，以及包括溢出块在内的数据长度和第一个溢出块的uid
+    boolean isOverflow();
+    int getTotalSize();
+    long getOverflowUid();
 
     void writePrepare();
     void undoPrepare();
@@ -42,21 +46,49 @@ public interface DataItem {
     }
 
     /**
-     * 从页面的offset处解析出Data Item
+     * 生成带溢出链的Data Item，inline 是保留在页面中的数据
+     * @param inline
+     * @param totalSize
+     * @param overflowUid
+     * @return
+     */
+    static byte[] wrapOverflowDataItemRaw(byte[] inline, int totalSize, long overflowUid) {
+        byte[] raw = ArrayUtil.concatArray(wrapDataItemRaw(inline), Parser.int2Byte(totalSize), Parser.long2Byte(overflowUid));
+        raw[DataItemConstant.VALID_OFFSET] = DataItemConstant.OVERFLOW_FLAG;
+        return raw;
+    }
+
+    /**
+     * 从页面中解析出uid对应的Data Item
+     * 槽中的记录已被释放或槽已被复用时返回一个无效的Data Item。整理页面会移动记录，解析时持有页面锁
      * @param pg
-     * @param offset
+     * @param uid
      * @param dm
      * @return
      */
-    static DataItem parseDataItem(Page pg, short offset, DataManagerImpl dm) {
-        byte[] raw = pg.getPageData();
-        // Data Item的数据的大小
-        short size = Parser.parseShort(Arrays.copyOfRange(raw, offset + DataItemConstant.SIZE_OFFSET,
-                offset + DataItemConstant.DATA_OFFSET));
-        // Data Item的大小
-        short length = (short)(size + DataItemConstant.DATA_OFFSET);
-        long uid = Types.addressToUid(pg.getPageNumber(), offset);
-        return new DataItemImpl(new SubArray(offset, offset + length, raw), new byte[length], pg, uid, dm);
+    static DataItem parseDataItem(Page pg, long uid, DataManagerImpl dm) {
+        short slot = (short)(uid & ((1L << 16) - 1));
+        short generation = (short)(uid >>> 16);
+        pg.lock();
+        try {
+            int offset = PageOthers.getRecordOffset(pg, slot, generation);
+            if(offset == 0) {
+                byte[] invalid = wrapDataItemRaw(new byte[0]);
+                setDataItemRawInvalid(invalid);
+                return new DataItemImpl(new SubArray(0, invalid.length, invalid), new byte[invalid.length], pg, uid, dm);
+            }
+            ByteBuffer raw = pg.getPageBuffer();
+            // Data Item的数据的大小
+            short size = raw.getShort(offset + DataItemConstant.SIZE_OFFSET);
+            // Data Item的大小，带溢出链时包括数据之后的 [TotalSize] [OverflowUid]
+            int length = size + DataItemConstant.DATA_OFFSET;
+            if((raw.get(offset + DataItemConstant.VALID_OFFSET) & DataItemConstant.OVERFLOW_FLAG) != 0) {
+                length += DataItemConstant.OVERFLOW_TAIL_SIZE;
+            }
+            return new DataItemImpl(new SubArray(offset, offset + length, raw), new byte[length], pg, uid, dm);
+        } finally {
+            pg.unlock();
+        }
     }
 
     /**
@@ -64,6 +96,6 @@ public interface DataItem {
      * @param raw
      */
     static void setDataItemRawInvalid(byte[] raw) {
-        raw[DataItemConstant.VALID_OFFSET] = (byte)1;
+        raw[DataItemConstant.VALID_OFFSET] |= DataItemConstant.INVALID_FLAG;
     }
 }
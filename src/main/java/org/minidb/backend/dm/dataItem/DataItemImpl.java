@@ -12,8 +12,12 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 /**
  * dataItem 结构如下：
  * [ValidFlag] [DataSize] [Data]
- * ValidFlag 1字节，0为合法，1为非法
+ * ValidFlag 1字节，最低位为0表示合法，为1表示非法；OVERFLOW_FLAG 位表示数据项带有溢出链
  * DataSize  2字节，标识Data的长度
+ * 超过一页的数据项只在页面中保留前 OVERFLOW_INLINE_SIZE 字节，其余数据依次存放在溢出块中：
+ * [ValidFlag] [DataSize] [Data] [TotalSize 4] [OverflowUid 8]
+ * TotalSize 是全部数据的长度，OverflowUid 是第一个溢出块的uid。
+ * 溢出块是普通的数据项，其数据为 [NextUid 8] [Piece]，最后一块的 NextUid 为0
  */
 public class DataItemImpl implements DataItem{
 
@@ -39,16 +43,46 @@ public class DataItemImpl implements DataItem{
     }
 
     public boolean isValid() {
-        return raw.data[raw.start + DataItemConstant.VALID_OFFSET] == (byte)0;
+        return (raw.data.get(raw.start + DataItemConstant.VALID_OFFSET) & DataItemConstant.INVALID_FLAG) == 0;
     }
 
     /**
-     * 获取Data Item的数据
+     * 获取Data Item在页面中的数据，带溢出链时只是数据的前 OVERFLOW_INLINE_SIZE 字节
      * @return
      */
     @Override
     public SubArray getData() {
-        return new SubArray(raw.start + DataItemConstant.DATA_OFFSET, raw.end, raw.data);
+        int end = isOverflow() ? raw.end - DataItemConstant.OVERFLOW_TAIL_SIZE : raw.end;
+        return new SubArray(raw.start + DataItemConstant.DATA_OFFSET, end, raw.data);
+    }
+
+    @Override
+    public boolean isOverflow() {
+        return (raw.data.get(raw.start + DataItemConstant.VALID_OFFSET) & DataItemConstant.OVERFLOW_FLAG) != 0;
+    }
+
+    /**
+     * 获取全部数据的长度，包括溢出块中的数据
+     * @return
+     */
+    @Override
+    public int getTotalSize() {
+        if(!isOverflow()) {
+            return raw.end - raw.start - DataItemConstant.DATA_OFFSET;
+        }
+        return raw.data.getInt(raw.end - DataItemConstant.OVERFLOW_TAIL_SIZE);
+    }
+
+    /**
+     * 获取第一个溢出块的uid，没有溢出链时返回0
+     * @return
+     */
+    @Override
+    public long getOverflowUid() {
+        if(!isOverflow()) {
+            return 0;
+        }
+        return raw.data.getLong(raw.end - DataItemConstant.NEXT_UID_SIZE);
     }
 
     /**
@@ -57,8 +91,9 @@ public class DataItemImpl implements DataItem{
     @Override
     public void writePrepare() {
         wLock.lock();
-        page.setPageDirty(true);
-        System.arraycopy(raw.data, raw.start, oldRaw, 0, oldRaw.length);
+        // 修改前记录镜像，写回只写入一部分修改的页面也能恢复，镜像由 writeAfter 的日志刷写
+        dm.markPageDirty(page);
+        raw.data.get(raw.start, oldRaw);
     }
 
     /**
@@ -66,7 +101,7 @@ public class DataItemImpl implements DataItem{
      */
     @Override
     public void undoPrepare() {
-        System.arraycopy(oldRaw, 0, raw.data, raw.start, oldRaw.length);
+        raw.data.put(raw.start, oldRaw);
         wLock.unlock();
     }
 
@@ -121,7 +156,7 @@ public class DataItemImpl implements DataItem{
     }
 
     /**
-     * 获取包含Data Item所有内容的字节数组
+     * 获取Data Item在页面中的全部内容
      * @return
      */
     @Override
@@ -0,0 +1,96 @@
+package org.minidb.backend.dm.dataItem;
+
+import org.minidb.backend.common.SubArray;
+import org.minidb.backend.dm.DataManager;
+import org.minidb.common.constant.DataItemConstant;
+import org.minidb.common.constant.MessageConstant;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 按顺序读取Data Item的全部数据，带溢出链时逐块读取溢出块，不在内存中拼出完整的数据
+ * 同一时刻最多固定一个溢出块所在的页面。首个Data Item由调用者持有和释放
+ */
+public class DataItemInputStream extends InputStream {
+    private DataManager dm;
+    private DataItem head;
+    // 当前读取的溢出块，读取首个Data Item时为null
+    private DataItem chunk;
+    private SubArray current;
+    private int position;
+    private long nextUid;
+
+    /**
+     * @param dm
+     * @param head
+     * @param skip 跳过数据开头的字节数，不能超过页面中保留的数据长度
+     */
+    public DataItemInputStream(DataManager dm, DataItem head, int skip) {
+        this.dm = dm;
+        this.head = head;
+        this.current = head.getData();
+        this.position = current.start + skip;
+        this.nextUid = head.getOverflowUid();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        while(position == current.end) {
+            if(nextUid == 0) {
+                return -1;
+            }
+            nextChunk();
+        }
+        int n = Math.min(len, current.end - position);
+        current.data.get(position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * 释放当前的溢出块，读入下一块
+     * @throws IOException
+     */
+    private void nextChunk() throws IOException {
+        releaseChunk();
+        try {
+            chunk = dm.read(nextUid);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        if(chunk == null) {
+            throw new IOException(MessageConstant.MISSING_OVERFLOW_CHUNK);
+        }
+        current = chunk.getData();
+        nextUid = current.data.getLong(current.start);
+        position = current.start + DataItemConstant.NEXT_UID_SIZE;
+    }
+
+    private void releaseChunk() {
+        if(chunk != null) {
+            chunk.release();
+            chunk = null;
+        }
+    }
+
+    /**
+     * 释放正在读取的溢出块，不释放首个Data Item
+     */
+    @Override
+    public void close() {
+        releaseChunk();
+        current = head.getData();
+        position = current.end;
+        nextUid = 0;
+    }
+}
@@ -10,30 +10,78 @@ import org.minidb.common.exception.FileExistsException;
 import org.minidb.common.exception.FileNotExistException;
 
 import java.io.File;
+import java.util.function.LongConsumer;
 
 public interface Logger {
     /**
-     * 将一条新的日志加载至日志文件内
+     * 将一条新的日志加载至日志文件内，返回时该日志已持久化
      * @param data
+     * @return 该日志的LSN
      */
-    void log(byte[] data);
+    long log(byte[] data);
     /**
-     * 将日志文件截断至size大小
+     * 同 log(data)，分配LSN后在追加锁内以该LSN回调 assigned，
+     * 回调完成前 getNextLsn 不会返回晚于该日志的位置
+     * @param data
+     * @param assigned
+     * @return 该日志的LSN
+     */
+    long log(byte[] data, LongConsumer assigned);
+    /**
+     * 将一条新的日志追加到缓冲区，不等待其持久化
+     * @param data
+     * @return 该日志的LSN
+     */
+    long append(byte[] data);
+    /**
+     * 同 append(data)，分配LSN后在追加锁内以该LSN回调 assigned
+     * @param data
+     * @param assigned
+     * @return 该日志的LSN
+     */
+    long append(byte[] data, LongConsumer assigned);
+    /**
+     * 等待LSN不超过lsn的日志全部持久化
+     * @param lsn
+     */
+    void flush(long lsn);
+    /**
+     * 获取下一条日志的LSN，在此之前追加的日志的LSN都小于它
+     * @return
+     */
+    long getNextLsn();
+    /**
+     * 将日志截断至size大小，删除之后的段文件
      * @param size
      * @throws Exception
      */
     void truncate(long size) throws Exception;
+    /**
+     * 删除全部日志都在lsn之前的段文件
+     * @param lsn
+     */
+    void removeBefore(long lsn);
     /**
      * 读取日志拼文件，将一条日志的Data部分解析出来
      * @return
      */
     byte[] getNextLogData();
     /**
-     * 将日志指针倒回至第一个日志的起始处（总校验和的结尾）
+     * 将日志指针倒回至最后一个检查点日志处，没有检查点时为第一条日志
      */
     void rewind();
     /**
-     * 关闭整个日志文件
+     * 将日志指针移动至LSN为lsn的日志处
+     * @param lsn
+     */
+    void seek(long lsn);
+    /**
+     * 设置检查点，下次打开日志时从lsn处开始校验，lsn之前的日志必须已经持久化
+     * @param lsn
+     */
+    void setCheckpoint(long lsn);
+    /**
+     * 关闭整个日志文件，关闭前写完缓冲区中的日志
      */
     void close();
 
@@ -48,9 +96,21 @@ public interface Logger {
         }
 
         FileResults fileResults = FileIOUtil.fileHandle(logFile);
-        fileResults.WriteHeader(Parser.int2Byte(0));
+        fileResults.WriteHeader(Parser.long2Byte(0));
 
-        return new LoggerImpl(fileResults, 0);
+        // 删除同名数据库残留的段文件
+        File[] segments = logFile.getAbsoluteFile().getParentFile()
+                .listFiles((dir, name) -> name.startsWith(logFile.getName() + "."));
+        if(segments != null) {
+            for (File segment : segments) {
+                segment.delete();
+            }
+        }
+
+        LoggerImpl logger = new LoggerImpl(path, fileResults);
+        logger.init();
+
+        return logger;
     }
 
     static Logger open(String path) {
@@ -60,7 +120,7 @@ public interface Logger {
         }
         FileResults fileResults = FileIOUtil.fileHandle(logFile);
 
-        LoggerImpl logger = new LoggerImpl(fileResults);
+        LoggerImpl logger = new LoggerImpl(path, fileResults);
         logger.init();
 
         return logger;
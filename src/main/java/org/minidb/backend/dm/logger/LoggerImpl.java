@@ -1,6 +1,6 @@
 package org.minidb.backend.dm.logger;
 
-import org.minidb.backend.utils.ArrayUtil;
+import org.minidb.backend.utils.FileIOUtil;
 import org.minidb.backend.utils.Panic;
 import org.minidb.backend.utils.Parser;
 import org.minidb.common.Result.FileResults;
@@ -8,93 +8,130 @@ import org.minidb.common.constant.LogConstant;
 import org.minidb.common.constant.MessageConstant;
 import org.minidb.common.exception.BadLogFileException;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.Arrays;
-
-//import com.google.common.primitives.Bytes;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
 
 /**
- * 日志的二进制文件的格式为：
- * [XChecksum][Log1][Log2][Log3]...[LogN][BadTail]
- * XChecksum 是一个四字节的整数，是对后续所有日志计算的校验和
+ * 日志由一个文件头文件和若干段文件组成
+ * 文件头文件（.log）的格式为：
+ * [CheckpointLSN]
+ * CheckpointLSN 是一个八字节整数，即最后一个检查点日志的LSN，打开日志时从该位置开始校验，之前的日志视为有效。
+ * 追加日志不修改文件头，只有设置检查点时才写入
+ * 日志按LSN连续存放在段文件（.log.N）中，第N个段文件存放 LSN 在 [N * SEGMENT_SIZE, (N + 1) * SEGMENT_SIZE) 的日志字节，
+ * 一条日志可以跨越两个段文件。检查点之前不再需要的段文件整个删除：
+ * [Log1][Log2][Log3]...[LogN][BadTail]
  * BadTail是在数据库崩溃时，没有来得及写完的日志数据
  * 每条日志LogN的格式为：
- * [Size][Checksum][Data]
- * Size 是一个四字节整数，标识了 Data 段的字节数。Checksum一个四字节整数，是该条日志的校验和
+ * [Size][Checksum][LSN][Data]
+ * Size 是一个四字节整数，标识了 Data 段的字节数。Checksum 是一个四字节整数，是该条日志除 Checksum 外全部数据的 CRC32C。
+ * LSN 是一个八字节整数，即该条日志的起始位置，用于识别残留的旧数据
+ *
+ * 日志采用组提交：调用者将日志追加到内存缓冲区并得到LSN，
+ * 后台的刷写线程将缓冲区中积累的日志一次写入文件，并只调用一次force，之后唤醒LSN已持久化的等待者
  */
 public class LoggerImpl implements Logger {
+    private String path;
     private RandomAccessFile randomAccessFile;
     private FileChannel fileChannel;
     private Lock lock;
     // 当前日志指针的位置
     private long position;
-    // 日志文件的大小
+    // 日志的结束位置
     private long loggerSize;
-    // 总校验和
-    private int totalCheckSum;
+    // 打开日志时开始校验的位置
+    private long checkpointLsn;
+    // 现存最早的段文件序号
+    private long firstSegment;
+    // 已打开的段文件
+    private Map<Long, FileChannel> segments;
+    // 顺序读取日志的预读缓冲区，保存从 readBufferLsn 开始的 readBufferLength 个字节
+    private byte[] readBuffer;
+    private long readBufferLsn;
+    private int readBufferLength;
 
-    LoggerImpl(FileResults fileResults) {
-        this.randomAccessFile = fileResults.getRandomAccessFile();
-        this.fileChannel = fileResults.getFileChannel();
-        lock = new ReentrantLock();
-    }
+    // 尚未写入文件的日志
+    private ByteArrayOutputStream buffer;
+    // 下一条日志的LSN，即已追加日志的结束位置
+    private long nextLsn;
+    // 已持久化日志的结束位置
+    private long durableLsn;
+    // 缓冲区中有新日志或日志需要关闭时唤醒刷写线程
+    private Condition pending;
+    // 一批日志持久化后唤醒等待者
+    private Condition durable;
+    private boolean closed;
+    private Thread flusher;
 
-    LoggerImpl(FileResults fileResults, int totalCheckSum) {
+    LoggerImpl(String path, FileResults fileResults) {
+        this.path = path;
         this.randomAccessFile = fileResults.getRandomAccessFile();
         this.fileChannel = fileResults.getFileChannel();
-        this.totalCheckSum = totalCheckSum;
+        this.segments = new ConcurrentHashMap<>();
         lock = new ReentrantLock();
+        pending = lock.newCondition();
+        durable = lock.newCondition();
+        buffer = new ByteArrayOutputStream();
     }
 
     /**
      * 初始化日志文件
      */
     void init() {
-        // 获取日志文件的大小
-        long loggerSize = 0;
+        long headerSize = 0;
         try {
-            loggerSize = randomAccessFile.length();
+            headerSize = randomAccessFile.length();
         } catch (IOException e) {
             Panic.panic(e);
         }
-        // 空日志文件最小为4字节，即只有总校验和
-        if(loggerSize < LogConstant.CHECKSUM_OFFSET) {
+        if(headerSize < LogConstant.HEADER_SIZE) {
             throw new BadLogFileException(MessageConstant.BAD_LOG_FILE);
         }
 
-        ByteBuffer raw = ByteBuffer.allocate(LogConstant.CHECKSUM_OFFSET);
+        ByteBuffer raw = ByteBuffer.allocate(LogConstant.HEADER_SIZE);
         try {
-            fileChannel.position(0);
-            fileChannel.read(raw);
+            fileChannel.read(raw, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
-        int totalCheckSum = Parser.parseInt(raw.array());
+        long checkpointLsn = Parser.parseLong(raw.array());
+        long segment = checkpointLsn / LogConstant.SEGMENT_SIZE;
+        firstSegment = segment;
+        while(firstSegment > 0 && segmentFile(firstSegment - 1).exists()) {
+            firstSegment --;
+        }
+        long lastSegment = segment;
+        while(segmentFile(lastSegment + 1).exists()) {
+            lastSegment ++;
+        }
+        // 日志的结束位置为最后一个段文件的末尾
+        long loggerSize = lastSegment * LogConstant.SEGMENT_SIZE + segmentFile(lastSegment).length();
+        if(checkpointLsn < 0 || checkpointLsn > loggerSize) {
+            throw new BadLogFileException(MessageConstant.BAD_LOG_FILE);
+        }
         this.loggerSize = loggerSize;
-        this.totalCheckSum = totalCheckSum;
+        this.checkpointLsn = checkpointLsn;
 
         checkAndRemoveTail();
     }
 
     /**
-     * 检查并移除bad tail
+     * 从检查点开始逐条校验日志，移除bad tail
      */
     private void checkAndRemoveTail() {
         rewind();
-
-        int totalCheckSum = 0;
-        while(true) {
-            byte[] log = getNextLog();
-            if(log == null) break;
-            totalCheckSum = calCheckSum(totalCheckSum, log);
-        }
-        if(totalCheckSum != this.totalCheckSum) {
-            throw new BadLogFileException(MessageConstant.BAD_LOG_FILE);
+        while(getNextLog() != null) {
         }
 
         try {
@@ -102,75 +139,183 @@ public class LoggerImpl implements Logger {
         } catch (Exception e) {
             Panic.panic(e);
         }
-        try {
-            randomAccessFile.seek(position);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
+        startFlusher(position);
         rewind();
     }
 
     /**
-     * 计算总校验和
-     * @param currTotalCheckSum
+     * 计算日志的校验和，覆盖除 Checksum 外的全部数据
      * @param log
      * @return
      */
-    private int calCheckSum(int currTotalCheckSum, byte[] log) {
-        for (byte b : log) {
-            currTotalCheckSum = currTotalCheckSum * LogConstant.SEED + b;
-        }
-        return currTotalCheckSum;
+    private int calCheckSum(byte[] log) {
+        CRC32C crc = new CRC32C();
+        crc.update(log, LogConstant.OFFSET_SIZE, LogConstant.SIZE_OFFSET);
+        crc.update(log, LogConstant.LSN_OFFSET, log.length - LogConstant.LSN_OFFSET);
+        return (int)crc.getValue();
     }
 
     /**
-     * 将一条新的日志加载至日志文件内
+     * 将一条新的日志加载至日志文件内，返回时该日志已持久化
      * @param data
+     * @return 该日志的LSN
      */
     @Override
-    public void log(byte[] data) {
-        byte[] log = wrapLog(data);
-        ByteBuffer buffer = ByteBuffer.wrap(log);
+    public long log(byte[] data) {
+        return log(data, null);
+    }
+
+    /**
+     * 将一条新的日志加载至日志文件内，分配LSN后在追加锁内回调 assigned，返回时该日志已持久化
+     * @param data
+     * @param assigned
+     * @return 该日志的LSN
+     */
+    @Override
+    public long log(byte[] data, LongConsumer assigned) {
+        long lsn = append(data, assigned);
+        flush(lsn);
+        return lsn;
+    }
+
+    /**
+     * 将一条新的日志追加到缓冲区，不等待其持久化
+     * @param data
+     * @return 该日志的LSN
+     */
+    @Override
+    public long append(byte[] data) {
+        return append(data, null);
+    }
+
+    /**
+     * 将一条新的日志追加到缓冲区，不等待其持久化
+     * 分配LSN后在追加锁内回调 assigned，getNextLsn 同样需要该锁，读到的日志末尾之前的日志都已完成回调
+     * @param data
+     * @param assigned
+     * @return 该日志的LSN
+     */
+    @Override
+    public long append(byte[] data, LongConsumer assigned) {
         lock.lock();
         try {
-            fileChannel.position(fileChannel.size());
-            fileChannel.write(buffer);
-        } catch(IOException e) {
-            Panic.panic(e);
+            long lsn = nextLsn;
+            byte[] log = wrapLog(data, lsn);
+            buffer.write(log, 0, log.length);
+            nextLsn += log.length;
+            if(assigned != null) {
+                assigned.accept(lsn);
+            }
+            pending.signal();
+            return lsn;
         } finally {
             lock.unlock();
         }
-        updateTotalCheckSum(log);
     }
 
     /**
-     * 更新总校验和
-     * @param log
+     * 等待LSN不超过lsn的日志全部持久化
+     * @param lsn
      */
-    private void updateTotalCheckSum(byte[] log) {
-        this.totalCheckSum = calCheckSum(this.totalCheckSum, log);
+    @Override
+    public void flush(long lsn) {
+        lock.lock();
         try {
-            fileChannel.position(0);
-            fileChannel.write(ByteBuffer.wrap(Parser.int2Byte(totalCheckSum)));
-            fileChannel.force(false);
-        } catch(IOException e) {
-            Panic.panic(e);
+            while(durableLsn <= lsn) {
+                durable.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取下一条日志的LSN，在此之前追加的日志的LSN都小于它
+     * @return
+     */
+    @Override
+    public long getNextLsn() {
+        lock.lock();
+        try {
+            return nextLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 启动刷写线程
+     * @param end 最后一条有效日志的结束位置
+     */
+    private void startFlusher(long end) {
+        nextLsn = end;
+        durableLsn = end;
+        flusher = new Thread(this::flushLoop, "log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 取出缓冲区中积累的全部日志，一次写入段文件，每个写到的段文件只调用一次force
+     * 写文件期间新的日志继续追加到缓冲区，成为下一批
+     */
+    private void flushLoop() {
+        while(true) {
+            byte[] batch;
+            long end;
+            lock.lock();
+            try {
+                while(buffer.size() == 0 && !closed) {
+                    pending.awaitUninterruptibly();
+                }
+                if(buffer.size() == 0) {
+                    return;
+                }
+                batch = buffer.toByteArray();
+                buffer.reset();
+                end = nextLsn;
+            } finally {
+                lock.unlock();
+            }
+
+            long start = end - batch.length;
+            try {
+                writeAt(batch, start);
+                for (long i = start / LogConstant.SEGMENT_SIZE; i <= (end - 1) / LogConstant.SEGMENT_SIZE; i ++) {
+                    segment(i, true).force(false);
+                }
+            } catch(IOException e) {
+                Panic.panic(e);
+            }
+
+            lock.lock();
+            try {
+                durableLsn = end;
+                loggerSize = end;
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
     /**
      * 构造单条日志
      * @param data
+     * @param lsn
      * @return
      */
-    private byte[] wrapLog(byte[] data) {
-        byte[] checkSum = Parser.int2Byte(calCheckSum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        return ArrayUtil.concatArray(size, checkSum, data);
+    private byte[] wrapLog(byte[] data, long lsn) {
+        byte[] log = new byte[LogConstant.DATA_OFFSET + data.length];
+        System.arraycopy(Parser.int2Byte(data.length), 0, log, LogConstant.OFFSET_SIZE, LogConstant.SIZE_OFFSET);
+        System.arraycopy(Parser.long2Byte(lsn), 0, log, LogConstant.LSN_OFFSET, 8);
+        System.arraycopy(data, 0, log, LogConstant.DATA_OFFSET, data.length);
+        System.arraycopy(Parser.int2Byte(calCheckSum(log)), 0, log, LogConstant.CHECKSUM_OFFSET, 4);
+        return log;
     }
 
     /**
-     * 将日志文件截断至size大小
+     * 将日志截断至size大小，删除之后的段文件
      * @param size
      * @throws Exception
      */
@@ -178,7 +323,32 @@ public class LoggerImpl implements Logger {
     public void truncate(long size) throws Exception {
         lock.lock();
         try {
-            fileChannel.truncate(size);
+            long segment = size / LogConstant.SEGMENT_SIZE;
+            FileChannel fc = segment(segment, false);
+            if(fc != null) {
+                fc.truncate(size % LogConstant.SEGMENT_SIZE);
+            }
+            for (long i = segment + 1; segmentFile(i).exists(); i ++) {
+                deleteSegment(i);
+            }
+            loggerSize = size;
+            readBufferLength = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除全部日志都在lsn之前的段文件
+     * @param lsn
+     */
+    @Override
+    public void removeBefore(long lsn) {
+        lock.lock();
+        try {
+            for (; firstSegment < lsn / LogConstant.SEGMENT_SIZE; firstSegment ++) {
+                deleteSegment(firstSegment);
+            }
         } finally {
             lock.unlock();
         }
@@ -186,37 +356,29 @@ public class LoggerImpl implements Logger {
 
     /**
      * 读取日志文件，将一条日志解析出来
+     * 长度越界、校验和错误或LSN与所在位置不符时，视为日志结束
      * @return
      */
     private byte[] getNextLog() {
-        if(position + LogConstant.DATA_OFFSET >= loggerSize) {
+        if(position + LogConstant.DATA_OFFSET > loggerSize) {
             return null;
         }
-        ByteBuffer tmp = ByteBuffer.allocate(LogConstant.SIZE_OFFSET);
-        try {
-            fileChannel.position(position);
-            fileChannel.read(tmp);
-        } catch(IOException e) {
-            Panic.panic(e);
+        byte[] tmp = new byte[LogConstant.SIZE_OFFSET];
+        if(!readAt(tmp, position)) {
+            return null;
         }
-        int logSize = Parser.parseInt(tmp.array());
-        if(position + LogConstant.DATA_OFFSET + logSize > loggerSize) {
+        int logSize = Parser.parseInt(tmp);
+        if(logSize < 0 || position + LogConstant.DATA_OFFSET + logSize > loggerSize) {
             return null;
         }
 
-        // 一条log大小的buffer
-        ByteBuffer buffer = ByteBuffer.allocate(LogConstant.DATA_OFFSET + logSize);
-        try {
-            fileChannel.position(position);
-            fileChannel.read(buffer);
-        } catch(IOException e) {
-            Panic.panic(e);
+        byte[] log = new byte[LogConstant.DATA_OFFSET + logSize];
+        if(!readAt(log, position)) {
+            return null;
         }
-
-        byte[] log = buffer.array();
-        int checkSum1 = calCheckSum(0, Arrays.copyOfRange(log, LogConstant.DATA_OFFSET, log.length));
-        int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, LogConstant.CHECKSUM_OFFSET, LogConstant.DATA_OFFSET));
-        if(checkSum1 != checkSum2) {
+        int checkSum = Parser.parseInt(log, LogConstant.CHECKSUM_OFFSET);
+        long lsn = Parser.parseLong(log, LogConstant.LSN_OFFSET);
+        if(checkSum != calCheckSum(log) || lsn != position) {
             return null;
         }
         position += log.length;
@@ -240,19 +402,191 @@ public class LoggerImpl implements Logger {
     }
 
     /**
-     * 将日志指针倒回至第一个日志的起始处（总校验和的结尾）
+     * 将日志指针倒回至最后一个检查点日志处，没有检查点时为第一条日志
      */
     @Override
     public void rewind() {
-        position = 4;
+        position = checkpointLsn;
+    }
+
+    /**
+     * 将日志指针移动至LSN为lsn的日志处
+     * @param lsn
+     */
+    @Override
+    public void seek(long lsn) {
+        position = lsn;
+    }
+
+    /**
+     * 设置检查点，下次打开日志时从lsn处开始校验，lsn之前的日志必须已经持久化
+     * @param lsn
+     */
+    @Override
+    public void setCheckpoint(long lsn) {
+        lock.lock();
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(lsn));
+            while(buf.hasRemaining()) {
+                fileChannel.write(buf, buf.position());
+            }
+            fileChannel.force(false);
+            checkpointLsn = lsn;
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从lsn处开始写入日志字节，跨越段文件边界时分段写入
+     * @param data
+     * @param lsn
+     * @throws IOException
+     */
+    private void writeAt(byte[] data, long lsn) throws IOException {
+        int off = 0;
+        while(off < data.length) {
+            long offset = (lsn + off) % LogConstant.SEGMENT_SIZE;
+            int len = (int)Math.min(data.length - off, LogConstant.SEGMENT_SIZE - offset);
+            FileChannel fc = segment((lsn + off) / LogConstant.SEGMENT_SIZE, true);
+            ByteBuffer buf = ByteBuffer.wrap(data, off, len);
+            while(buf.hasRemaining()) {
+                fc.write(buf, offset + buf.position() - off);
+            }
+            off += len;
+        }
+    }
+
+    /**
+     * 从lsn处读取日志字节填满dst
+     * 顺序读取日志时每条日志只有几十个字节，先从文件中一次预读 READ_BUFFER_SIZE 个字节，再从缓冲区中取出。
+     * 只预读到 loggerSize 为止，这部分日志已经写入文件，不会再改变
+     * @param dst
+     * @param lsn
+     * @return 段文件不存在或长度不足时返回false
+     */
+    private boolean readAt(byte[] dst, long lsn) {
+        if(lsn >= readBufferLsn && lsn + dst.length <= readBufferLsn + readBufferLength) {
+            System.arraycopy(readBuffer, (int)(lsn - readBufferLsn), dst, 0, dst.length);
+            return true;
+        }
+        int length = (int)Math.min(LogConstant.READ_BUFFER_SIZE, loggerSize - lsn);
+        if(length < dst.length) {
+            return readFile(dst, lsn);
+        }
+        if(readBuffer == null) {
+            readBuffer = new byte[LogConstant.READ_BUFFER_SIZE];
+        }
+        readBufferLength = 0;
+        if(!readFile(readBuffer, 0, length, lsn)) {
+            return readFile(dst, lsn);
+        }
+        readBufferLsn = lsn;
+        readBufferLength = length;
+        System.arraycopy(readBuffer, 0, dst, 0, dst.length);
+        return true;
+    }
+
+    private boolean readFile(byte[] dst, long lsn) {
+        return readFile(dst, 0, dst.length, lsn);
+    }
+
+    /**
+     * 从lsn处读取length个日志字节，存入dst中从start开始的位置，跨越段文件边界时分段读取
+     * @param dst
+     * @param start
+     * @param length
+     * @param lsn
+     * @return 段文件不存在或长度不足时返回false
+     */
+    private boolean readFile(byte[] dst, int start, int length, long lsn) {
+        int off = 0;
+        try {
+            while(off < length) {
+                long offset = (lsn + off) % LogConstant.SEGMENT_SIZE;
+                int len = (int)Math.min(length - off, LogConstant.SEGMENT_SIZE - offset);
+                FileChannel fc = segment((lsn + off) / LogConstant.SEGMENT_SIZE, false);
+                if(fc == null) {
+                    return false;
+                }
+                ByteBuffer buf = ByteBuffer.wrap(dst, start + off, len);
+                while(buf.hasRemaining()) {
+                    if(fc.read(buf, offset + buf.position() - start - off) < 0) {
+                        return false;
+                    }
+                }
+                off += len;
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        return true;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(path + LogConstant.LOG_SUFFIX + "." + segment);
     }
 
     /**
-     * 关闭整个日志文件
+     * 获取段文件
+     * @param segment
+     * @param create 段文件不存在时是否创建
+     * @return 段文件不存在且不创建时返回null
+     */
+    private FileChannel segment(long segment, boolean create) {
+        FileChannel fc = segments.get(segment);
+        if(fc != null) {
+            return fc;
+        }
+        File file = segmentFile(segment);
+        if(!file.exists()) {
+            if(!create) {
+                return null;
+            }
+            try {
+                file.createNewFile();
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+        }
+        return segments.computeIfAbsent(segment, k -> FileIOUtil.fileHandle(file).getFileChannel());
+    }
+
+    private void deleteSegment(long segment) {
+        FileChannel fc = segments.remove(segment);
+        try {
+            if(fc != null) {
+                fc.close();
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        segmentFile(segment).delete();
+    }
+
+    /**
+     * 关闭整个日志文件，关闭前写完缓冲区中的日志
      */
     @Override
     public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         try {
+            for (FileChannel fc : segments.values()) {
+                fc.close();
+            }
             fileChannel.close();
             randomAccessFile.close();
         } catch(IOException e) {
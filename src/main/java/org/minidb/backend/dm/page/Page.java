@@ -1,15 +1,28 @@
 package org.minidb.backend.dm.page;
 
+import java.nio.ByteBuffer;
+
 public interface Page {
     //页面锁
     void lock();
     void unlock();
     //释放一个页面
     void releasePage();
-    //标志页面为脏
+    //标志页面为脏，清除脏页标志表示开始写回
     void setPageDirty(boolean dirty);
     boolean isDirty();
-    //获取页面数据
+    //写回的数据已交给文件系统
+    void writeBackDone();
+    //记录修改页面的日志的LSN，保留自上次写回以来最早的一个
+    void updateRecLsn(long lsn);
+    //页面中尚未写回的修改对应的最早日志LSN，没有时返回-1
+    long getRecLsn();
+    //页面最后一个镜像日志的LSN，没有时返回-1
+    long getImageLsn();
+    void setImageLsn(long lsn);
+    //恢复页面需要的最早日志LSN：页面有尚未写回的修改时为 recLsn 与最后一个镜像中较早的一个，否则返回-1
+    long getRedoLsn();
     int getPageNumber();
-    byte[] getPageData();
+    //获取页面数据，缓冲区在页面缓存的帧中（堆外内存或文件映射），只能用指定位置的 get/put 访问
+    ByteBuffer getPageBuffer();
 }
@@ -0,0 +1,65 @@
+package org.minidb.backend.dm.page;
+
+import org.minidb.common.constant.PageConstant;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * 页面校验和
+ * 每个页面在 CHECKSUM_OFFSET 处保存除校验和字段外全部数据的 CRC32C，写回文件时计算，从文件读入时校验，
+ * 用于发现写入不完整的页面。
+ * 只有从未写入的页面（如按区段扩展文件得到的全零页面）没有校验和，校验和为0时要求整个页面全为0，
+ * 校验和字段被清零或写入不完整而其余数据仍在的页面不能通过校验。计算结果为0时保存为1
+ */
+public class PageChecksum {
+
+    /**
+     * 计算页面数据的校验和
+     * @param raw
+     * @return
+     */
+    public static int compute(ByteBuffer raw) {
+        CRC32C crc = new CRC32C();
+        crc.update(raw.slice(0, PageConstant.CHECKSUM_OFFSET));
+        int dataStart = PageConstant.CHECKSUM_OFFSET + PageConstant.LENGTH_CHECKSUM;
+        crc.update(raw.slice(dataStart, raw.capacity() - dataStart));
+        int checksum = (int)crc.getValue();
+        return checksum == 0 ? 1 : checksum;
+    }
+
+    /**
+     * 计算校验和并写入页面数据
+     * @param raw
+     */
+    public static void set(ByteBuffer raw) {
+        raw.putInt(PageConstant.CHECKSUM_OFFSET, compute(raw));
+    }
+
+    /**
+     * 校验页面数据
+     * @param raw
+     * @return 校验和匹配或页面全为0时返回true
+     */
+    public static boolean verify(ByteBuffer raw) {
+        int stored = raw.getInt(PageConstant.CHECKSUM_OFFSET);
+        if(stored == 0) {
+            return isZero(raw);
+        }
+        return stored == compute(raw);
+    }
+
+    /**
+     * 页面是否全为0，页面大小总是8的倍数
+     * @param raw
+     * @return
+     */
+    private static boolean isZero(ByteBuffer raw) {
+        for (int i = 0; i < raw.capacity(); i += Long.BYTES) {
+            if(raw.getLong(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,8 +1,10 @@
 package org.minidb.backend.dm.page;
 
+import org.minidb.backend.utils.Parser;
 import org.minidb.backend.utils.RandomUtil;
 import org.minidb.common.constant.PageConstant;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -10,35 +12,84 @@ import java.util.Arrays;
  * ValidCheck
  * db启动时给100~107字节处填入一个随机字节，db关闭时将其拷贝到108~115字节
  * 用于判断上一次数据库是否正常关闭
+ * PageSize
+ * 116~119字节保存数据库的页面大小，创建db文件时写入，之后不再改变
+ * PageCount
+ * 120~123字节保存已分配的页数，db关闭时写入。db文件按区段预先扩展，文件长度可能大于已分配的页数
+ * FormatVersion
+ * 124~127字节保存文件格式版本，创建db文件时写入，打开版本不同的db文件时拒绝
  */
 public class PageFirst {
 
     /**
-     * 初始化一个页面大小的字节数组
+     * 初始化一个页面大小的字节数组，并记录页面大小
+     * @param pageSize
      * @return
      */
-    public static byte[] InitRaw() {
-        byte[] raw = new byte[PageConstant.PAGE_SIZE];
-        setValidCheckStart(raw);
+    public static byte[] InitRaw(int pageSize) {
+        byte[] raw = new byte[pageSize];
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        setValidCheckStart(buffer);
+        buffer.putInt(PageConstant.PAGE_SIZE_OFFSET, pageSize);
+        buffer.putInt(PageConstant.FORMAT_VERSION_OFFSET, PageConstant.FORMAT_VERSION);
         return raw;
     }
 
+    /**
+     * 从第一页的前 PAGE_SIZE_OFFSET + LENGTH_PAGE_SIZE 个字节中解析页面大小
+     * @param raw
+     * @return
+     */
+    public static int parsePageSize(byte[] raw) {
+        return Parser.parseInt(Arrays.copyOfRange(raw, PageConstant.PAGE_SIZE_OFFSET,
+                PageConstant.PAGE_SIZE_OFFSET + PageConstant.LENGTH_PAGE_SIZE));
+    }
+
+    /**
+     * 从第一页的前 PAGE_COUNT_OFFSET + LENGTH_PAGE_COUNT 个字节中解析已分配的页数，为0表示未记录
+     * @param raw
+     * @return
+     */
+    public static int parsePageCount(byte[] raw) {
+        return Parser.parseInt(Arrays.copyOfRange(raw, PageConstant.PAGE_COUNT_OFFSET,
+                PageConstant.PAGE_COUNT_OFFSET + PageConstant.LENGTH_PAGE_COUNT));
+    }
+
+    /**
+     * 从第一页的前 FORMAT_VERSION_OFFSET + LENGTH_FORMAT_VERSION 个字节中解析文件格式版本，为0表示此前的版本
+     * @param raw
+     * @return
+     */
+    public static int parseFormatVersion(byte[] raw) {
+        return Parser.parseInt(Arrays.copyOfRange(raw, PageConstant.FORMAT_VERSION_OFFSET,
+                PageConstant.FORMAT_VERSION_OFFSET + PageConstant.LENGTH_FORMAT_VERSION));
+    }
+
+    /**
+     * 在db文件关闭时记录已分配的页数
+     * @param page
+     * @param pageCount
+     */
+    public static void setPageCount(Page page, int pageCount) {
+        page.setPageDirty(true);
+        page.getPageBuffer().putInt(PageConstant.PAGE_COUNT_OFFSET, pageCount);
+    }
+
     /**
      *在db文件启动时，为页面特定位置设置合法检查
      * @param page
      */
     public static void setValidCheckStart(Page page) {
         page.setPageDirty(true);
-        setValidCheckStart(page.getPageData());
+        setValidCheckStart(page.getPageBuffer());
     }
 
     /**
      * 在db文件启动时，为页面特定位置设置合法检查
      * @param raw
      */
-    private static void setValidCheckStart(byte[] raw) {
-        System.arraycopy(RandomUtil.randomBytes(PageConstant.LENGTH_VALID_CHECK), 0,
-                raw, PageConstant.VALID_CHECK_OFFSET, PageConstant.LENGTH_VALID_CHECK);
+    private static void setValidCheckStart(ByteBuffer raw) {
+        raw.put(PageConstant.VALID_CHECK_OFFSET, RandomUtil.randomBytes(PageConstant.LENGTH_VALID_CHECK));
     }
 
     /**
@@ -47,16 +98,16 @@ public class PageFirst {
      */
     public static void setValidCheckClose(Page page) {
         page.setPageDirty(true);
-        setValidCheckClose(page.getPageData());
+        setValidCheckClose(page.getPageBuffer());
     }
 
     /**
      * 在db文件关闭时，为页面特定位置设置合法检查
      * @param raw
      */
-    private static void setValidCheckClose(byte[] raw) {
-        System.arraycopy(raw, PageConstant.VALID_CHECK_OFFSET, raw,
-                PageConstant.VALID_CHECK_OFFSET+PageConstant.LENGTH_VALID_CHECK, PageConstant.LENGTH_VALID_CHECK);
+    private static void setValidCheckClose(ByteBuffer raw) {
+        raw.put(PageConstant.VALID_CHECK_OFFSET+PageConstant.LENGTH_VALID_CHECK, raw,
+                PageConstant.VALID_CHECK_OFFSET, PageConstant.LENGTH_VALID_CHECK);
     }
 
     /**
@@ -65,7 +116,7 @@ public class PageFirst {
      * @return
      */
     public static boolean ValidCheck(Page page) {
-        return ValidCheck(page.getPageData());
+        return ValidCheck(page.getPageBuffer());
     }
 
     /**
@@ -73,11 +124,8 @@ public class PageFirst {
      * @param raw
      * @return
      */
-    private static boolean ValidCheck(byte[] raw) {
-        byte[] openArray = Arrays.copyOfRange(raw, PageConstant.VALID_CHECK_OFFSET,
-                PageConstant.VALID_CHECK_OFFSET + PageConstant.LENGTH_VALID_CHECK);
-        byte[] closeArray = Arrays.copyOfRange(raw, PageConstant.VALID_CHECK_OFFSET+PageConstant.LENGTH_VALID_CHECK,
-                PageConstant.VALID_CHECK_OFFSET + 2 * PageConstant.LENGTH_VALID_CHECK);
-        return Arrays.equals(openArray, closeArray);
+    private static boolean ValidCheck(ByteBuffer raw) {
+        return raw.slice(PageConstant.VALID_CHECK_OFFSET, PageConstant.LENGTH_VALID_CHECK)
+                .equals(raw.slice(PageConstant.VALID_CHECK_OFFSET + PageConstant.LENGTH_VALID_CHECK, PageConstant.LENGTH_VALID_CHECK));
     }
 }
@@ -0,0 +1,62 @@
+package org.minidb.backend.dm.page;
+
+import org.minidb.common.constant.PageConstant;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageFreeSpaceMap管理空闲空间表页
+ * 结构：[Unused 2] [Checksum] [Entry0] [Entry1] ... [EntryN]
+ * 每个普通页占一个字节的 Entry，记录其空闲空间的级别：空闲空间除以 pageSize / FSM_LEVELS，向下取整，
+ * 按级别还原的空闲空间不会大于页面实际的空闲空间
+ */
+public class PageFreeSpaceMap {
+    /**
+     * 初始化字节数组，所有 Entry 为0
+     * @param pageSize
+     * @return
+     */
+    public static byte[] initRaw(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /**
+     * 一张表页能记录的普通页个数
+     * @param pageSize
+     * @return
+     */
+    public static int getEntryCount(int pageSize) {
+        return pageSize - PageConstant.FSM_ENTRY_OFFSET;
+    }
+
+    /**
+     * 获取第 index 个普通页记录的空闲空间
+     * @param page
+     * @param index
+     * @return
+     */
+    public static int getFreeSpace(Page page, int index) {
+        ByteBuffer raw = page.getPageBuffer();
+        int level = raw.get(PageConstant.FSM_ENTRY_OFFSET + index) & 0xFF;
+        return level * unit(raw.capacity());
+    }
+
+    /**
+     * 设置第 index 个普通页的空闲空间，级别改变时才将页面标记为脏页
+     * @param page
+     * @param index
+     * @param freeSpace
+     */
+    public static void setFreeSpace(Page page, int index, int freeSpace) {
+        ByteBuffer raw = page.getPageBuffer();
+        byte level = (byte)Math.min(freeSpace / unit(raw.capacity()), PageConstant.FSM_LEVELS - 1);
+        if(raw.get(PageConstant.FSM_ENTRY_OFFSET + index) != level) {
+            raw.put(PageConstant.FSM_ENTRY_OFFSET + index, level);
+            page.setPageDirty(true);
+        }
+    }
+
+    private static int unit(int pageSize) {
+        return pageSize / PageConstant.FSM_LEVELS;
+    }
+}
@@ -2,26 +2,39 @@ package org.minidb.backend.dm.page;
 
 import org.minidb.backend.dm.pageCache.PageCache;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class PageImpl implements Page{
     //页面页号
     private int pageNumber;
-    //页面实际数据
-    private byte[] data;
-    //标志脏页
-    private boolean dirty;
+    //页面实际数据，position 与 limit 始终覆盖整个页面
+    private ByteBuffer data;
+    //标志脏页，后台写回线程会并发读写
+    private volatile boolean dirty;
     //并发锁
     private Lock lock;
     //页面缓存的引用
     private PageCache pc;
+    //自上次写回以来最早修改页面的日志LSN，-1表示没有
+    private AtomicLong recLsn;
+    //正在写回的修改对应的LSN，写回的数据交给文件系统前仍计入脏页表
+    private volatile long writingLsn;
+    //页面正在写回
+    private volatile boolean writing;
+    //页面最后一个镜像日志的LSN，-1表示没有。与 recLsn 不同，写回不会清除它
+    private volatile long imageLsn;
 
-    public PageImpl(int pageNumber, byte[] data, PageCache pc) {
+    public PageImpl(int pageNumber, ByteBuffer data, PageCache pc) {
         this.pageNumber = pageNumber;
         this.data = data;
         this.pc = pc;
         lock = new ReentrantLock();
+        recLsn = new AtomicLong(-1);
+        writingLsn = -1;
+        imageLsn = -1;
     }
 
     public void lock() {
@@ -37,9 +50,56 @@ public class PageImpl implements Page{
     }
 
     public void setPageDirty(boolean dirty) {
+        if(!dirty) {
+            // 先记下正在写回的LSN再清除 recLsn，并发读取的脏页表不会漏掉该页面
+            synchronized (this) {
+                long rec = recLsn.get();
+                writingLsn = rec;
+                writing = true;
+                recLsn.compareAndSet(rec, -1);
+            }
+        }
         this.dirty = dirty;
     }
 
+    public void writeBackDone() {
+        writingLsn = -1;
+        writing = false;
+    }
+
+    public void updateRecLsn(long lsn) {
+        recLsn.accumulateAndGet(lsn, (old, x) -> old < 0 ? x : Math.min(old, x));
+    }
+
+    public long getRecLsn() {
+        long rec = recLsn.get();
+        long writing = writingLsn;
+        if(rec < 0 || writing < 0) {
+            return Math.max(rec, writing);
+        }
+        return Math.min(rec, writing);
+    }
+
+    public long getImageLsn() {
+        return imageLsn;
+    }
+
+    public void setImageLsn(long lsn) {
+        imageLsn = lsn;
+    }
+
+    public long getRedoLsn() {
+        if(!dirty && !writing && getRecLsn() < 0) {
+            return -1;
+        }
+        long rec = getRecLsn();
+        long image = imageLsn;
+        if(rec < 0 || image < 0) {
+            return Math.max(rec, image);
+        }
+        return Math.min(rec, image);
+    }
+
     public boolean isDirty() {
         return this.dirty;
     }
@@ -48,7 +108,7 @@ public class PageImpl implements Page{
         return pageNumber;
     }
 
-    public byte[] getPageData() {
+    public ByteBuffer getPageBuffer() {
         return data;
     }
 }
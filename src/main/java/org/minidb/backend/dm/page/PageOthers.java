@@ -1,105 +1,395 @@
 package org.minidb.backend.dm.page;
 
 import org.minidb.common.constant.PageConstant;
-import org.minidb.backend.utils.Parser;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * PageX管理普通页
  * 普通页结构
- * 一个普通页面以一个 2 字节无符号数起始，表示这一页的空闲位置的偏移。剩下的部分都是实际存储的数据
- * 结构：[FreeSpaceOffset] [Data]
+ * 普通页是槽页结构，页面大小由数据库决定（见 PageFirst）。页头之后是槽目录，记录从页尾向前存放，二者之间为空闲空间
+ * 页面数据是页面缓存帧中的缓冲区，全部用指定位置的 get/put 读写
+ * 结构：[FreeSpaceOffset] [Checksum] [SlotCount] [Garbage] [FreeSlot] [Slot0] [Slot1] ... [Free] ... [Record1] [Record0]
+ * FreeSpaceOffset 2字节无符号数，记录区的起始位置
+ * Checksum        4字节页面校验和（见 PageChecksum）
+ * SlotCount       2字节，槽的个数
+ * Garbage         2字节，记录区中已释放记录占用的字节数，整理页面后可以回收
+ * FreeSlot        2字节，已释放的槽组成的链表的表头，值为槽号加1，0表示链表为空
+ * Slot            6字节，[RecordOffset] [RecordLength] [Generation]，偏移为0表示槽中的记录已被释放，此时长度字段保存链表中下一个槽号加1
+ * 数据项的uid由页号、槽的代数和槽号组成。整理页面只移动记录并修改槽中的偏移，槽号不变；
+ * 插入优先复用已释放的槽，复用时槽的代数加1，指向旧记录的uid与槽的代数不符，不会读到新记录，
+ * 恢复时重做的日志也按代数跳过已被复用的槽
  */
 public class PageOthers {
     /**
      * 初始化字节数组
+     * @param pageSize
      * @return
      */
-    public static byte[] initRaw() {
-        byte[] raw = new byte[PageConstant.PAGE_SIZE];
-        setFreeSpaceOffset(raw, PageConstant.DATA_OFFSET);
+    public static byte[] initRaw(int pageSize) {
+        byte[] raw = new byte[pageSize];
+        setFreeSpaceOffset(ByteBuffer.wrap(raw), pageSize);
         return raw;
     }
 
     /**
-     * 为字节数组设置空闲空间偏移
+     * 页面能存放的最大记录长度
+     * @param pageSize
+     * @return
+     */
+    public static int getMaxFreeSpace(int pageSize) {
+        return pageSize - PageConstant.SLOT_OFFSET - PageConstant.SLOT_SIZE;
+    }
+
+    /**
+     * 为页面数据设置空闲空间偏移
      * @param raw
      * @param offsetData
      */
-    private static void setFreeSpaceOffset(byte[] raw, short offsetData) {
-        System.arraycopy(Parser.short2Byte(offsetData), 0,
-                raw, PageConstant.FREE_OFFSET, PageConstant.DATA_OFFSET);
+    private static void setFreeSpaceOffset(ByteBuffer raw, int offsetData) {
+        putShort(raw, PageConstant.FREE_OFFSET, offsetData);
+    }
+
+    /**
+     * 获取页面数据的空闲空间偏移，按无符号数解析，32KB的空页面偏移为32768
+     * @param raw
+     * @return
+     */
+    private static int getFreeSpaceOffset(ByteBuffer raw) {
+        return getShort(raw, PageConstant.FREE_OFFSET);
     }
 
     /**
-     * 获取页面的空闲空间偏移
+     * 获取页面的槽个数，即下一条插入的记录的槽号
      * @param page
      * @return
      */
-    public static short getFreeSpaceOffset(Page page) {
-        return getFreeSpaceOffset(page.getPageData());
+    public static int getSlotCount(Page page) {
+        return getSlotCount(page.getPageBuffer());
+    }
+
+    private static int getSlotCount(ByteBuffer raw) {
+        return getShort(raw, PageConstant.SLOT_COUNT_OFFSET);
     }
 
     /**
-     * 获取字节数组的空闲空间偏移
-     * @param raw
+     * 获取槽中记录的偏移，槽不存在、记录已被释放或槽已被复用（代数不符）时返回0
+     * @param page
+     * @param slot
+     * @param generation
      * @return
      */
-    private static short getFreeSpaceOffset(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, 0, 2));
+    public static int getRecordOffset(Page page, short slot, short generation) {
+        ByteBuffer raw = page.getPageBuffer();
+        if(slot < 0 || slot >= getSlotCount(raw)) {
+            return 0;
+        }
+        int position = slotPosition(slot);
+        if(getShort(raw, position + 4) != (generation & 0xFFFF)) {
+            return 0;
+        }
+        return getShort(raw, position);
     }
 
     /**
-     * 将包含数据的字节数组插入页面中
+     * 获取槽当前的代数，槽不存在时返回0
+     * @param page
+     * @param slot
+     * @return
+     */
+    public static short getGeneration(Page page, short slot) {
+        ByteBuffer raw = page.getPageBuffer();
+        if(slot < 0 || slot >= getSlotCount(raw)) {
+            return 0;
+        }
+        return (short)getShort(raw, slotPosition(slot) + 4);
+    }
+
+    /**
+     * 获取下一条插入的记录将使用的槽号：空闲槽链表的表头，链表为空时为新槽
      * @param page
-     * @param raw
      * @return
      */
+    public static short nextSlot(Page page) {
+        return (short)nextSlot(page.getPageBuffer());
+    }
+
+    /**
+     * 获取下一条插入的记录所在槽的代数，复用的槽代数加1，新槽为0
+     * @param page
+     * @return
+     */
+    public static short nextGeneration(Page page) {
+        ByteBuffer data = page.getPageBuffer();
+        int slot = nextSlot(data);
+        if(slot >= getSlotCount(data)) {
+            return 0;
+        }
+        return (short)(getShort(data, slotPosition(slot) + 4) + 1);
+    }
+
+    private static int nextSlot(ByteBuffer raw) {
+        int head = getShort(raw, PageConstant.FREE_SLOT_OFFSET);
+        return head == 0 ? getSlotCount(raw) : head - 1;
+    }
+
+    /**
+     * 将包含数据的字节数组插入页面中，页面的连续空闲空间须足够存放该记录
+     * 记录放入 nextSlot 返回的槽中，代数为 nextGeneration
+     * @param page
+     * @param raw
+     * @return 记录的槽号
+     */
     public static short insert(Page page, byte[] raw) {
         page.setPageDirty(true);
-        short offset = getFreeSpaceOffset(page.getPageData());
-        System.arraycopy(raw, 0, page.getPageData(), offset, raw.length);
-        setFreeSpaceOffset(page.getPageData(), (short)(offset + raw.length));
-        return offset;
+        ByteBuffer data = page.getPageBuffer();
+        int slot = nextSlot(data);
+        int generation = nextGeneration(page);
+        if(slot < getSlotCount(data)) {
+            // 取出空闲槽链表的表头
+            putShort(data, PageConstant.FREE_SLOT_OFFSET, getShort(data, slotPosition(slot) + 2));
+        } else {
+            putShort(data, PageConstant.SLOT_COUNT_OFFSET, slot + 1);
+        }
+        place(data, slot, raw, generation);
+        return (short)slot;
     }
 
     /**
-     * 获取页面的空闲空间大小
+     * 释放槽中的记录，记录占用的空间在整理页面后回收，槽加入空闲槽链表等待复用
+     * 槽已被复用（代数不符）时不做修改。槽不存在时补齐槽目录，补齐的槽都是空闲槽
+     * @param page
+     * @param slot
+     * @param generation
+     */
+    public static void free(Page page, short slot, short generation) {
+        page.setPageDirty(true);
+        ByteBuffer data = page.getPageBuffer();
+        if(slot >= getSlotCount(data)) {
+            extendSlots(page, slot + 1);
+            putShort(data, slotPosition(slot) + 4, generation);
+            return;
+        }
+        int position = slotPosition(slot);
+        if(getShort(data, position) == 0 || getShort(data, position + 4) != (generation & 0xFFFF)) {
+            return;
+        }
+        int length = getShort(data, position + 2);
+        pushFreeSlot(data, slot);
+        putShort(data, PageConstant.GARBAGE_OFFSET, getShort(data, PageConstant.GARBAGE_OFFSET) + length);
+    }
+
+    /**
+     * 整理页面：将仍有效的记录紧凑地移到页尾，回收已释放记录的空间
+     * 记录会被移动，调用者须持有页面锁，且没有其他线程正在使用该页面中的数据
+     * @param page
+     */
+    public static void compact(Page page) {
+        ByteBuffer data = page.getPageBuffer();
+        if(getShort(data, PageConstant.GARBAGE_OFFSET) == 0) {
+            return;
+        }
+        page.setPageDirty(true);
+        ByteBuffer copy = ByteBuffer.allocate(data.capacity());
+        copy.put(0, data, 0, data.capacity());
+        int slotCount = getSlotCount(data);
+        int offset = data.capacity();
+        for (int i = 0; i < slotCount; i ++) {
+            int position = slotPosition(i);
+            int recordOffset = getShort(copy, position);
+            if(recordOffset == 0) {
+                continue;
+            }
+            int length = getShort(copy, position + 2);
+            offset -= length;
+            data.put(offset, copy, recordOffset, length);
+            setSlot(data, i, offset, length, getShort(copy, position + 4));
+        }
+        setFreeSpaceOffset(data, offset);
+        putShort(data, PageConstant.GARBAGE_OFFSET, 0);
+    }
+
+    /**
+     * 获取不整理页面时可插入的最大记录长度
+     * @param page
+     * @return
+     */
+    public static int getContiguousFreeSpace(Page page) {
+        ByteBuffer raw = page.getPageBuffer();
+        return Math.max(contiguousSpace(raw) - slotOverhead(raw), 0);
+    }
+
+    /**
+     * 获取页面的空闲空间大小，包括整理页面后可回收的空间
      * @param page
      * @return
      */
     public static int getFreeSpace(Page page) {
-        return PageConstant.PAGE_SIZE - (int) getFreeSpaceOffset(page.getPageData());
+        ByteBuffer raw = page.getPageBuffer();
+        int space = contiguousSpace(raw) + getShort(raw, PageConstant.GARBAGE_OFFSET);
+        return Math.max(space - slotOverhead(raw), 0);
     }
 
     /**
      * 在数据库崩溃后重新打开时，恢复例程直接插入数据
-     * 将raw插入页面中的offset位置，并将页面的offset设置为较大的offset
+     * 槽的代数与日志相同时将raw写回该槽中的记录，记录已被释放则跳过，释放它的日志在之后或者它属于被撤销的插入；
+     * 槽的代数更新说明该槽之后又被复用，跳过；代数更旧或槽不存在时，将记录放入该槽。
+     * 恢复时没有其他线程使用页面，空间不足时直接整理页面
      * @param page
      * @param raw
-     * @param offset
+     * @param slot
+     * @param generation
      */
-    public static void recoverInsert(Page page, byte[] raw, short offset) {
+    public static void recoverInsert(Page page, byte[] raw, short slot, short generation) {
         page.setPageDirty(true);
-        System.arraycopy(raw, 0, page.getPageData(), offset, raw.length);
-
-        short rawFSO = getFreeSpaceOffset(page.getPageData());
-        //如果数据库崩溃前已经写入一些数据，在恢复时再将全部数据写入会导致如下情况
-        if(rawFSO < offset + raw.length) {
-            setFreeSpaceOffset(page.getPageData(), (short)(offset+raw.length));
+        ByteBuffer data = page.getPageBuffer();
+        boolean fresh = slot >= getSlotCount(data);
+        if(fresh) {
+            extendSlots(page, slot);
+        } else {
+            int position = slotPosition(slot);
+            int offset = getShort(data, position);
+            int newer = (short)(generation - getShort(data, position + 4));
+            if(newer < 0) {
+                return;
+            }
+            if(newer == 0) {
+                if(offset != 0) {
+                    data.put(offset, raw);
+                }
+                return;
+            }
+            if(offset != 0) {
+                putShort(data, PageConstant.GARBAGE_OFFSET, getShort(data, PageConstant.GARBAGE_OFFSET) + getShort(data, position + 2));
+            } else {
+                unlinkFreeSlot(data, slot);
+            }
+            setSlot(data, slot, 0, 0, 0);
+        }
+        if(contiguousSpace(data) < raw.length + (fresh ? PageConstant.SLOT_SIZE : 0)) {
+            compact(page);
+        }
+        if(fresh) {
+            putShort(data, PageConstant.SLOT_COUNT_OFFSET, slot + 1);
         }
+        place(data, slot, raw, generation);
     }
 
     /**
      * 在数据库崩溃后重新打开时，恢复例程修改数据
-     * 将raw插入页面中的offset位置
+     * 将raw写入槽中的记录，槽不存在、记录已被释放或槽已被复用时跳过
      * @param page
      * @param raw
-     * @param offset
+     * @param slot
+     * @param generation
      */
-    public static void recoverUpdate(Page page, byte[] raw, short offset) {
+    public static void recoverUpdate(Page page, byte[] raw, short slot, short generation) {
+        int offset = getRecordOffset(page, slot, generation);
+        if(offset == 0) {
+            return;
+        }
         page.setPageDirty(true);
-        System.arraycopy(raw, 0, page.getPageData(), offset, raw.length);
+        page.getPageBuffer().put(offset, raw);
+    }
+
+    /**
+     * 用空闲槽将槽目录补齐到 slotCount 个，补齐的槽加入空闲槽链表
+     * @param page
+     * @param slotCount
+     */
+    private static void extendSlots(Page page, int slotCount) {
+        ByteBuffer data = page.getPageBuffer();
+        int count = getSlotCount(data);
+        if(count >= slotCount) {
+            return;
+        }
+        if(contiguousSpace(data) < (slotCount - count) * PageConstant.SLOT_SIZE) {
+            compact(page);
+        }
+        for (int i = count; i < slotCount; i ++) {
+            setSlot(data, i, 0, 0, 0);
+            pushFreeSlot(data, i);
+        }
+        putShort(data, PageConstant.SLOT_COUNT_OFFSET, slotCount);
+    }
+
+    /**
+     * 将记录写入记录区的前端，并由槽指向它
+     * @param data
+     * @param slot
+     * @param raw
+     * @param generation
+     */
+    private static void place(ByteBuffer data, int slot, byte[] raw, int generation) {
+        int offset = getFreeSpaceOffset(data) - raw.length;
+        data.put(offset, raw);
+        setSlot(data, slot, offset, raw.length, generation);
+        setFreeSpaceOffset(data, offset);
+    }
+
+    /**
+     * 将槽标记为空闲并放在空闲槽链表的表头，槽的代数保持不变
+     * @param data
+     * @param slot
+     */
+    private static void pushFreeSlot(ByteBuffer data, int slot) {
+        int position = slotPosition(slot);
+        setSlot(data, slot, 0, getShort(data, PageConstant.FREE_SLOT_OFFSET), getShort(data, position + 4));
+        putShort(data, PageConstant.FREE_SLOT_OFFSET, slot + 1);
+    }
+
+    /**
+     * 从空闲槽链表中摘除指定的槽，只在恢复时使用，正常插入总是取出表头
+     * @param data
+     * @param slot
+     */
+    private static void unlinkFreeSlot(ByteBuffer data, int slot) {
+        int link = PageConstant.FREE_SLOT_OFFSET;
+        int next = getShort(data, link);
+        while(next != 0) {
+            if(next - 1 == slot) {
+                putShort(data, link, getShort(data, slotPosition(slot) + 2));
+                return;
+            }
+            link = slotPosition(next - 1) + 2;
+            next = getShort(data, link);
+        }
+    }
+
+    /**
+     * 插入一条记录需要额外占用的槽目录空间，有空闲槽时为0
+     * @param raw
+     * @return
+     */
+    private static int slotOverhead(ByteBuffer raw) {
+        return getShort(raw, PageConstant.FREE_SLOT_OFFSET) == 0 ? PageConstant.SLOT_SIZE : 0;
+    }
+
+    /**
+     * 槽目录末尾与记录区之间的字节数
+     * @param raw
+     * @return
+     */
+    private static int contiguousSpace(ByteBuffer raw) {
+        return getFreeSpaceOffset(raw) - slotPosition(getSlotCount(raw));
+    }
+
+    private static int slotPosition(int slot) {
+        return PageConstant.SLOT_OFFSET + slot * PageConstant.SLOT_SIZE;
+    }
+
+    private static void setSlot(ByteBuffer raw, int slot, int offset, int length, int generation) {
+        int position = slotPosition(slot);
+        putShort(raw, position, offset);
+        putShort(raw, position + 2, length);
+        putShort(raw, position + 4, generation);
+    }
+
+    private static int getShort(ByteBuffer raw, int position) {
+        return raw.getShort(position) & 0xFFFF;
+    }
+
+    private static void putShort(ByteBuffer raw, int position, int value) {
+        raw.putShort(position, (short)value);
     }
 }
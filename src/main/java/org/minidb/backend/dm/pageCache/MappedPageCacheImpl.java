@@ -0,0 +1,194 @@
+package org.minidb.backend.dm.pageCache;
+
+import org.minidb.backend.dm.page.Page;
+import org.minidb.backend.dm.page.PageChecksum;
+import org.minidb.backend.utils.Panic;
+import org.minidb.common.Result.FileResults;
+import org.minidb.common.constant.PageConstant;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 将db文件映射到内存的页面缓存
+ * 文件按固定大小分段映射，段大小是所有合法页面大小的整数倍。读入页面时不拷贝数据，页面直接使用映射中该页的一段，
+ * 缺页由操作系统从页缓存中补齐，省去一次拷贝和一个帧。
+ * 映射为私有（写时复制）映射：页面的修改只改变本进程内存中的副本，不会被操作系统自行写回文件，
+ * 文件仍只通过父类的写回路径改变，写入的是计算了校验和的快照，日志先于数据页持久化的顺序与 PageCacheImpl 相同。
+ * 被修改过的页面在映射中的副本不受缓存容量限制，直到映射被替换才释放，这种模式适合读多写少的负载。
+ * 映射只覆盖文件已有的长度，不会因映射而扩大文件；newPage 按区段扩展文件后，读取新页面时再扩大最后一段的映射。
+ * 私有映射中未被修改的页面能看到其后写入文件的内容（Linux 的行为），被修改过的页面写回前后内容一致
+ */
+public class MappedPageCacheImpl extends PageCacheImpl {
+    private static final long SEGMENT_SIZE = PageConstant.MAP_SEGMENT_SIZE;
+
+    /**
+     * 某一时刻的映射，创建后不再修改，读取页面时只读取一次 mapping，段与长度总是一致
+     */
+    private static class Mapping {
+        // 各段的映射，最后一段的长度可能小于 SEGMENT_SIZE
+        final MappedByteBuffer[] segments;
+        // 已映射的文件长度
+        final long size;
+
+        Mapping(MappedByteBuffer[] segments, long size) {
+            this.segments = segments;
+            this.size = size;
+        }
+    }
+
+    private static final Mapping EMPTY = new Mapping(new MappedByteBuffer[0], 0);
+
+    private final FileChannel fc;
+    private volatile Mapping mapping = EMPTY;
+
+    MappedPageCacheImpl(FileResults fileResults, int maxResource, PageCacheConfig config, int pageSize, int pageCount) {
+        super(fileResults, maxResource, config, pageSize, pageCount);
+        this.fc = fileResults.getFileChannel();
+        remap();
+    }
+
+    /**
+     * 返回映射中该页的一段作为页面数据，超出文件长度的页面返回一个全0的堆内页
+     * @param pageNumber
+     * @return
+     */
+    @Override
+    protected ByteBuffer loadPageData(int pageNumber) {
+        long offset = pageOffset(pageNumber);
+        Mapping current = mapping;
+        if(!covers(current, offset)) {
+            current = remap(offset);
+            if(current == null) {
+                return ByteBuffer.allocate(getPageSize());
+            }
+        }
+        return current.segments[(int)(offset / SEGMENT_SIZE)].slice((int)(offset % SEGMENT_SIZE), getPageSize());
+    }
+
+    /**
+     * 映射中的页面不需要读取，逐页返回映射中的一段
+     * @param pageNumber
+     * @param count
+     * @return
+     */
+    @Override
+    protected ByteBuffer[] loadPageData(int pageNumber, int count) {
+        ByteBuffer[] pages = new ByteBuffer[count];
+        for (int i = 0; i < count; i ++) {
+            pages[i] = loadPageData(pageNumber + i);
+        }
+        return pages;
+    }
+
+    /**
+     * 页面数据属于映射，不是帧池中的帧，不需要归还
+     * @param data
+     */
+    @Override
+    protected void releasePageData(ByteBuffer data) {
+    }
+
+    /**
+     * 写回只在快照中设置校验和，被修改过的页面在映射中的副本校验和已过时，
+     * 移出缓存时重新计算，否则再次读入同一页面时无法通过校验。
+     * 页面已从缓存中删除，此时仍持有分段锁，重新读入该页面的线程不会读到计算了一半的校验和；
+     * 未被修改的页面校验和仍然正确，不写入，避免复制出私有的副本。
+     * 当前映射不覆盖的页面是裁剪前留在缓存中的页面或超出文件长度的堆内页，其数据随之丢弃，
+     * 且访问超出文件长度的映射会导致进程崩溃，直接跳过
+     * @param page
+     */
+    @Override
+    protected void removedFromCache(Page page) {
+        super.removedFromCache(page);
+        if(!covers(mapping, pageOffset(page.getPageNumber()))) {
+            return;
+        }
+        ByteBuffer data = page.getPageBuffer();
+        if(!PageChecksum.verify(data)) {
+            PageChecksum.set(data);
+        }
+    }
+
+    /**
+     * 写入文件后同时改写映射中的页面。该页面在映射中可能有被修改过的私有副本，这份副本看不到文件的新内容
+     * @param pageNumber
+     * @param initData
+     */
+    @Override
+    public void resetPage(int pageNumber, byte[] initData) {
+        super.resetPage(pageNumber, initData);
+        long offset = pageOffset(pageNumber);
+        Mapping current = mapping;
+        if(covers(current, offset)) {
+            ByteBuffer data = current.segments[(int)(offset / SEGMENT_SIZE)].slice((int)(offset % SEGMENT_SIZE), getPageSize());
+            data.put(0, initData, 0, getPageSize());
+            PageChecksum.set(data);
+        }
+    }
+
+    /**
+     * 裁剪文件后按裁剪后的长度重新映射
+     * 旧的映射可能仍被缓存中的页面引用，不主动解除，由GC回收；缓存中超出裁剪长度的页面不能再被访问，
+     * 只在恢复时、这些页面被读写之前裁剪文件。
+     * Windows 不允许裁剪仍被映射的文件，内存映射模式只用于允许裁剪的系统（如 Linux）
+     * @param maxPageNumber
+     */
+    @Override
+    public synchronized void truncateByPgNumber(int maxPageNumber) {
+        mapping = EMPTY;
+        super.truncateByPgNumber(maxPageNumber);
+        remap();
+    }
+
+    private boolean covers(Mapping current, long offset) {
+        return offset + getPageSize() <= current.size;
+    }
+
+    /**
+     * 若页面仍未被映射，则按当前文件长度扩大映射
+     * @param offset
+     * @return 包含该页面的映射，页面超出文件长度时返回null
+     */
+    private synchronized Mapping remap(long offset) {
+        if(!covers(mapping, offset)) {
+            remap();
+        }
+        Mapping current = mapping;
+        return covers(current, offset) ? current : null;
+    }
+
+    /**
+     * 按当前文件长度重新映射，已映射满一段的部分保持不变
+     * 被替换的最后一段可能仍被缓存中的页面引用，不解除其映射，由GC回收。
+     * 该段中被修改过的页面在移出缓存时已写回文件，新的映射读到的是写回后的内容
+     */
+    private synchronized void remap() {
+        long size = 0;
+        try {
+            size = fc.size() / getPageSize() * getPageSize();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        Mapping current = mapping;
+        if(size <= current.size) {
+            return;
+        }
+        int segmentCount = (int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] extended = Arrays.copyOf(current.segments, segmentCount);
+        // 最后一段可能未映射满，与之后的段一起重新映射
+        int first = (int)(current.size / SEGMENT_SIZE);
+        try {
+            for (int i = first; i < segmentCount; i ++) {
+                long position = i * SEGMENT_SIZE;
+                extended[i] = fc.map(FileChannel.MapMode.PRIVATE, position, Math.min(SEGMENT_SIZE, size - position));
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        mapping = new Mapping(extended, size);
+    }
+}
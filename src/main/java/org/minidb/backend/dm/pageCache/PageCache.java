@@ -1,33 +1,69 @@
 package org.minidb.backend.dm.pageCache;
 
+import org.minidb.backend.common.CacheMetrics;
 import org.minidb.backend.dm.page.Page;
+import org.minidb.backend.dm.page.PageFirst;
 import org.minidb.backend.utils.FileIOUtil;
 import org.minidb.backend.utils.Panic;
+import org.minidb.common.Result.FileResults;
 import org.minidb.common.constant.MessageConstant;
 import org.minidb.common.constant.PageConstant;
+import org.minidb.common.exception.BadFormatVersionException;
+import org.minidb.common.exception.BadPageSizeException;
 import org.minidb.common.exception.FileExistsException;
 import org.minidb.common.exception.FileNotExistException;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface PageCache {
 
     int newPage(byte[] initData);
     Page getPage(int pageNumber) throws Exception;
+    CompletableFuture<Page> getPageAsync(int pageNumber);
+    void prefetch(int pageNumber, int count);
     void release(Page page);
+    // 页面当前的引用个数
+    int getReferences(Page page);
     void closeCache(Page page);
 
     void truncateByPgNumber(int maxPageNumber);
     int getPageNumber();
+    // 数据库的页面大小
+    int getPageSize();
     void flushPage(Page page);
+    // 写回所有脏页并刷盘，包括正被引用的页面
+    void flushAll();
+    // 脏页表：页号到恢复该页面需要的最早日志LSN
+    Map<Integer, Long> getDirtyPages();
+    // 丢弃被淘汰页面中早于lsn的镜像LSN
+    void forgetImagesBefore(long lsn);
+    // 恢复时以日志中的镜像覆盖页面，或重置校验和错误的第一页和表页
+    void resetPage(int pageNumber, byte[] initData);
+    // 页面缓存的统计信息
+    CacheMetrics getCacheMetrics();
 
     /**
-     * 在db数据库不存在时，创建db文件和页面缓存
+     * 在db数据库不存在时，以默认配置创建db文件和页面缓存
      * @param path
      * @param memory
      * @return
      */
     static PageCacheImpl createPageCache(String path, long memory) {
+        return createPageCache(path, PageCacheConfig.builder().memory(memory).build());
+    }
+
+    /**
+     * 在db数据库不存在时，创建db文件和页面缓存
+     * @param path
+     * @param config
+     * @return
+     */
+    static PageCacheImpl createPageCache(String path, PageCacheConfig config) {
         File dbFile = new File(path+ PageConstant.DB_SUFFIX);
 
         try {
@@ -38,20 +74,111 @@ public interface PageCache {
             Panic.panic(e);
         }
 
-        return new PageCacheImpl(FileIOUtil.fileHandle(dbFile), (int)memory/PageConstant.PAGE_SIZE);
+        return newPageCache(FileIOUtil.fileHandle(dbFile), config, config.getPageSize(), 0);
     }
 
     /**
-     * 在db数据库存在时，依据db文件创建页面缓存
+     * 在db数据库存在时，以默认配置依据db文件创建页面缓存
      * @param path
      * @param memory
      * @return
      */
     static PageCacheImpl openPageCache(String path, long memory) {
+        return openPageCache(path, PageCacheConfig.builder().memory(memory).build());
+    }
+
+    /**
+     * 在db数据库存在时，依据db文件创建页面缓存，页面大小和已分配的页数以db文件第一页中保存的为准
+     * @param path
+     * @param config
+     * @return
+     */
+    static PageCacheImpl openPageCache(String path, PageCacheConfig config) {
         File dbFile = new File(path+PageConstant.DB_SUFFIX);
         if(!dbFile.exists()) {
             throw new FileNotExistException(MessageConstant.FILE_NOT_EXIST);
         }
-        return new PageCacheImpl(FileIOUtil.fileHandle(dbFile), (int)memory/PageConstant.PAGE_SIZE);
+        FileResults fileResults = FileIOUtil.fileHandle(dbFile);
+        byte[] header = readHeader(fileResults);
+        checkFormatVersion(header);
+        return newPageCache(fileResults, config, parsePageSize(header, config), header == null ? 0 : PageFirst.parsePageCount(header));
+    }
+
+    /**
+     * 根据配置和页面大小计算缓存页数并创建页面缓存，配置为内存映射时使用 MappedPageCacheImpl
+     * @param fileResults
+     * @param config
+     * @param pageSize
+     * @param pageCount 已分配的页数，为0时按文件长度计算
+     * @return
+     */
+    private static PageCacheImpl newPageCache(FileResults fileResults, PageCacheConfig config, int pageSize, int pageCount) {
+        int maxResource = (int)(config.getMemory() / pageSize);
+        PageCacheImpl pageCache;
+        if(config.isMmap()) {
+            pageCache = new MappedPageCacheImpl(fileResults, maxResource, config, pageSize, pageCount);
+        } else {
+            pageCache = new PageCacheImpl(fileResults, maxResource, config, pageSize, pageCount);
+        }
+        pageCache.registerMetrics();
+        return pageCache;
+    }
+
+    /**
+     * 读取db文件第一页中保存页面大小、已分配页数和格式版本的部分
+     * 第一页尚未写入文件（创建数据库后立即崩溃，文件可能已按区段扩展为全0）时返回null
+     * @param fileResults
+     * @return
+     */
+    private static byte[] readHeader(FileResults fileResults) {
+        ByteBuffer buffer = ByteBuffer.allocate(PageConstant.FORMAT_VERSION_OFFSET + PageConstant.LENGTH_FORMAT_VERSION);
+        try {
+            FileChannel fc = fileResults.getFileChannel();
+            while(buffer.hasRemaining() && fc.read(buffer, buffer.position()) >= 0) {
+                // 一次读取可能不足
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        if(buffer.hasRemaining()) {
+            return null;
+        }
+        for (byte b : buffer.array()) {
+            if(b != 0) {
+                return buffer.array();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 检查db文件第一页中保存的格式版本，与当前版本不同时拒绝打开
+     * 此前版本的表页位置等文件布局与当前不同，按当前布局读写会破坏数据，不做迁移
+     * @param header
+     */
+    private static void checkFormatVersion(byte[] header) {
+        if(header != null && PageFirst.parseFormatVersion(header) != PageConstant.FORMAT_VERSION) {
+            throw new BadFormatVersionException(MessageConstant.BAD_FORMAT_VERSION);
+        }
+    }
+
+    /**
+     * 解析db文件第一页中保存的页面大小，未保存时使用配置中的页面大小
+     * @param header
+     * @param config
+     * @return
+     */
+    private static int parsePageSize(byte[] header, PageCacheConfig config) {
+        if(header == null) {
+            return config.getPageSize();
+        }
+        int pageSize = PageFirst.parsePageSize(header);
+        if(pageSize == 0) {
+            return config.getPageSize();
+        }
+        if(!PageCacheConfig.isValidPageSize(pageSize)) {
+            throw new BadPageSizeException(MessageConstant.BAD_PAGE_SIZE);
+        }
+        return pageSize;
     }
 }
@@ -0,0 +1,152 @@
+package org.minidb.backend.dm.pageCache;
+
+import org.minidb.backend.common.eviction.EvictionType;
+import org.minidb.common.constant.MessageConstant;
+import org.minidb.common.constant.PageConstant;
+import org.minidb.common.exception.BadPageSizeException;
+
+/**
+ * 页面缓存的配置，在创建或打开页面缓存时指定
+ */
+public class PageCacheConfig {
+
+    // 页面缓存可使用的内存大小
+    private long memory;
+    // 缓存满时的淘汰策略
+    private EvictionType evictionType;
+    // 页面引用计数归零时是否推迟写回，推迟时脏页由淘汰、后台写回线程或关闭缓存时写回
+    private boolean deferWriteBack;
+    // 后台写回线程的写回间隔，为0时不启动后台写回线程
+    private long flushIntervalMillis;
+    // 异步读取页面的线程数
+    private int ioThreads;
+    // 是否将db文件映射到内存，页面直接使用映射中的数据，适合读多写少的负载
+    private boolean mmap;
+    // 检测到顺序访问时预读的页数，为0时不预读
+    private int readAheadPages;
+    // 创建数据库时使用的页面大小，打开已有数据库时以第一页中保存的页面大小为准
+    private int pageSize;
+    // 创建页面时文件每次扩展的字节数，至少扩展一页
+    private long extentSize;
+
+    public long getMemory() {
+        return memory;
+    }
+
+    public EvictionType getEvictionType() {
+        return evictionType;
+    }
+
+    public boolean isDeferWriteBack() {
+        return deferWriteBack;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public boolean isMmap() {
+        return mmap;
+    }
+
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getExtentSize() {
+        return extentSize;
+    }
+
+    /**
+     * 创建页面缓存配置的builder模式
+     * @return
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long memory;
+        private EvictionType evictionType = EvictionType.LRU;
+        private boolean deferWriteBack = true;
+        private long flushIntervalMillis = PageConstant.FLUSH_INTERVAL_MILLIS;
+        private int ioThreads = PageConstant.IO_THREADS;
+        private boolean mmap;
+        private int readAheadPages = PageConstant.READ_AHEAD_PAGES;
+        private int pageSize = PageConstant.PAGE_SIZE;
+        private long extentSize = PageConstant.EXTENT_SIZE;
+
+        public Builder memory(long memory) {
+            this.memory = memory;
+            return this;
+        }
+        public Builder evictionType(EvictionType evictionType) {
+            this.evictionType = evictionType;
+            return this;
+        }
+        public Builder deferWriteBack(boolean deferWriteBack) {
+            this.deferWriteBack = deferWriteBack;
+            return this;
+        }
+        public Builder flushIntervalMillis(long flushIntervalMillis) {
+            this.flushIntervalMillis = flushIntervalMillis;
+            return this;
+        }
+        public Builder ioThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+        public Builder mmap(boolean mmap) {
+            this.mmap = mmap;
+            return this;
+        }
+        public Builder readAheadPages(int readAheadPages) {
+            this.readAheadPages = readAheadPages;
+            return this;
+        }
+        public Builder pageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+        public Builder extentSize(long extentSize) {
+            this.extentSize = extentSize;
+            return this;
+        }
+        public PageCacheConfig build() {
+            return new PageCacheConfig(this);
+        }
+    }
+
+    public PageCacheConfig(Builder builder) {
+        this.memory = builder.memory;
+        this.evictionType = builder.evictionType;
+        this.deferWriteBack = builder.deferWriteBack;
+        this.flushIntervalMillis = builder.flushIntervalMillis;
+        this.ioThreads = Math.max(builder.ioThreads, 1);
+        this.mmap = builder.mmap;
+        this.readAheadPages = Math.max(builder.readAheadPages, 0);
+        if(!isValidPageSize(builder.pageSize)) {
+            throw new BadPageSizeException(MessageConstant.BAD_PAGE_SIZE);
+        }
+        this.pageSize = builder.pageSize;
+        this.extentSize = Math.max(builder.extentSize, 0);
+    }
+
+    /**
+     * 页面大小须为 MIN_PAGE_SIZE 到 MAX_PAGE_SIZE 之间的2的幂
+     * @param pageSize
+     * @return
+     */
+    static boolean isValidPageSize(int pageSize) {
+        return pageSize >= PageConstant.MIN_PAGE_SIZE && pageSize <= PageConstant.MAX_PAGE_SIZE
+                && Integer.bitCount(pageSize) == 1;
+    }
+}
@@ -1,18 +1,33 @@
 package org.minidb.backend.dm.pageCache;
 
 import org.minidb.backend.common.AbstractCache;
+import org.minidb.backend.common.eviction.EvictionPolicy;
 import org.minidb.backend.dm.page.Page;
+import org.minidb.backend.dm.page.PageChecksum;
 import org.minidb.backend.dm.page.PageImpl;
 import org.minidb.backend.utils.Panic;
 import org.minidb.common.Result.FileResults;
 import org.minidb.common.constant.MessageConstant;
 import org.minidb.common.constant.PageConstant;
+import org.minidb.common.exception.BadPageChecksumException;
 import org.minidb.common.exception.MemoryShortageException;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -21,82 +36,356 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache{
 
     private RandomAccessFile raf;
     private FileChannel fc;
-    private Lock fileLock;
+    // 已分配的页数，即最大页号
     private AtomicInteger pageNumbers;
+    // 文件长度能容纳的页数，文件按区段扩展，可能大于已分配的页数
+    private volatile int filePages;
+    // 每次扩展文件的页数
+    private int extentPages;
+    // 扩展文件时互斥
+    private Lock extendLock;
+    // 创建页面须互斥，页号在页面写入后才递增
+    private Lock newPageLock;
+    // 页面大小，由数据库第一页决定
+    private int pageSize;
+    // 后台写回脏页的线程，为null表示未启动
+    private Thread flusher;
+    // 通知后台写回线程退出。不能中断该线程，中断会关闭正在读写的FileChannel
+    private CountDownLatch flusherStop;
+    // 异步读取页面的线程池
+    private ExecutorService ioExecutor;
+    // 缓存页面使用的帧
+    private PageFramePool framePool;
+    // 聚集写入与分散读取需要设置FileChannel的位置，彼此之间互斥
+    private Lock positionLock;
+    // 检测到顺序访问时预读的页数，为0时不预读
+    private int readAheadPages;
+    // 一次预读最多的页数，避免预读把缓存中的页面全部淘汰
+    private int maxPrefetchPages;
+    // 顺序访问检测：上一次访问的页号、连续顺序访问的次数、已预读到的页号
+    private AtomicInteger lastAccessed;
+    private AtomicInteger sequentialCount;
+    private AtomicInteger readAheadEnd;
+    // 被淘汰页面最后一个镜像的LSN，页面重新读入时恢复，读入后的第一次修改不必再记录镜像
+    private Map<Integer, Long> imageLsns;
 
-    PageCacheImpl(FileResults fileResults, int maxResource) {
+    /**
+     * @param pageCount 已分配的页数，为0时（新建的文件或未正常关闭）按文件长度计算，
+     *                  未正常关闭时恢复过程会按日志重新确定页数
+     */
+    PageCacheImpl(FileResults fileResults, int maxResource, PageCacheConfig config, int pageSize, int pageCount) {
         // 调用父类AbstractCache的构造方法
-        super(maxResource);
+        super(maxResource, EvictionPolicy.newPolicy(config.getEvictionType(), maxResource), config.isDeferWriteBack());
         if(maxResource < PageConstant.MEMORY_MIN_LIMIT) {
             throw new MemoryShortageException(MessageConstant.MEMORY_SHORTAGE);
         }
+        this.raf = fileResults.getRandomAccessFile();
+        this.fc = fileResults.getFileChannel();
+        this.pageSize = pageSize;
         long length = 0;
         try {
             length = raf.length();
         } catch (IOException e) {
             Panic.panic(e);
         }
-        this.raf = fileResults.getRandomAccessFile();
-        this.fc = fileResults.getFileChannel();
-        this.fileLock = new ReentrantLock();
-        this.pageNumbers = new AtomicInteger((int)length / PageConstant.PAGE_SIZE);
+        this.filePages = (int)(length / pageSize);
+        if(pageCount <= 0 || pageCount > filePages) {
+            pageCount = filePages;
+        }
+        this.pageNumbers = new AtomicInteger(pageCount);
+        this.extentPages = (int)Math.max(config.getExtentSize() / pageSize, 1);
+        this.extendLock = new ReentrantLock();
+        this.newPageLock = new ReentrantLock();
+        this.ioExecutor = newIoExecutor(config.getIoThreads());
+        this.framePool = new PageFramePool(pageSize, maxResource);
+        this.positionLock = new ReentrantLock();
+        this.readAheadPages = config.getReadAheadPages();
+        this.maxPrefetchPages = Math.max(maxResource / 2, 1);
+        this.lastAccessed = new AtomicInteger(0);
+        this.sequentialCount = new AtomicInteger(0);
+        this.readAheadEnd = new AtomicInteger(0);
+        this.imageLsns = new ConcurrentHashMap<>();
+        if(config.isDeferWriteBack() && config.getFlushIntervalMillis() > 0) {
+            startFlusher(config.getFlushIntervalMillis());
+        }
+    }
+
+    @Override
+    protected String cacheName() {
+        return "PageCache";
     }
 
     /**
      * 根据页面编号从数据库文件中读取页数据，并包裹成Page
-     * 并不会写入缓存
+     * 并不会写入缓存。使用指定位置的读取，不修改FileChannel的位置，不同页面的读取可以并行进行
+     * 读入的页面须通过校验和检查，否则抛出 BadPageChecksumException
      */
     @Override
     protected Page get2Cache(long key) throws Exception {
         int pageNumber = (int)key;
-        long offset = pageOffset(pageNumber);
-        fileLock.lock();
-        ByteBuffer buffer = ByteBuffer.allocate(PageConstant.PAGE_SIZE);
-        try {
-            fc.position(offset);
-            fc.read(buffer);
-        } catch(IOException e) {
-            Panic.panic(e);
-        } finally {
-            fileLock.unlock();
+        ByteBuffer data = loadPageData(pageNumber);
+        if(!PageChecksum.verify(data)) {
+            releasePageData(data);
+            throw new BadPageChecksumException(MessageConstant.BAD_PAGE_CHECKSUM);
+        }
+        return wrap(pageNumber, data);
+    }
+
+    /**
+     * 读取一页数据，返回的缓冲区即页面的数据，页面移出缓存时交给 releasePageData
+     * 从帧池中取一个空闲帧，从文件中读入
+     * @param pageNumber
+     * @return
+     */
+    protected ByteBuffer loadPageData(int pageNumber) {
+        ByteBuffer data = framePool.acquire();
+        readPage(pageOffset(pageNumber), data);
+        return data;
+    }
+
+    /**
+     * 读取从 pageNumber 开始页号连续的 count 页数据，用一次分散读取读入空闲帧
+     * @param pageNumber
+     * @param count
+     * @return
+     */
+    protected ByteBuffer[] loadPageData(int pageNumber, int count) {
+        ByteBuffer[] frames = new ByteBuffer[count];
+        for (int i = 0; i < count; i ++) {
+            frames[i] = framePool.acquire();
+        }
+        readPages(pageOffset(pageNumber), frames);
+        return frames;
+    }
+
+    /**
+     * 页面移出缓存，或读入的数据未通过校验时，将帧归还帧池
+     * @param data
+     */
+    protected void releasePageData(ByteBuffer data) {
+        framePool.release(data);
+    }
+
+    /**
+     * 将读入的页面数据包裹成Page，恢复页面被淘汰前最后一个镜像的LSN
+     * @param pageNumber
+     * @param data
+     * @return
+     */
+    private Page wrap(int pageNumber, ByteBuffer data) {
+        Page page = new PageImpl(pageNumber, data, this);
+        Long imageLsn = imageLsns.remove(pageNumber);
+        if(imageLsn != null) {
+            page.setImageLsn(imageLsn);
         }
-        return new PageImpl(pageNumber, buffer.array(), this);
+        return page;
     }
 
     /**
-     * 若页面被标记为脏页，则写回文件系统
+     * 页面被淘汰或缓存关闭时，归还页面的数据，并记下页面最后一个镜像的LSN
      * @param page
      */
     @Override
-    protected void releaseByObj(Page page) {
-        if(page.isDirty()) {
-            flush(page);
-            page.setPageDirty(false);
+    protected void removedFromCache(Page page) {
+        if(page.getImageLsn() >= 0) {
+            imageLsns.put(page.getPageNumber(), page.getImageLsn());
         }
+        releasePageData(page.getPageBuffer());
+    }
+
+    /**
+     * 丢弃被淘汰页面中早于 lsn 的镜像LSN，这些页面再次修改时无论如何都要重新记录镜像
+     * @param lsn
+     */
+    public void forgetImagesBefore(long lsn) {
+        imageLsns.values().removeIf(imageLsn -> imageLsn < lsn);
+    }
+
+    /**
+     * 页面被写回外部时调用（引用计数归零、被淘汰或关闭缓存），若页面被标记为脏页，则写回文件系统
+     * 只写入文件，不强制刷盘，数据页的持久性由日志保证
+     * @param page
+     */
+    @Override
+    protected void releaseByObj(Page page) {
+        writeIfDirty(page);
     }
 
     /**
-     * 创建一个页面并写回文件系统
+     * 创建一个页面并写入文件，不强制刷盘
+     * 页面从预先扩展的区段中分配，区段用尽时才扩展文件，批量创建页面时不必每页扩展一次文件。
+     * 已分配的页数只在关闭时写入第一页，崩溃后恢复时会按日志中出现的最大页号裁剪文件，并重做页面中的插入
+     * 页面写入文件后才公开新的页数，预读按 getPageNumber 读取时不会读到尚未写入的全0页面
      * @param initData
      * @return
      */
     public int newPage(byte[] initData) {
-        int pageNumber = pageNumbers.incrementAndGet();
-        Page page = new PageImpl(pageNumber, initData, null);
-        flush(page);
-        return pageNumber;
+        newPageLock.lock();
+        try {
+            int pageNumber = pageNumbers.get() + 1;
+            ensureFilePages(pageNumber);
+            Page page = new PageImpl(pageNumber, ByteBuffer.wrap(initData), null);
+            write(page);
+            pageNumbers.set(pageNumber);
+            return pageNumber;
+        } finally {
+            newPageLock.unlock();
+        }
+    }
+
+    /**
+     * 确保文件能容纳 pageNumber 页，不能时写入全0的区段扩展文件
+     * 全0的页面没有校验和，读取时不做校验
+     * @param pageNumber
+     */
+    private void ensureFilePages(int pageNumber) {
+        if(pageNumber <= filePages) {
+            return;
+        }
+        extendLock.lock();
+        try {
+            if(pageNumber <= filePages) {
+                return;
+            }
+            int target = Math.max(pageNumber, filePages + extentPages);
+            long position = pageOffset(filePages + 1);
+            long end = pageOffset(target + 1);
+            ByteBuffer zeros = ByteBuffer.allocate((int)Math.min(end - position, PageConstant.EXTENT_SIZE));
+            while(position < end) {
+                zeros.clear();
+                zeros.limit((int)Math.min(zeros.capacity(), end - position));
+                while(zeros.hasRemaining()) {
+                    position += fc.write(zeros, position);
+                }
+            }
+            filePages = target;
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            extendLock.unlock();
+        }
+    }
+
+    /**
+     * 用 initData 覆盖文件中的一个页面，该页面不能在缓存中
+     * 仅供恢复时以日志中的镜像覆盖页面，以及重置校验和错误的第一页和表页使用
+     * @param pageNumber
+     * @param initData
+     */
+    public void resetPage(int pageNumber, byte[] initData) {
+        write(new PageImpl(pageNumber, ByteBuffer.wrap(initData), null));
     }
 
     /**
      * 根据页面编号从缓存中获取页面
+     * 与 getPageAsync 使用同一套缓存逻辑，页面不在缓存中时直接在调用线程中读取，省去一次线程切换
      * @param pageNumber
      * @return
      * @throws Exception
      */
     public Page getPage(int pageNumber) throws Exception {
+        detectSequential(pageNumber);
         return getFromCache((long)pageNumber);
     }
 
+    /**
+     * 根据页面编号异步获取页面，页面不在缓存中时由IO线程读取，调用者可以同时发起多个读取
+     * 返回的页面同样需要调用 release 释放
+     * @param pageNumber
+     * @return
+     */
+    public CompletableFuture<Page> getPageAsync(int pageNumber) {
+        detectSequential(pageNumber);
+        return getFromCacheAsync((long)pageNumber, ioExecutor);
+    }
+
+    /**
+     * 预读提示：在IO线程中将从 pageNumber 开始的 count 个页面读入缓存，不阻塞调用者
+     * 已在缓存中的页面被跳过，页号连续的页面用一次读取完成。预读的页面不被引用，无需释放
+     * 预读到校验和错误的页面时放弃这一批，错误留给真正读取该页面的调用者
+     * @param pageNumber
+     * @param count
+     */
+    public void prefetch(int pageNumber, int count) {
+        int first = Math.max(pageNumber, 1);
+        int last = Math.min(pageNumber + Math.min(count, maxPrefetchPages) - 1, getPageNumber());
+        if(first > last) {
+            return;
+        }
+        long[] keys = new long[last - first + 1];
+        for (int i = 0; i < keys.length; i ++) {
+            keys[i] = first + i;
+        }
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    preload(keys, this::loadPages);
+                } catch (BadPageChecksumException ignored) {
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // 缓存正在关闭
+        }
+    }
+
+    /**
+     * 检测顺序访问，连续顺序访问达到阈值后，在访问接近已预读的末尾时预读后续页面
+     * 多个线程同时访问时检测结果只是近似的，只影响是否预读
+     * @param pageNumber
+     */
+    private void detectSequential(int pageNumber) {
+        if(readAheadPages <= 0) {
+            return;
+        }
+        if(lastAccessed.getAndSet(pageNumber) != pageNumber - 1) {
+            sequentialCount.set(0);
+            readAheadEnd.set(0);
+            return;
+        }
+        if(sequentialCount.incrementAndGet() < PageConstant.SEQUENTIAL_THRESHOLD) {
+            return;
+        }
+        int end = readAheadEnd.get();
+        // 未读到已预读部分的后一半时不再预读
+        if(pageNumber + readAheadPages / 2 < end) {
+            return;
+        }
+        int from = Math.max(pageNumber + 1, end + 1);
+        int to = pageNumber + readAheadPages;
+        if(from <= to && readAheadEnd.compareAndSet(end, to)) {
+            prefetch(from, to - from + 1);
+        }
+    }
+
+    /**
+     * 读取一批按页号递增的页面，页号连续的页面用一次分散读取完成
+     * 有页面校验和错误时归还已读取的全部页面数据，抛出 BadPageChecksumException
+     * @param keys
+     * @return
+     */
+    private List<Page> loadPages(long[] keys) {
+        List<Page> pages = new ArrayList<>(keys.length);
+        int start = 0;
+        for (int i = 1; i <= keys.length; i ++) {
+            if(i == keys.length || keys[i] != keys[i - 1] + 1) {
+                ByteBuffer[] frames = loadPageData((int)keys[start], i - start);
+                for (int j = 0; j < frames.length; j ++) {
+                    pages.add(wrap((int)keys[start + j], frames[j]));
+                }
+                for (ByteBuffer frame : frames) {
+                    if(!PageChecksum.verify(frame)) {
+                        for (Page page : pages) {
+                            releasePageData(page.getPageBuffer());
+                        }
+                        throw new BadPageChecksumException(MessageConstant.BAD_PAGE_CHECKSUM);
+                    }
+                }
+                start = i;
+            }
+        }
+        return pages;
+    }
+
     /**
      * 减少对页面的一个引用
      * @param page
@@ -106,12 +395,25 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache{
     }
 
     /**
-     * 关闭缓存
+     * 获取页面当前的引用个数
+     * 调用者引用了页面且返回1时，没有其他线程正在使用该页面的数据
+     * @param page
+     * @return
+     */
+    public int getReferences(Page page) {
+        return getReferences((long)page.getPageNumber());
+    }
+
+    /**
+     * 关闭缓存，写回全部脏页后刷盘
      * @param page
      */
     @Override
     public void closeCache(Page page) {
+        stopFlusher();
+        stopIoExecutor();
         super.closeCache();
+        force();
         try {
             fc.close();
             raf.close();
@@ -121,27 +423,286 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache{
     }
 
     /**
-     * 将文件写回文件系统
+     * 将页面写回文件系统并刷盘
      * @param page
      */
     public void flushPage(Page page) {
         flush(page);
     }
 
+    /**
+     * 分批写回所有未被引用的脏页，全部写完后只刷盘一次
+     * 修改页面的线程在释放页面前等待其日志刷盘，只写回未被引用的页面，写回不会早于其日志持久化
+     */
+    void flushUnreferenced() {
+        writeBackUnreferenced(Page::isDirty, PageConstant.FLUSH_BATCH_PAGES, pages -> writeDirtyBatch(pages, true));
+        force();
+    }
+
+    /**
+     * 分批写回所有脏页，包括正被引用的页面，全部写完后只刷盘一次
+     * 写回的是页面的拷贝。被引用的页面可能已标记为脏页而尚未修改完，写回后不清除脏页标志，之后由写回线程或淘汰再次写回
+     */
+    public void flushAll() {
+        writeBack(Page::isDirty, PageConstant.FLUSH_BATCH_PAGES, pages -> writeDirtyBatch(pages, false), true);
+        force();
+    }
+
+    /**
+     * 获取脏页表：缓存中每个有未写回修改的页面及恢复它需要的最早日志LSN，即 recLsn 与最后一个镜像中较早的一个
+     * 返回前将已写回的页面刷盘，不在表中的页面，其所有修改都已持久化。
+     * 逐个锁定页面对象读取，记录日志时也锁定页面对象，读取前开始的修改已登记LSN，不阻塞页面的读取
+     * @return
+     */
+    public Map<Integer, Long> getDirtyPages() {
+        Map<Integer, Long> dirtyPages = new HashMap<>();
+        forEachCached(page -> {
+            long redoLsn;
+            synchronized (page) {
+                redoLsn = page.getRedoLsn();
+            }
+            if(redoLsn >= 0) {
+                dirtyPages.put(page.getPageNumber(), redoLsn);
+            }
+        });
+        force();
+        return dirtyPages;
+    }
+
+    /**
+     * 按页号排序一批脏页，页号连续的脏页合并为一次写入
+     * @param pages
+     * @param clean 写入前是否清除脏页标志
+     */
+    private void writeDirtyBatch(List<Page> pages, boolean clean) {
+        pages.sort(Comparator.comparingInt(Page::getPageNumber));
+        int start = 0;
+        for (int i = 1; i <= pages.size(); i ++) {
+            if(i == pages.size() || pages.get(i).getPageNumber() != pages.get(i - 1).getPageNumber() + 1) {
+                List<Page> run = pages.subList(start, i);
+                ByteBuffer[] snapshots = new ByteBuffer[run.size()];
+                for (int j = 0; j < snapshots.length; j ++) {
+                    if(clean) {
+                        run.get(j).setPageDirty(false);
+                    }
+                    snapshots[j] = snapshot(run.get(j));
+                }
+                writePages(pageOffset(run.get(0).getPageNumber()), snapshots);
+                for (int j = 0; j < snapshots.length; j ++) {
+                    framePool.release(snapshots[j]);
+                    if(clean) {
+                        run.get(j).writeBackDone();
+                    }
+                }
+                start = i;
+            }
+        }
+    }
+
+    /**
+     * 脏页写回文件，写入前先清除脏页标志，写入期间再次被修改的页面会保持为脏页
+     * @param page
+     */
+    private void writeIfDirty(Page page) {
+        if(page.isDirty()) {
+            page.setPageDirty(false);
+            write(page);
+            page.writeBackDone();
+        }
+    }
+
     private void flush(Page page) {
-        int pageNumber = page.getPageNumber();
-        long offset = pageOffset(pageNumber);
+        write(page);
+        force();
+    }
+
+    private void write(Page page) {
+        ByteBuffer snapshot = snapshot(page);
+        writePage(pageOffset(page.getPageNumber()), snapshot);
+        framePool.release(snapshot);
+    }
 
-        fileLock.lock();
+    /**
+     * 将页面数据拷贝到一个空闲帧中并计算校验和，写回文件的是这份拷贝
+     * 写入期间页面被修改也不会使写入文件的数据与校验和不一致
+     * @param page
+     * @return
+     */
+    private ByteBuffer snapshot(Page page) {
+        ByteBuffer snapshot = framePool.acquire();
+        snapshot.put(0, page.getPageBuffer(), 0, pageSize);
+        PageChecksum.set(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 将页号连续的若干页数据用一次聚集写入写回文件的 offset 处
+     * FileChannel 没有指定位置的聚集写入，需要设置通道位置，由 positionLock 保护
+     * @param offset
+     * @param frames
+     */
+    protected void writePages(long offset, ByteBuffer[] frames) {
+        ByteBuffer[] buffers = new ByteBuffer[frames.length];
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; i ++) {
+            buffers[i] = frames[i].duplicate();
+            remaining += buffers[i].remaining();
+        }
+        positionLock.lock();
         try {
-            ByteBuffer buffer = ByteBuffer.wrap(page.getPageData());
             fc.position(offset);
-            fc.write(buffer);
-            fc.force(false);
+            while(remaining > 0) {
+                remaining -= fc.write(buffers);
+            }
         } catch(IOException e) {
             Panic.panic(e);
         } finally {
-            fileLock.unlock();
+            positionLock.unlock();
+        }
+    }
+
+    /**
+     * 从文件的 offset 处读取一页数据到 data 中，不修改FileChannel和 data 的位置
+     * data 可能是复用的帧，读到文件末尾时剩余部分须清零
+     * @param offset
+     * @param data
+     */
+    protected void readPage(long offset, ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate();
+        try {
+            // 一次读取可能不足一页
+            while(buffer.hasRemaining()) {
+                if(fc.read(buffer, offset + buffer.position()) < 0) {
+                    fillZero(buffer);
+                    break;
+                }
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 从文件的 offset 处用一次分散读取读入连续的若干页，读到文件末尾时剩余部分清零
+     * @param offset
+     * @param frames
+     */
+    protected void readPages(long offset, ByteBuffer[] frames) {
+        ByteBuffer[] buffers = new ByteBuffer[frames.length];
+        for (int i = 0; i < frames.length; i ++) {
+            buffers[i] = frames[i].duplicate();
+        }
+        positionLock.lock();
+        try {
+            fc.position(offset);
+            long remaining = (long)frames.length * pageSize;
+            while(remaining > 0) {
+                long n = fc.read(buffers);
+                if(n < 0) {
+                    break;
+                }
+                remaining -= n;
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            positionLock.unlock();
+        }
+        for (ByteBuffer buffer : buffers) {
+            fillZero(buffer);
+        }
+    }
+
+    /**
+     * 将缓冲区的剩余部分清零
+     * @param buffer
+     */
+    private static void fillZero(ByteBuffer buffer) {
+        while(buffer.hasRemaining()) {
+            buffer.put((byte)0);
+        }
+    }
+
+    /**
+     * 将一页数据写入文件的 offset 处，不修改FileChannel的位置
+     * 同一页面的读写由缓存保证不会同时进行，不同页面之间不需要加锁
+     * @param offset
+     * @param data
+     */
+    protected void writePage(long offset, ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate();
+        try {
+            while(buffer.hasRemaining()) {
+                fc.write(buffer, offset + buffer.position());
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    protected void force() {
+        try {
+            fc.force(false);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 启动后台写回线程，每隔一段时间将未被引用的脏页写回
+     * @param intervalMillis
+     */
+    private void startFlusher(long intervalMillis) {
+        flusherStop = new CountDownLatch(1);
+        flusher = new Thread(() -> {
+            try {
+                while(!flusherStop.await(intervalMillis, TimeUnit.MILLISECONDS)) {
+                    flushUnreferenced();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "page-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void stopFlusher() {
+        if(flusher == null) {
+            return;
+        }
+        flusherStop.countDown();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 创建异步读取页面的线程池，线程为守护线程
+     * @param threads
+     * @return
+     */
+    private static ExecutorService newIoExecutor(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "page-io-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 等待已提交的读取完成后关闭线程池，同样不能中断正在读写的线程
+     */
+    private void stopIoExecutor() {
+        ioExecutor.shutdown();
+        try {
+            while(!ioExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // 继续等待
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -151,10 +712,14 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache{
      */
     public void truncateByPgNumber(int maxPageNumber) {
         long size = pageOffset(maxPageNumber + 1);
+        extendLock.lock();
         try {
             raf.setLength(size);
+            filePages = maxPageNumber;
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            extendLock.unlock();
         }
         pageNumbers.set(maxPageNumber);
     }
@@ -166,11 +731,15 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache{
         return pageNumbers.intValue();
     }
 
+    public int getPageSize() {
+        return pageSize;
+    }
+
     /**
      * 通过页面编号计算页面偏移量
      * @param pageNumber
      */
-    private static long pageOffset(int pageNumber) {
-        return (long) (pageNumber - 1) * PageConstant.PAGE_SIZE;
+    long pageOffset(int pageNumber) {
+        return (long) (pageNumber - 1) * pageSize;
     }
 }
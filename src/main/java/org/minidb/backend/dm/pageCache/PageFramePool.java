@@ -0,0 +1,77 @@
+package org.minidb.backend.dm.pageCache;
+
+import org.minidb.common.constant.PageConstant;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 页面帧池
+ * 缓存中的页面数据使用固定大小的帧，帧是堆外的直接缓冲区，页面被淘汰后帧归还池中，供下一个读入的页面复用。
+ * 帧从整块分配的堆外区域中切分，区域按 FRAME_SLAB_SIZE 分块，在空闲帧用尽时才分配下一块，之后长期存活。
+ * 页面数据不在堆上，缓存再大也不增加GC扫描和复制的负担；读写文件时直接使用帧，不经过临时直接缓冲区。
+ * 区域在池不再被引用后由GC释放
+ */
+class PageFramePool {
+    private final int frameSize;
+    // 每块区域切分出的帧数
+    private final int slabFrames;
+    private final ConcurrentLinkedQueue<ByteBuffer> freeFrames = new ConcurrentLinkedQueue<>();
+    // 分配新区域时互斥，避免并发时多分配
+    private final Lock slabLock = new ReentrantLock();
+
+    /**
+     * @param frameSize
+     * @param capacity 缓存的页数，区域每块最多容纳这么多帧
+     */
+    PageFramePool(int frameSize, int capacity) {
+        this.frameSize = frameSize;
+        this.slabFrames = (int)Math.max(Math.min(capacity, PageConstant.FRAME_SLAB_SIZE / frameSize), 1);
+    }
+
+    /**
+     * 取出一个空闲帧，没有空闲帧时分配一块新区域。帧中可能残留之前页面的数据
+     * @return
+     */
+    ByteBuffer acquire() {
+        ByteBuffer frame = freeFrames.poll();
+        if(frame != null) {
+            return frame;
+        }
+        slabLock.lock();
+        try {
+            frame = freeFrames.poll();
+            if(frame == null) {
+                frame = allocateSlab();
+            }
+            return frame;
+        } finally {
+            slabLock.unlock();
+        }
+    }
+
+    /**
+     * 归还帧，调用后不能再访问该帧
+     * @param frame
+     */
+    void release(ByteBuffer frame) {
+        if(!frame.isDirect() || frame.capacity() != frameSize) {
+            return;
+        }
+        freeFrames.offer(frame);
+    }
+
+    /**
+     * 分配一块区域并切分为帧，返回第一个帧，其余放入空闲帧
+     * @return
+     */
+    private ByteBuffer allocateSlab() {
+        ByteBuffer slab = ByteBuffer.allocateDirect(slabFrames * frameSize);
+        for (int i = 1; i < slabFrames; i ++) {
+            freeFrames.offer(slab.slice(i * frameSize, frameSize));
+        }
+        return slab.slice(0, frameSize);
+    }
+}
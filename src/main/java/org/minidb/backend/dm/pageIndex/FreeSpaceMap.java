@@ -0,0 +1,165 @@
+package org.minidb.backend.dm.pageIndex;
+
+import org.minidb.backend.dm.page.Page;
+import org.minidb.backend.dm.page.PageFreeSpaceMap;
+import org.minidb.backend.dm.page.PageOthers;
+import org.minidb.backend.dm.pageCache.PageCache;
+import org.minidb.backend.utils.Panic;
+import org.minidb.common.constant.PageConstant;
+import org.minidb.common.exception.BadPageChecksumException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 空闲空间表，持久化每个普通页的空闲空间，打开数据库时不必读取所有页面来填充pageIndex
+ * 第2页是第一张表页，之后每隔 entryCount 个普通页放置一张表页：
+ * [第一页] [表页0] [普通页] ... [普通页] [表页1] [普通页] ...
+ * 打开数据库时不读取表页，pageIndex 中找不到合适的页面时才逐张加载表页中的普通页。
+ * 表页的修改不记录日志，正常关闭时与其他脏页一同写回；崩溃恢复后根据普通页重建整张表
+ */
+public class FreeSpaceMap {
+    private PageCache pageCache;
+    private int entryCount;
+    // 打开数据库时的页数，只有这些页面需要从表页加载，之后新建的页面直接加入pageIndex
+    private volatile int loadLimit;
+    // 下一张待加载的表页的序号
+    private AtomicInteger nextToLoad;
+
+    public FreeSpaceMap(PageCache pageCache) {
+        this.pageCache = pageCache;
+        this.entryCount = PageFreeSpaceMap.getEntryCount(pageCache.getPageSize());
+        this.loadLimit = pageCache.getPageNumber();
+        this.nextToLoad = new AtomicInteger(0);
+    }
+
+    /**
+     * 判断该页号的页面是否为表页
+     * @param pageNumber
+     * @return
+     */
+    public boolean isMapPage(int pageNumber) {
+        return pageNumber >= 2 && (pageNumber - 2) % (entryCount + 1) == 0;
+    }
+
+    /**
+     * 第 k 张表页的页号
+     * @param k
+     * @return
+     */
+    private int mapPageNumber(int k) {
+        return 2 + k * (entryCount + 1);
+    }
+
+    /**
+     * 记录普通页的空闲空间
+     * @param pageNumber
+     * @param freeSpace
+     */
+    public void set(int pageNumber, int freeSpace) {
+        int k = (pageNumber - 2) / (entryCount + 1);
+        int index = pageNumber - mapPageNumber(k) - 1;
+        Page pg = null;
+        try {
+            pg = pageCache.getPage(mapPageNumber(k));
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        try {
+            PageFreeSpaceMap.setFreeSpace(pg, index, freeSpace);
+        } finally {
+            pg.releasePage();
+        }
+    }
+
+    /**
+     * 加载下一张尚未加载的表页，将其中的普通页加入pageIndex
+     * 空闲空间为0的页面也会加入，之后释放其中的数据项时才能更新其空闲空间
+     * @param pageIndex
+     * @return 所有表页都已加载时返回false
+     */
+    public boolean loadNext(PageIndex pageIndex) {
+        int mapPageNumber = mapPageNumber(nextToLoad.getAndIncrement());
+        int limit = loadLimit;
+        if(mapPageNumber > limit) {
+            return false;
+        }
+        Page pg = null;
+        try {
+            pg = pageCache.getPage(mapPageNumber);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        try {
+            for (int i = 0; i < entryCount && mapPageNumber + 1 + i <= limit; i ++) {
+                pageIndex.add(mapPageNumber + 1 + i, PageFreeSpaceMap.getFreeSpace(pg, i));
+            }
+        } finally {
+            pg.releasePage();
+        }
+        return true;
+    }
+
+    /**
+     * 崩溃恢复后重建空闲空间表：读取所有普通页，将其空闲空间写入表页并加入pageIndex
+     * 按页号顺序读取，每读到一个预读窗口的开头，就提示页面缓存预读下一个窗口，读取与磁盘IO重叠。
+     * 重建后不再需要从表页加载
+     * @param pageIndex
+     */
+    public void rebuild(PageIndex pageIndex) {
+        int pageNumber = pageCache.getPageNumber();
+        Page mapPage = null;
+        int mapPageNumber = 0;
+        int window = PageConstant.READ_AHEAD_PAGES;
+        pageCache.prefetch(2, window);
+        for (int i = 2; i <= pageNumber; i ++) {
+            if((i - 2) % window == 0) {
+                pageCache.prefetch(i + window, window);
+            }
+            if(isMapPage(i)) {
+                if(mapPage != null) {
+                    mapPage.releasePage();
+                }
+                mapPage = getMapPage(i);
+                mapPageNumber = i;
+                continue;
+            }
+            Page pg = null;
+            try {
+                pg = pageCache.getPage(i);
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+            int freeSpace = PageOthers.getFreeSpace(pg);
+            pg.releasePage();
+            PageFreeSpaceMap.setFreeSpace(mapPage, i - mapPageNumber - 1, freeSpace);
+            pageIndex.add(i, freeSpace);
+        }
+        if(mapPage != null) {
+            mapPage.releasePage();
+        }
+        loadLimit = 0;
+    }
+
+    /**
+     * 获取表页，校验和错误的表页直接重置。
+     * 表页只是普通页空闲空间的副本，不记录日志也没有镜像，重建时根据普通页重新写入，重置不会丢失数据
+     * @param pageNumber
+     * @return
+     */
+    private Page getMapPage(int pageNumber) {
+        Page pg = null;
+        try {
+            pg = pageCache.getPage(pageNumber);
+        } catch (BadPageChecksumException e) {
+            pageCache.resetPage(pageNumber, PageFreeSpaceMap.initRaw(pageCache.getPageSize()));
+            try {
+                pg = pageCache.getPage(pageNumber);
+            } catch (Exception e1) {
+                Panic.panic(e1);
+            }
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return pg;
+    }
+}
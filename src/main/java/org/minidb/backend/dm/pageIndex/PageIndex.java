@@ -4,58 +4,122 @@ import org.minidb.common.constant.PageConstant;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+/**
+ * 按空闲空间分区间索引页面
+ * 每个区间是一个无锁队列，并发插入的线程从各自取出的队列头部竞争，不再争用同一把锁。
+ * indexed 记录每个页面当前有效的 PageInfo，页面被取出或更新后，队列中旧的 PageInfo 失效，取出时跳过。
+ * 失效的 PageInfo 不从队列中逐个删除（需要扫描队列），区间中失效的个数超过索引中的页数时才整体清除一次
+ */
 public class PageIndex {
 
-    private Lock lock;
-    private List<PageInfo>[] lists;
+    private List<ConcurrentLinkedQueue<PageInfo>> lists;
+    // 各区间队列中失效的 PageInfo 的大致个数
+    private AtomicIntegerArray stale;
+    // 页面号到索引中有效的 PageInfo，不在其中的页面已被取出
+    private ConcurrentHashMap<Integer, PageInfo> indexed;
+    // 每个区间的大小，由页面大小决定
+    private int intervalSize;
 
-    @SuppressWarnings("unchecked")
-    public void PageIndex() {
-        lock = new ReentrantLock();
-        this.lists = new List[PageConstant.INTERVALS_NUMBER + 1];
+    public PageIndex(int pageSize) {
+        this.intervalSize = pageSize / PageConstant.INTERVALS_NUMBER;
+        this.indexed = new ConcurrentHashMap<>();
+        this.lists = new ArrayList<>(PageConstant.INTERVALS_NUMBER + 1);
         for (int i = 0; i < PageConstant.INTERVALS_NUMBER + 1; i ++) {
-            lists[i] = new ArrayList<>();
+            lists.add(new ConcurrentLinkedQueue<>());
         }
+        this.stale = new AtomicIntegerArray(PageConstant.INTERVALS_NUMBER + 1);
     }
 
     /**
-     *
+     * 将页面加入索引，页面已在索引中时旧的 PageInfo 失效
      * @param pageNumber
      * @param freeSpace
      */
     public void add(int pageNumber, int freeSpace) {
-        lock.lock();
-        try {
-            int number = freeSpace / PageConstant.INTERVAL_SIZE;
-            lists[number].add(new PageInfo(pageNumber, freeSpace));
-        } finally {
-            lock.unlock();
+        PageInfo pi = new PageInfo(pageNumber, freeSpace);
+        PageInfo old = indexed.put(pageNumber, pi);
+        lists.get(bucket(freeSpace)).offer(pi);
+        if(old != null) {
+            invalidate(old);
         }
     }
 
     /**
-     *
+     * 更新索引中页面的空闲空间，调用者须持有页面锁，freeSpace 在同一次加锁中读取
+     * 页面不在索引中时（正被插入数据的线程取出，插入后会按最新的空闲空间重新加入）不做处理。
+     * 只替换开始时读到的 PageInfo：替换失败说明页面在此期间被取出，不再用 freeSpace 覆盖之后重新加入的 PageInfo。
+     * 插入线程在页面锁内、本次修改之后读取空闲空间，比 freeSpace 新；被 select 跳过而放回的页面至多少记本次释放的空间，
+     * 索引中的空闲空间只会偏小，不会使插入线程取出空间不足的页面
+     * @param pageNumber
+     * @param freeSpace
+     */
+    public void update(int pageNumber, int freeSpace) {
+        PageInfo old = indexed.get(pageNumber);
+        if(old == null) {
+            return;
+        }
+        PageInfo pi = new PageInfo(pageNumber, freeSpace);
+        if(indexed.replace(pageNumber, old, pi)) {
+            lists.get(bucket(freeSpace)).offer(pi);
+            invalidate(old);
+        }
+    }
+
+    /**
+     * 取出一个空闲空间足够的页面，页面在重新加入前不会被其他线程取出
      * @param spaceSize
      * @return
      */
     public PageInfo select(int spaceSize) {
-        lock.lock();
+        int number = spaceSize / intervalSize;
+        if(number < PageConstant.INTERVALS_NUMBER) number ++;
+        List<PageInfo> skipped = new ArrayList<>();
         try {
-            int number = spaceSize / PageConstant.INTERVAL_SIZE;
-            if(number < PageConstant.INTERVALS_NUMBER) number ++;
             while(number <= PageConstant.INTERVALS_NUMBER) {
-                if(lists[number].isEmpty()) {
+                PageInfo pi = lists.get(number).poll();
+                if(pi == null) {
                     number ++;
                     continue;
                 }
-                return lists[number].removeFirst();
+                // 失效的 PageInfo 直接丢弃
+                if(!indexed.remove(pi.pageNumber, pi)) {
+                    stale.decrementAndGet(number);
+                    continue;
+                }
+                // spaceSize 落在最后一个区间时，区间中页面的空闲空间可能仍小于 spaceSize
+                if(pi.freeSpace < spaceSize) {
+                    skipped.add(pi);
+                    continue;
+                }
+                return pi;
             }
             return null;
         } finally {
-            lock.unlock();
+            for (PageInfo pi : skipped) {
+                add(pi.pageNumber, pi.freeSpace);
+            }
         }
     }
+
+    /**
+     * 记录一个失效的 PageInfo，其所在区间失效的个数超过索引中的页数时清除该区间中所有失效的 PageInfo，
+     * 清除的代价由之前的失效均摊
+     * @param old
+     */
+    private void invalidate(PageInfo old) {
+        int number = bucket(old.freeSpace);
+        if(stale.incrementAndGet(number) <= indexed.size()) {
+            return;
+        }
+        stale.set(number, 0);
+        lists.get(number).removeIf(pi -> indexed.get(pi.pageNumber) != pi);
+    }
+
+    private int bucket(int freeSpace) {
+        return Math.min(freeSpace / intervalSize, PageConstant.INTERVALS_NUMBER);
+    }
 }
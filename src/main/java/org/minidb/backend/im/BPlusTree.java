@@ -7,8 +7,9 @@ import org.minidb.backend.utils.Parser;
 import org.minidb.common.constant.TMConstant;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -39,7 +40,7 @@ public class BPlusTree {
         bootLock.lock();
         try {
             SubArray sa = bootDataItem.getData();
-            return Parser.parseLong(Arrays.copyOfRange(sa.data, sa.start, sa.start+8));
+            return sa.data.getLong(sa.start);
         } finally {
             bootLock.unlock();
         }
@@ -52,7 +53,7 @@ public class BPlusTree {
             long newRootUid = dm.insert(TMConstant.SUPER_XID, rootRaw);
             bootDataItem.writePrepare();
             SubArray diRaw = bootDataItem.getData();
-            System.arraycopy(Parser.long2Byte(newRootUid), 0, diRaw.data, diRaw.start, 8);
+            diRaw.data.putLong(diRaw.start, newRootUid);
             bootDataItem.writeAfter(TMConstant.SUPER_XID);
         } finally {
             bootLock.unlock();
@@ -86,24 +87,80 @@ public class BPlusTree {
         return searchRange(key, key);
     }
 
+    /**
+     * 范围查找，查找跨越多个叶子节点时，在查找当前叶子的同时异步读取其兄弟节点
+     * 两次读取叶子之间叶子可能被分裂，以查找结果中的兄弟节点为准，预读的节点不符时将其释放
+     * @param leftKey
+     * @param rightKey
+     * @return
+     * @throws Exception
+     */
     public List<Long> searchRange(long leftKey, long rightKey) throws Exception {
         long rootUid = rootUid();
         long leafUid = searchLeaf(rootUid, leftKey);
         List<Long> uids = new ArrayList<>();
+        Node leaf = Node.loadNode(this, leafUid);
         while(true) {
-            Node leaf = Node.loadNode(this, leafUid);
+            long siblingUid = leaf.rangeSiblingUid(rightKey);
+            CompletableFuture<Node> sibling = siblingUid == 0 ? null : Node.loadNodeAsync(this, siblingUid);
             Node.LeafSearchRangeRes res = leaf.leafSearchRange(leftKey, rightKey);
             leaf.release();
             uids.addAll(res.uids);
+            if(sibling != null && res.siblingUid != siblingUid) {
+                sibling.thenAccept(Node::release);
+                sibling = null;
+            }
             if(res.siblingUid == 0) {
                 break;
-            } else {
-                leafUid = res.siblingUid;
             }
+            leaf = sibling == null ? Node.loadNode(this, res.siblingUid) : await(sibling);
         }
         return uids;
     }
 
+    /**
+     * 最左边的叶子节点，即 key 最小的索引项所在的叶子
+     * 分裂只把节点的后半部分移到右侧新的兄弟节点，节点也不会被删除，最左边的叶子不会改变
+     * @return
+     * @throws Exception
+     */
+    public long firstLeaf() throws Exception {
+        return searchLeaf(rootUid(), Long.MIN_VALUE);
+    }
+
+    /**
+     * 将叶子节点中的全部uid加入 uids，返回其兄弟节点的uid，没有时返回0
+     * 从 firstLeaf 开始沿兄弟节点逐个扫描，扫描开始时已有的索引项都会被扫描到
+     * @param leafUid
+     * @param uids
+     * @return
+     * @throws Exception
+     */
+    public long scanLeaf(long leafUid, List<Long> uids) throws Exception {
+        Node leaf = Node.loadNode(this, leafUid);
+        Node.LeafSearchRangeRes res = leaf.leafSearchRange(Long.MIN_VALUE, Long.MAX_VALUE);
+        leaf.release();
+        uids.addAll(res.uids);
+        return res.siblingUid;
+    }
+
+    /**
+     * 等待异步读取的节点，读取失败时抛出原始异常
+     * @param future
+     * @return
+     * @throws Exception
+     */
+    private static Node await(CompletableFuture<Node> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            throw e;
+        }
+    }
+
     public void insert(long key, long uid) throws Exception {
         long rootUid = rootUid();
         InsertRes res = insert(rootUid, uid, key);
@@ -152,6 +209,26 @@ public class BPlusTree {
         }
     }
 
+    /**
+     * 删除 key 对应 uid 的索引项，不存在时什么也不做
+     * @param key
+     * @param uid
+     * @throws Exception
+     */
+    public void remove(long key, long uid) throws Exception {
+        long rootUid = rootUid();
+        long leafUid = searchLeaf(rootUid, key);
+        while(leafUid != 0) {
+            Node leaf = Node.loadNode(this, leafUid);
+            Node.LeafRemoveRes res = leaf.leafRemove(key, uid);
+            leaf.release();
+            if(res.removed) {
+                return;
+            }
+            leafUid = res.siblingUid;
+        }
+    }
+
     public void close() {
         bootDataItem.release();
     }
@@ -2,12 +2,11 @@ package org.minidb.backend.im;
 
 import org.minidb.backend.common.SubArray;
 import org.minidb.backend.dm.dataItem.DataItem;
-import org.minidb.backend.utils.Parser;
 import org.minidb.common.constant.TMConstant;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 二叉树由一个个 Node 组成，每个 Node 都存储在一条 DataItem 中
@@ -35,67 +34,85 @@ public class Node {
 
     static void setRawIsLeaf(SubArray raw, boolean isLeaf) {
         if(isLeaf) {
-            raw.data[raw.start + IS_LEAF_OFFSET] = (byte)1;
+            raw.data.put(raw.start + IS_LEAF_OFFSET, (byte)1);
         } else {
-            raw.data[raw.start + IS_LEAF_OFFSET] = (byte)0;
+            raw.data.put(raw.start + IS_LEAF_OFFSET, (byte)0);
         }
     }
 
     static boolean getRawIfLeaf(SubArray raw) {
-        return raw.data[raw.start + IS_LEAF_OFFSET] == (byte)1;
+        return raw.data.get(raw.start + IS_LEAF_OFFSET) == (byte)1;
     }
 
     static void setRawNoKeys(SubArray raw, int noKeys) {
-        System.arraycopy(Parser.short2Byte((short)noKeys), 0, raw.data, raw.start+NO_KEYS_OFFSET, 2);
+        raw.data.putShort(raw.start+NO_KEYS_OFFSET, (short)noKeys);
     }
 
     static int getRawNoKeys(SubArray raw) {
-        return (int)Parser.parseShort(Arrays.copyOfRange(raw.data, raw.start+NO_KEYS_OFFSET, raw.start+NO_KEYS_OFFSET+2));
+        return (int)raw.data.getShort(raw.start+NO_KEYS_OFFSET);
     }
 
     static void setRawSibling(SubArray raw, long sibling) {
-        System.arraycopy(Parser.long2Byte(sibling), 0, raw.data, raw.start+SIBLING_OFFSET, 8);
+        raw.data.putLong(raw.start+SIBLING_OFFSET, sibling);
     }
 
     static long getRawSibling(SubArray raw) {
-        return Parser.parseLong(Arrays.copyOfRange(raw.data, raw.start+SIBLING_OFFSET, raw.start+SIBLING_OFFSET+8));
+        return raw.data.getLong(raw.start+SIBLING_OFFSET);
     }
 
     static void setRawKthSon(SubArray raw, long uid, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        System.arraycopy(Parser.long2Byte(uid), 0, raw.data, offset, 8);
+        raw.data.putLong(offset, uid);
     }
 
     static long getRawKthSon(SubArray raw, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        return Parser.parseLong(Arrays.copyOfRange(raw.data, offset, offset+8));
+        return raw.data.getLong(offset);
     }
 
     static void setRawKthKey(SubArray raw, long key, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        System.arraycopy(Parser.long2Byte(key), 0, raw.data, offset, 8);
+        raw.data.putLong(offset, key);
     }
 
     static long getRawKthKey(SubArray raw, int kth) {
         int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        return Parser.parseLong(Arrays.copyOfRange(raw.data, offset, offset+8));
+        return raw.data.getLong(offset);
     }
 
     static void copyRawFromKth(SubArray from, SubArray to, int kth) {
         int offset = from.start+NODE_HEADER_SIZE+kth*(8*2);
-        System.arraycopy(from.data, offset, to.data, to.start+NODE_HEADER_SIZE, from.end-offset);
+        to.data.put(to.start+NODE_HEADER_SIZE, from.data, offset, from.end-offset);
     }
 
     static void shiftRawKth(SubArray raw, int kth) {
         int begin = raw.start+NODE_HEADER_SIZE+(kth+1)*(8*2);
-        int end = raw.start+NODE_SIZE-1;
-        for(int i = end; i >= begin; i --) {
-            raw.data[i] = raw.data[i-(8*2)];
-        }
+        int end = raw.start+NODE_SIZE;
+        moveRaw(raw, begin-(8*2), begin, end-begin);
+    }
+
+    static void unshiftRawKth(SubArray raw, int kth) {
+        int begin = raw.start+NODE_HEADER_SIZE+(kth+1)*(8*2);
+        int end = raw.start+NODE_SIZE;
+        moveRaw(raw, begin, begin-(8*2), end-begin);
+    }
+
+    /**
+     * 在节点内移动一段数据，源与目标可以重叠
+     * @param raw
+     * @param from
+     * @param to
+     * @param length
+     */
+    private static void moveRaw(SubArray raw, int from, int to, int length) {
+        byte[] moved = new byte[length];
+        raw.data.get(from, moved);
+        raw.data.put(to, moved);
     }
 
     static byte[] newRootRaw(long left, long right, long key)  {
-        SubArray raw = new SubArray(NODE_SIZE, 0,new byte[NODE_SIZE]);
+        byte[] data = new byte[NODE_SIZE];
+        SubArray raw = new SubArray(0, NODE_SIZE, data);
 
         setRawIsLeaf(raw, false);
         setRawNoKeys(raw, 2);
@@ -105,21 +122,35 @@ public class Node {
         setRawKthSon(raw, right, 1);
         setRawKthKey(raw, Long.MAX_VALUE, 1);
 
-        return raw.data;
+        return data;
     }
 
     static byte[] newNilRootRaw()  {
-        SubArray raw = new SubArray(NODE_SIZE, 0,new byte[NODE_SIZE]);
+        byte[] data = new byte[NODE_SIZE];
+        SubArray raw = new SubArray(0, NODE_SIZE, data);
 
         setRawIsLeaf(raw, true);
         setRawNoKeys(raw, 0);
         setRawSibling(raw, 0);
 
-        return raw.data;
+        return data;
     }
 
     static Node loadNode(BPlusTree bTree, long uid) throws Exception {
-        DataItem di = bTree.dm.read(uid);
+        return newNode(bTree, bTree.dm.read(uid), uid);
+    }
+
+    /**
+     * 异步读取节点，节点所在的页面由页面缓存的IO线程读取
+     * @param bTree
+     * @param uid
+     * @return
+     */
+    static CompletableFuture<Node> loadNodeAsync(BPlusTree bTree, long uid) {
+        return bTree.dm.readAsync(uid).thenApply(di -> newNode(bTree, di, uid));
+    }
+
+    private static Node newNode(BPlusTree bTree, DataItem di, long uid) {
         assert di != null;
         Node n = new Node();
         n.tree = bTree;
@@ -174,6 +205,25 @@ public class Node {
         long siblingUid;
     }
 
+    /**
+     * 范围查找会继续到兄弟节点时返回兄弟节点的uid，否则返回0
+     * 节点中最后一个key不大于 rightKey 时，leafSearchRange 会读完整个节点并返回兄弟节点
+     * @param rightKey
+     * @return
+     */
+    public long rangeSiblingUid(long rightKey) {
+        dataItem.rLock();
+        try {
+            int noKeys = getRawNoKeys(raw);
+            if(noKeys > 0 && getRawKthKey(raw, noKeys - 1) > rightKey) {
+                return 0;
+            }
+            return getRawSibling(raw);
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
     public LeafSearchRangeRes leafSearchRange(long leftKey, long rightKey) {
         dataItem.rLock();
         try {
@@ -209,6 +259,52 @@ public class Node {
         }
     }
 
+    static class LeafRemoveRes {
+        boolean removed;
+        long siblingUid;
+    }
+
+    /**
+     * 从叶子节点中删除 key 对应 uid 的索引项，之后的索引项前移，不做合并
+     * 遇到比 key 大的索引项即停止；扫描到节点末尾仍未找到时返回兄弟节点，由调用者继续查找
+     * @param key
+     * @param uid
+     * @return
+     * @throws Exception
+     */
+    public LeafRemoveRes leafRemove(long key, long uid) throws Exception {
+        LeafRemoveRes res = new LeafRemoveRes();
+        dataItem.writePrepare();
+        try {
+            int noKeys = getRawNoKeys(raw);
+            int kth = 0;
+            while(kth < noKeys) {
+                long ik = getRawKthKey(raw, kth);
+                if(ik > key) {
+                    return res;
+                }
+                if(ik == key && getRawKthSon(raw, kth) == uid) {
+                    break;
+                }
+                kth ++;
+            }
+            if(kth == noKeys) {
+                res.siblingUid = getRawSibling(raw);
+                return res;
+            }
+            unshiftRawKth(raw, kth);
+            setRawNoKeys(raw, noKeys-1);
+            res.removed = true;
+            return res;
+        } finally {
+            if(res.removed) {
+                dataItem.writeAfter(TMConstant.SUPER_XID);
+            } else {
+                dataItem.undoPrepare();
+            }
+        }
+    }
+
     static class InsertAndSplitRes {
         long siblingUid, newSon, newKey;
     }
@@ -285,12 +381,13 @@ public class Node {
     }
 
     private SplitRes split() throws Exception {
-        SubArray nodeRaw = new SubArray(NODE_SIZE, 0,new byte[NODE_SIZE]);
+        byte[] nodeData = new byte[NODE_SIZE];
+        SubArray nodeRaw = new SubArray(0, NODE_SIZE, nodeData);
         setRawIsLeaf(nodeRaw, getRawIfLeaf(raw));
         setRawNoKeys(nodeRaw, BALANCE_NUMBER);
         setRawSibling(nodeRaw, getRawSibling(raw));
         copyRawFromKth(raw, nodeRaw, BALANCE_NUMBER);
-        long son = tree.dm.insert(TMConstant.SUPER_XID, nodeRaw.data);
+        long son = tree.dm.insert(TMConstant.SUPER_XID, nodeData);
         setRawNoKeys(raw, BALANCE_NUMBER);
         setRawSibling(raw, son);
 
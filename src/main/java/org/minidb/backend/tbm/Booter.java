@@ -6,8 +6,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 
-import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.common.Error;
+import org.minidb.backend.utils.Panic;
+import org.minidb.common.constant.MessageConstant;
+import org.minidb.common.exception.FileCannotRWException;
+import org.minidb.common.exception.FileExistsException;
+import org.minidb.common.exception.FileNotExistException;
 
 // 记录第一个表的uid
 public class Booter {
@@ -22,13 +25,13 @@ public class Booter {
         File f = new File(path+BOOTER_SUFFIX);
         try {
             if(!f.createNewFile()) {
-                Panic.panic(Error.FileExistsException);
+                Panic.panic(new FileExistsException(MessageConstant.FILE_EXIST));
             }
         } catch (Exception e) {
             Panic.panic(e);
         }
         if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
+            Panic.panic(new FileCannotRWException(MessageConstant.FILE_CANNOT_RW));
         }
         return new Booter(path, f);
     }
@@ -37,10 +40,10 @@ public class Booter {
         removeBadTmp(path);
         File f = new File(path+BOOTER_SUFFIX);
         if(!f.exists()) {
-            Panic.panic(Error.FileNotExistsException);
+            Panic.panic(new FileNotExistException(MessageConstant.FILE_NOT_EXIST));
         }
         if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
+            Panic.panic(new FileCannotRWException(MessageConstant.FILE_CANNOT_RW));
         }
         return new Booter(path, f);
     }
@@ -72,7 +75,7 @@ public class Booter {
             Panic.panic(e);
         }
         if(!tmp.canRead() || !tmp.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
+            Panic.panic(new FileCannotRWException(MessageConstant.FILE_CANNOT_RW));
         }
         try(FileOutputStream out = new FileOutputStream(tmp)) {
             out.write(data);
@@ -87,7 +90,7 @@ public class Booter {
         }
         file = new File(path+BOOTER_SUFFIX);
         if(!file.canRead() || !file.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
+            Panic.panic(new FileCannotRWException(MessageConstant.FILE_CANNOT_RW));
         }
     }
 
@@ -1,17 +1,19 @@
 package org.minidb.backend.tbm;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
 import com.google.common.primitives.Bytes;
 
-import top.guoziyang.mydb.backend.im.BPlusTree;
-import top.guoziyang.mydb.backend.parser.statement.SingleExpression;
-import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
-import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.ParseStringRes;
-import top.guoziyang.mydb.backend.utils.Parser;
-import top.guoziyang.mydb.common.Error;
+import org.minidb.backend.im.BPlusTree;
+import org.minidb.backend.parser.statement.SingleExpression;
+import org.minidb.backend.utils.Panic;
+import org.minidb.backend.utils.ParseStringRes;
+import org.minidb.backend.utils.Parser;
+import org.minidb.common.constant.MessageConstant;
+import org.minidb.common.constant.TMConstant;
+import org.minidb.common.exception.InvalidFieldException;
 
 /**
  * field 表示字段信息
@@ -30,7 +32,7 @@ public class Field {
     public static Field loadField(Table tb, long uid) {
         byte[] raw = null;
         try {
-            raw = ((TableManagerImpl)tb.tbm).vm.read(TransactionManagerImpl.SUPER_XID, uid);
+            raw = ((TableManagerImpl)tb.tbm).vm.read(TMConstant.SUPER_XID, uid);
         } catch (Exception e) {
             Panic.panic(e);
         }
@@ -91,7 +93,7 @@ public class Field {
 
     private static void typeCheck(String fieldType) throws Exception {
         if(!"int32".equals(fieldType) && !"int64".equals(fieldType) && !"string".equals(fieldType)) {
-            throw Error.InvalidFieldException;
+            throw new InvalidFieldException(MessageConstant.INVALID_FIELD_TYPE);
         }
     }
 
@@ -104,10 +106,24 @@ public class Field {
         bt.insert(uKey, uid);
     }
 
+    public void remove(Object key, long uid) throws Exception {
+        long uKey = value2Uid(key);
+        bt.remove(uKey, uid);
+    }
+
     public List<Long> search(long left, long right) throws Exception {
         return bt.searchRange(left, right);
     }
 
+    // 按叶子节点扫描索引：第一个叶子，以及扫描一个叶子并返回下一个叶子
+    public long firstLeaf() throws Exception {
+        return bt.firstLeaf();
+    }
+
+    public long scanLeaf(long leafUid, List<Long> uids) throws Exception {
+        return bt.scanLeaf(leafUid, uids);
+    }
+
     public Object string2Value(String str) {
         switch(fieldType) {
             case "int32":
@@ -158,18 +174,28 @@ public class Field {
     }
 
     public ParseValueRes parserValue(byte[] raw) {
+        return parserValue(ByteBuffer.wrap(raw), 0);
+    }
+
+    /**
+     * 直接从 raw 的 offset 处解析字段值，不拷贝记录
+     * @param raw
+     * @param offset
+     * @return
+     */
+    public ParseValueRes parserValue(ByteBuffer raw, int offset) {
         ParseValueRes res = new ParseValueRes();
         switch(fieldType) {
             case "int32":
-                res.v = Parser.parseInt(Arrays.copyOf(raw, 4));
+                res.v = raw.getInt(offset);
                 res.shift = 4;
                 break;
             case "int64":
-                res.v = Parser.parseLong(Arrays.copyOf(raw, 8));
+                res.v = raw.getLong(offset);
                 res.shift = 8;
                 break;
             case "string":
-                ParseStringRes r = Parser.parseString(raw);
+                ParseStringRes r = Parser.parseString(raw, offset);
                 res.v = r.str;
                 res.shift = r.next;
                 break;
@@ -8,37 +8,48 @@ import java.util.Map;
 
 import com.google.common.primitives.Bytes;
 
-import top.guoziyang.mydb.backend.parser.statement.Create;
-import top.guoziyang.mydb.backend.parser.statement.Delete;
-import top.guoziyang.mydb.backend.parser.statement.Insert;
-import top.guoziyang.mydb.backend.parser.statement.Select;
-import top.guoziyang.mydb.backend.parser.statement.Update;
-import top.guoziyang.mydb.backend.parser.statement.Where;
-import top.guoziyang.mydb.backend.tbm.Field.ParseValueRes;
-import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
-import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.ParseStringRes;
-import top.guoziyang.mydb.backend.utils.Parser;
-import top.guoziyang.mydb.common.Error;
+import org.minidb.backend.parser.statement.Create;
+import org.minidb.backend.parser.statement.Delete;
+import org.minidb.backend.parser.statement.Insert;
+import org.minidb.backend.parser.statement.Select;
+import org.minidb.backend.parser.statement.Update;
+import org.minidb.backend.parser.statement.Where;
+import org.minidb.backend.tbm.Field.ParseValueRes;
+import org.minidb.backend.utils.Panic;
+import org.minidb.backend.utils.ParseStringRes;
+import org.minidb.backend.utils.Parser;
+import org.minidb.backend.common.SubArray;
+import org.minidb.backend.vm.EntryView;
+import org.minidb.backend.vm.VacuumSweep;
+import org.minidb.common.constant.MessageConstant;
+import org.minidb.common.constant.TMConstant;
+import org.minidb.common.exception.FieldNotFoundException;
+import org.minidb.common.exception.FieldNotIndexedException;
+import org.minidb.common.exception.InvalidLogOpException;
+import org.minidb.common.exception.InvalidValuesException;
 
 /**
  * Table 维护了表结构
  * 二进制结构如下：
  * [TableName][NextTable]
  * [Field1Uid][Field2Uid]...[FieldNUid]
+ * 表中的记录被清理前，Table 删除其在各索引中的索引项；重新打开数据库后，由后台清理线程逐批扫描第一个索引找出重启前的死版本
  */
-public class Table {
+public class Table implements VacuumSweep {
     TableManager tbm;
     long uid;
     String name;
     byte status;
     long nextUid;
     List<Field> fields = new ArrayList<>();
+    // 扫描重启前死版本的索引与下一个扫描的叶子，-1表示尚未开始，只由后台清理线程访问
+    private Field sweepField;
+    private long sweepLeaf = -1;
 
     public static Table loadTable(TableManager tbm, long uid) {
         byte[] raw = null;
         try {
-            raw = ((TableManagerImpl)tbm).vm.read(TransactionManagerImpl.SUPER_XID, uid);
+            raw = ((TableManagerImpl)tbm).vm.read(TMConstant.SUPER_XID, uid);
         } catch (Exception e) {
             Panic.panic(e);
         }
@@ -105,9 +116,10 @@ public class Table {
 
     public int delete(long xid, Delete delete) throws Exception {
         List<Long> uids = parseWhere(delete.where);
+        ((TableManagerImpl)tbm).vm.prefetch(uids);
         int count = 0;
         for (Long uid : uids) {
-            if(((TableManagerImpl)tbm).vm.delete(xid, uid)) {
+            if(((TableManagerImpl)tbm).vm.delete(xid, uid, this)) {
                 count ++;
             }
         }
@@ -116,6 +128,7 @@ public class Table {
 
     public int update(long xid, Update update) throws Exception {
         List<Long> uids = parseWhere(update.where);
+        ((TableManagerImpl)tbm).vm.prefetch(uids);
         Field fd = null;
         for (Field f : fields) {
             if(f.fieldName.equals(update.fieldName)) {
@@ -124,20 +137,25 @@ public class Table {
             }
         }
         if(fd == null) {
-            throw Error.FieldNotFoundException;
+            throw new FieldNotFoundException(MessageConstant.FIELD_NOT_FOUND);
         }
         Object value = fd.string2Value(update.value);
         int count = 0;
         for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
-            if(raw == null) continue;
+            EntryView view = ((TableManagerImpl)tbm).vm.readView(xid, uid);
+            if(view == null) continue;
+            Map<String, Object> entry;
+            try {
+                entry = parseEntry(view.getData());
+            } finally {
+                view.release();
+            }
 
-            ((TableManagerImpl)tbm).vm.delete(xid, uid);
+            ((TableManagerImpl)tbm).vm.delete(xid, uid, this);
 
-            Map<String, Object> entry = parseEntry(raw);
             entry.put(fd.fieldName, value);
-            raw = entry2Raw(entry);
-            long uuid = ((TableManagerImpl)tbm).vm.insert(xid, raw);
+            byte[] raw = entry2Raw(entry);
+            long uuid = ((TableManagerImpl)tbm).vm.insert(xid, raw, this);
 
             count ++;
 
@@ -152,12 +170,17 @@ public class Table {
 
     public String read(long xid, Select read) throws Exception {
         List<Long> uids = parseWhere(read.where);
+        ((TableManagerImpl)tbm).vm.prefetch(uids);
         StringBuilder sb = new StringBuilder();
         for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
-            if(raw == null) continue;
-            Map<String, Object> entry = parseEntry(raw);
-            sb.append(printEntry(entry)).append("\n");
+            EntryView view = ((TableManagerImpl)tbm).vm.readView(xid, uid);
+            if(view == null) continue;
+            try {
+                Map<String, Object> entry = parseEntry(view.getData());
+                sb.append(printEntry(entry)).append("\n");
+            } finally {
+                view.release();
+            }
         }
         return sb.toString();
     }
@@ -165,7 +188,7 @@ public class Table {
     public void insert(long xid, Insert insert) throws Exception {
         Map<String, Object> entry = string2Entry(insert.values);
         byte[] raw = entry2Raw(entry);
-        long uid = ((TableManagerImpl)tbm).vm.insert(xid, raw);
+        long uid = ((TableManagerImpl)tbm).vm.insert(xid, raw, this);
         for (Field field : fields) {
             if(field.isIndexed()) {
                 field.insert(entry.get(field.fieldName), uid);
@@ -173,9 +196,42 @@ public class Table {
         }
     }
 
+    /**
+     * 重新打开数据库后，登记由后台清理线程扫描表的第一个索引，将重启前成为死版本的记录登记为清理候选
+     * 打开时不扫描，扫描按叶子节点进行，覆盖全部 key，包括负数的 key
+     */
+    public void sweepDeadVersions() {
+        for (Field field : fields) {
+            if(field.isIndexed()) {
+                sweepField = field;
+                ((TableManagerImpl)tbm).vm.addSweep(this);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean nextSweepBatch(List<Long> uids) throws Exception {
+        if(sweepLeaf == -1) {
+            sweepLeaf = sweepField.firstLeaf();
+        }
+        sweepLeaf = sweepField.scanLeaf(sweepLeaf, uids);
+        return sweepLeaf != 0;
+    }
+
+    @Override
+    public void beforeVacuum(long uid, byte[] data) throws Exception {
+        Map<String, Object> entry = parseEntry(data);
+        for (Field field : fields) {
+            if(field.isIndexed()) {
+                field.remove(entry.get(field.fieldName), uid);
+            }
+        }
+    }
+
     private Map<String, Object> string2Entry(String[] values) throws Exception {
         if(values.length != fields.size()) {
-            throw Error.InvalidValuesException;
+            throw new InvalidValuesException(MessageConstant.INVALID_VALUES);
         }
         Map<String, Object> entry = new HashMap<>();
         for (int i = 0; i < fields.size(); i++) {
@@ -204,14 +260,14 @@ public class Table {
             for (Field field : fields) {
                 if(field.fieldName.equals(where.singleExp1.field)) {
                     if(!field.isIndexed()) {
-                        throw Error.FieldNotIndexedException;
+                        throw new FieldNotIndexedException(MessageConstant.FIELD_NOT_INDEXED);
                     }
                     fd = field;
                     break;
                 }
             }
             if(fd == null) {
-                throw Error.FieldNotFoundException;
+                throw new FieldNotFoundException(MessageConstant.FIELD_NOT_FOUND);
             }
             CalWhereRes res = calWhere(fd, where);
             l0 = res.l0; r0 = res.r0;
@@ -256,7 +312,7 @@ public class Table {
                 if(res.r1 < res.r0) res.r0 = res.r1;
                 break;
             default:
-                throw Error.InvalidLogOpException;
+                throw new InvalidLogOpException(MessageConstant.INVALID_LOGIC_OPERATION);
         }
         return res;
     }
@@ -276,10 +332,19 @@ public class Table {
     }
 
     private Map<String, Object> parseEntry(byte[] raw) {
-        int pos = 0;
+        return parseEntry(new SubArray(0, raw.length, raw));
+    }
+
+    /**
+     * 直接从记录所在的数组中逐个解析字段，不拷贝记录
+     * @param raw
+     * @return
+     */
+    private Map<String, Object> parseEntry(SubArray raw) {
+        int pos = raw.start;
         Map<String, Object> entry = new HashMap<>();
         for (Field field : fields) {
-            ParseValueRes r = field.parserValue(Arrays.copyOfRange(raw, pos, raw.length));
+            ParseValueRes r = field.parserValue(raw.data, pos);
             entry.put(field.fieldName, r.v);
             pos += r.shift;
         }
@@ -1,14 +1,14 @@
 package org.minidb.backend.tbm;
 
-import top.guoziyang.mydb.backend.dm.DataManager;
-import top.guoziyang.mydb.backend.parser.statement.Begin;
-import top.guoziyang.mydb.backend.parser.statement.Create;
-import top.guoziyang.mydb.backend.parser.statement.Delete;
-import top.guoziyang.mydb.backend.parser.statement.Insert;
-import top.guoziyang.mydb.backend.parser.statement.Select;
-import top.guoziyang.mydb.backend.parser.statement.Update;
-import top.guoziyang.mydb.backend.utils.Parser;
-import top.guoziyang.mydb.backend.vm.VersionManager;
+import org.minidb.backend.dm.DataManager;
+import org.minidb.backend.parser.statement.Begin;
+import org.minidb.backend.parser.statement.Create;
+import org.minidb.backend.parser.statement.Delete;
+import org.minidb.backend.parser.statement.Insert;
+import org.minidb.backend.parser.statement.Select;
+import org.minidb.backend.parser.statement.Update;
+import org.minidb.backend.utils.Parser;
+import org.minidb.backend.vm.VersionManager;
 
 public interface TableManager {
     BeginRes begin(Begin begin);
@@ -23,6 +23,9 @@ public interface TableManager {
     byte[] update(long xid, Update update) throws Exception;
     byte[] delete(long xid, Delete delete) throws Exception;
 
+    // 关闭表管理器，停止后台清理后关闭 Data Manager
+    void close();
+
     public static TableManager create(String path, VersionManager vm, DataManager dm) {
         Booter booter = Booter.create(path);
         booter.update(Parser.long2Byte(0));
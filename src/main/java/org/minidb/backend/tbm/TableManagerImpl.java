@@ -7,16 +7,19 @@ import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import top.guoziyang.mydb.backend.dm.DataManager;
-import top.guoziyang.mydb.backend.parser.statement.Begin;
-import top.guoziyang.mydb.backend.parser.statement.Create;
-import top.guoziyang.mydb.backend.parser.statement.Delete;
-import top.guoziyang.mydb.backend.parser.statement.Insert;
-import top.guoziyang.mydb.backend.parser.statement.Select;
-import top.guoziyang.mydb.backend.parser.statement.Update;
-import top.guoziyang.mydb.backend.utils.Parser;
-import top.guoziyang.mydb.backend.vm.VersionManager;
-import top.guoziyang.mydb.common.Error;
+import org.minidb.backend.dm.DataManager;
+import org.minidb.backend.parser.statement.Begin;
+import org.minidb.backend.parser.statement.Create;
+import org.minidb.backend.parser.statement.Delete;
+import org.minidb.backend.parser.statement.Insert;
+import org.minidb.backend.parser.statement.Select;
+import org.minidb.backend.parser.statement.Update;
+import org.minidb.backend.utils.Parser;
+import org.minidb.backend.vm.VersionManager;
+import org.minidb.common.constant.MessageConstant;
+import org.minidb.common.constant.VMConstant;
+import org.minidb.common.exception.DuplicatedTableException;
+import org.minidb.common.exception.TableNotFoundException;
 
 public class TableManagerImpl implements TableManager {
     VersionManager vm;
@@ -34,12 +37,14 @@ public class TableManagerImpl implements TableManager {
         this.xidTableCache = new HashMap<>();
         lock = new ReentrantLock();
         loadTables();
+        vm.startVacuum(VMConstant.VACUUM_INTERVAL_MILLIS, VMConstant.VACUUM_BATCH);
     }
 
     private void loadTables() {
         long uid = firstTableUid();
         while(uid != 0) {
             Table tb = Table.loadTable(this, uid);
+            tb.sweepDeadVersions();
             uid = tb.nextUid;
             tableCache.put(tb.name, tb);
         }
@@ -98,7 +103,7 @@ public class TableManagerImpl implements TableManager {
         lock.lock();
         try {
             if(tableCache.containsKey(create.tableName)) {
-                throw Error.DuplicatedTableException;
+                throw new DuplicatedTableException(MessageConstant.DUPLICATED_TABLE);
             }
             Table table = Table.createTable(this, firstTableUid(), xid, create);
             updateFirstTableUid(table.uid);
@@ -118,7 +123,7 @@ public class TableManagerImpl implements TableManager {
         Table table = tableCache.get(insert.tableName);
         lock.unlock();
         if(table == null) {
-            throw Error.TableNotFoundException;
+            throw new TableNotFoundException(MessageConstant.TABLE_NOT_FOUND);
         }
         table.insert(xid, insert);
         return "insert".getBytes();
@@ -129,7 +134,7 @@ public class TableManagerImpl implements TableManager {
         Table table = tableCache.get(read.tableName);
         lock.unlock();
         if(table == null) {
-            throw Error.TableNotFoundException;
+            throw new TableNotFoundException(MessageConstant.TABLE_NOT_FOUND);
         }
         return table.read(xid, read).getBytes();
     }
@@ -139,7 +144,7 @@ public class TableManagerImpl implements TableManager {
         Table table = tableCache.get(update.tableName);
         lock.unlock();
         if(table == null) {
-            throw Error.TableNotFoundException;
+            throw new TableNotFoundException(MessageConstant.TABLE_NOT_FOUND);
         }
         int count = table.update(xid, update);
         return ("update " + count).getBytes();
@@ -150,9 +155,19 @@ public class TableManagerImpl implements TableManager {
         Table table = tableCache.get(delete.tableName);
         lock.unlock();
         if(table == null) {
-            throw Error.TableNotFoundException;
+            throw new TableNotFoundException(MessageConstant.TABLE_NOT_FOUND);
         }
         int count = table.delete(xid, delete);
         return ("delete " + count).getBytes();
     }
+
+    /**
+     * 先关闭 Version Manager（等待后台清理线程退出并释放缓存的记录），再关闭 Data Manager，
+     * 清理和记录的释放不会落在已关闭的 Data Manager 上
+     */
+    @Override
+    public void close() {
+        vm.close();
+        dm.close();
+    }
 }
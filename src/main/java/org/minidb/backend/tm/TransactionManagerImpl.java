@@ -61,15 +61,14 @@ public class TransactionManagerImpl implements TransactionManager {
         return TMConstant.XID_HEADER_LENGTH + (xid-1) * TMConstant.XID_FIELD_SIZE;
     }
 
-    // 更新xid事务的状态为status
+    // 更新xid事务的状态为status，使用带位置的读写，并发读写不同事务的状态时不会互相改变文件位置
     private void updateXID(long xid, byte status) {
         long offset = getXIDPosition(xid);
         byte[] tmp = new byte[TMConstant.XID_FIELD_SIZE];
         tmp[0] = status;
         ByteBuffer buffer = ByteBuffer.wrap(tmp);
         try {
-            fileChannel.position(offset);
-            fileChannel.write(buffer);
+            fileChannel.write(buffer, offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -85,8 +84,7 @@ public class TransactionManagerImpl implements TransactionManager {
         long offset = getXIDPosition(xid);
         ByteBuffer buffer = ByteBuffer.wrap(new byte[TMConstant.XID_FIELD_SIZE]);
         try {
-            fileChannel.position(offset);
-            fileChannel.read(buffer);
+            fileChannel.read(buffer, offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -98,8 +96,7 @@ public class TransactionManagerImpl implements TransactionManager {
         XIDCounter++;
         ByteBuffer buffer = ByteBuffer.wrap(Parser.long2Byte(XIDCounter));
         try {
-            fileChannel.position(0);
-            fileChannel.write(buffer);
+            fileChannel.write(buffer, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
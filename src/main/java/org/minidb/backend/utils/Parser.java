@@ -29,6 +29,15 @@ public class Parser {
         return buffer.getLong();
     }
 
+    // 直接从 buf 的 offset 处解析，不拷贝数组
+    public static int parseInt(byte[] buf, int offset) {
+        return ByteBuffer.wrap(buf, offset, 4).getInt();
+    }
+
+    public static long parseLong(byte[] buf, int offset) {
+        return ByteBuffer.wrap(buf, offset, 8).getLong();
+    }
+
     public static byte[] long2Byte(long value) {
         return ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(value).array();
     }
@@ -39,6 +48,21 @@ public class Parser {
         return new ParseStringRes(str, length+4);
     }
 
+    // 直接从 raw 的 offset 处解析字符串，next 为字符串占用的字节数
+    public static ParseStringRes parseString(byte[] raw, int offset) {
+        int length = parseInt(raw, offset);
+        String str = new String(raw, offset+4, length);
+        return new ParseStringRes(str, length+4);
+    }
+
+    // 从缓冲区的 offset 处解析字符串，不修改缓冲区的 position
+    public static ParseStringRes parseString(ByteBuffer raw, int offset) {
+        int length = raw.getInt(offset);
+        byte[] bytes = new byte[length];
+        raw.get(offset+4, bytes);
+        return new ParseStringRes(new String(bytes), length+4);
+    }
+
 //    public static byte[] string2Byte(String str) {
 //        byte[] l = int2Byte(str.length());
 //        return Bytes.concat(l, str.getBytes());
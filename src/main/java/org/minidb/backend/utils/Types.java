@@ -1,9 +1,17 @@
 package org.minidb.backend.utils;
 
 public class Types {
-    public static long addressToUid(int pgno, short offset) {
+    /**
+     * 由页号、槽的代数和槽号生成数据项的uid：[Pgno 32] [Generation 16] [Slot 16]
+     * @param pgno
+     * @param slot
+     * @param generation
+     * @return
+     */
+    public static long addressToUid(int pgno, short slot, short generation) {
         long u0 = (long)pgno;
-        long u1 = (long)offset;
-        return u0 << 32 | u1;
+        long u1 = generation & 0xFFFFL;
+        long u2 = slot & 0xFFFFL;
+        return u0 << 32 | u1 << 16 | u2;
     }
 }
@@ -0,0 +1,21 @@
+package org.minidb.backend.vm;
+
+/**
+ * 等待清理的死版本候选
+ * 提交的事务删除的版本，在所有活跃事务的快照都晚于该事务后不再可见；中止的事务插入的版本立即不可见
+ */
+public class DeadVersion {
+    public long uid;
+    // 删除或插入该版本的事务
+    public long xid;
+    // true表示版本被xid删除，false表示版本由被中止的xid插入
+    public boolean deleted;
+    public VacuumListener listener;
+
+    public DeadVersion(long uid, long xid, boolean deleted, VacuumListener listener) {
+        this.uid = uid;
+        this.xid = xid;
+        this.deleted = deleted;
+        this.listener = listener;
+    }
+}
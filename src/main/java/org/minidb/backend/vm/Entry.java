@@ -6,8 +6,10 @@ import org.minidb.backend.dm.dataItem.DataItem;
 import org.minidb.backend.utils.Parser;
 import org.minidb.common.constant.VMConstant;
 import org.minidb.backend.utils.ArrayUtil;
+import org.minidb.backend.utils.Panic;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * VM向上层抽象出entry
@@ -78,21 +80,69 @@ public class Entry {
     }
 
     /**
-     * 以拷贝的形式返回Entry的内容(除去Create,DeleteVTN)
+     * 以拷贝的形式返回Entry的内容(除去Create,DeleteVTN)，带溢出链时读入所有溢出块
      * @return
      */
     public byte[] getEntryData() {
+        if(dataItem.isOverflow()) {
+            return readOverflowData();
+        }
         dataItem.rLock();
         try {
             SubArray subArray = dataItem.getData();
             byte[] data = new byte[subArray.end - subArray.start - VMConstant.DATA_OFFSET];
-            System.arraycopy(subArray.data, subArray.start + VMConstant.DATA_OFFSET, data, 0, data.length);
+            subArray.data.get(subArray.start + VMConstant.DATA_OFFSET, data);
             return data;
         } finally {
             dataItem.rUnLock();
         }
     }
 
+    /**
+     * 返回指向页面中Entry内容(除去Create,DeleteVTN)的视图，不拷贝数据
+     * 版本的内容在插入后不再修改，持有Entry期间页面不会被整理，视图中的数据保持不变。
+     * 视图只能读取，Entry 释放后不能再访问。带溢出链的Entry无法在页面中直接访问，返回其内容的拷贝
+     * @return
+     */
+    public SubArray getEntryView() {
+        if(dataItem.isOverflow()) {
+            byte[] data = readOverflowData();
+            return new SubArray(0, data.length, data);
+        }
+        SubArray subArray = dataItem.getData();
+        return new SubArray(subArray.start + VMConstant.DATA_OFFSET, subArray.end, subArray.data);
+    }
+
+    /**
+     * 按顺序读取Entry的内容(除去Create,DeleteVTN)，溢出块在读取时才逐块读入
+     * 流不负责释放Entry
+     * @return
+     */
+    public InputStream openStream() {
+        return ((VersionManagerImpl)vm).dm.openStream(dataItem, VMConstant.DATA_OFFSET);
+    }
+
+    /**
+     * 读入带溢出链的Entry的全部内容
+     * @return
+     */
+    private byte[] readOverflowData() {
+        byte[] data = new byte[dataItem.getTotalSize() - VMConstant.DATA_OFFSET];
+        try (InputStream in = openStream()) {
+            int n = 0;
+            while(n < data.length) {
+                int r = in.read(data, n, data.length - n);
+                if(r < 0) {
+                    break;
+                }
+                n += r;
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return data;
+    }
+
     /**
      * 获取创建该版本的事务的事务编号(xid)
      * @return
@@ -101,8 +151,7 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray subArray = dataItem.getData();
-            return Parser.parseLong(Arrays.copyOfRange(subArray.data, subArray.start + VMConstant.CREATE_VERSION_OFFSET,
-                    subArray.start + VMConstant.DELETE_VERSION_OFFSET));
+            return subArray.data.getLong(subArray.start + VMConstant.CREATE_VERSION_OFFSET);
         } finally {
             dataItem.rUnLock();
         }
@@ -116,8 +165,7 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray subArray = dataItem.getData();
-            return Parser.parseLong(Arrays.copyOfRange(subArray.data, subArray.start + VMConstant.DELETE_VERSION_OFFSET,
-                    subArray.start + VMConstant.DATA_OFFSET));
+            return subArray.data.getLong(subArray.start + VMConstant.DELETE_VERSION_OFFSET);
         } finally {
             dataItem.rUnLock();
         }
@@ -131,7 +179,7 @@ public class Entry {
         dataItem.writePrepare();
         try {
             SubArray subArray = dataItem.getData();
-            System.arraycopy(Parser.long2Byte(xid), 0, subArray.data, subArray.start + VMConstant.DELETE_VERSION_OFFSET, 8);
+            subArray.data.putLong(subArray.start + VMConstant.DELETE_VERSION_OFFSET, xid);
         } finally {
             dataItem.writeAfter(xid);
         }
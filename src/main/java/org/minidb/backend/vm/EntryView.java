@@ -0,0 +1,32 @@
+package org.minidb.backend.vm;
+
+import org.minidb.backend.common.SubArray;
+
+/**
+ * 对一个可见版本内容的只读视图，由 VersionManager.readView 返回
+ * 视图直接指向缓存页面中的数据，持有期间页面被固定在缓存中，使用完毕后须调用 release
+ */
+public class EntryView {
+    private Entry entry;
+    private SubArray data;
+
+    EntryView(Entry entry) {
+        this.entry = entry;
+        this.data = entry.getEntryView();
+    }
+
+    /**
+     * 版本的内容，只能读取
+     * @return
+     */
+    public SubArray getData() {
+        return data;
+    }
+
+    /**
+     * 释放视图，之后不能再访问 getData 返回的数据
+     */
+    public void release() {
+        entry.release();
+    }
+}
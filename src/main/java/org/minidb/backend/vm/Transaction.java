@@ -1,6 +1,8 @@
 package org.minidb.backend.vm;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.minidb.common.constant.TMConstant;
@@ -20,6 +22,9 @@ public class Transaction {
     public Map<Long, Boolean> snapshot;
     public BaseException err;
     public boolean autoAborted;
+    // 事务插入和删除的版本，事务中止或提交后成为死版本的候选
+    public List<DeadVersion> inserted = new ArrayList<>();
+    public List<DeadVersion> deleted = new ArrayList<>();
 
     /**
      * 创建一个新的事务
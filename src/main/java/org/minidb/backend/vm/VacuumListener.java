@@ -0,0 +1,14 @@
+package org.minidb.backend.vm;
+
+/**
+ * 死版本被清理前的回调，由插入或删除该版本的上层模块提供，用于删除指向该版本的索引项
+ */
+public interface VacuumListener {
+    /**
+     * 版本的Data Item被释放前调用
+     * @param uid 版本的uid
+     * @param data 版本的数据(除去Create,DeleteVTN)
+     * @throws Exception
+     */
+    void beforeVacuum(long uid, byte[] data) throws Exception;
+}
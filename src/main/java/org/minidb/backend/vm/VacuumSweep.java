@@ -0,0 +1,17 @@
+package org.minidb.backend.vm;
+
+import java.util.List;
+
+/**
+ * 死版本候选只保存在内存中，重启前成为死版本的记录由上层模块分批提供其全部版本的uid，
+ * 后台清理线程逐批检查并登记为候选，打开数据库时不必扫描全部数据
+ */
+public interface VacuumSweep extends VacuumListener {
+    /**
+     * 将下一批版本的uid加入 uids，只由后台清理线程调用
+     * @param uids
+     * @return 是否还有之后的批次
+     * @throws Exception
+     */
+    boolean nextSweepBatch(List<Long> uids) throws Exception;
+}
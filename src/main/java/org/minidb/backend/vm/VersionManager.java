@@ -1,19 +1,45 @@
 package org.minidb.backend.vm;
 
+import org.minidb.backend.common.CacheMetrics;
 import org.minidb.backend.dm.DataManager;
 import org.minidb.backend.tm.TransactionManager;
 
+import java.io.InputStream;
+import java.util.List;
+
 public interface VersionManager {
     byte[] read(long xid, long uid) throws Exception;
+    // 不拷贝数据的读取，返回的视图使用完毕后须释放
+    EntryView readView(long xid, long uid) throws Exception;
+    // 以流的形式读取，适合超过一页的数据，关闭流时释放版本
+    InputStream readStream(long xid, long uid) throws Exception;
+    // 预读提示：扫描前将这些记录所在的页面读入缓存
+    void prefetch(List<Long> uids);
     long insert(long xid, byte[] data) throws Exception;
     boolean delete(long xid, long uid) throws Exception;
+    // 插入或删除版本，版本成为死版本被清理前回调 listener
+    long insert(long xid, byte[] data, VacuumListener listener) throws Exception;
+    boolean delete(long xid, long uid, VacuumListener listener) throws Exception;
 
     long begin(int level);
     void commit(long xid) throws Exception;
     void abort(long xid);
+    // 记录缓存的统计信息
+    CacheMetrics getCacheMetrics();
+    // 清理死版本，最多清理 limit 个，返回实际清理的个数
+    int vacuum(int limit);
+    // 死版本候选只保存在内存中，重新打开数据库后由后台清理线程逐批扫描 sweep 提供的版本重建
+    void addSweep(VacuumSweep sweep);
+    // 启动或停止后台清理线程
+    void startVacuum(long intervalMillis, int batchSize);
+    void stopVacuum();
+    // 停止后台清理线程并关闭记录缓存，须在关闭 Data Manager 之前调用
+    void close();
 
     public static VersionManager newVersionManager(TransactionManager tm, DataManager dm) {
-        return new VersionManagerImpl(tm, dm);
+        VersionManagerImpl vm = new VersionManagerImpl(tm, dm);
+        vm.registerMetrics();
+        return vm;
     }
 
 }
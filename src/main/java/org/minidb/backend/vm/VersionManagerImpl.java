@@ -6,11 +6,23 @@ import org.minidb.backend.tm.TransactionManager;
 import org.minidb.backend.utils.Panic;
 import org.minidb.common.constant.MessageConstant;
 import org.minidb.common.constant.TMConstant;
+import org.minidb.common.constant.VMConstant;
 import org.minidb.common.exception.ConcurrentUpdateException;
 import org.minidb.common.exception.NullEntryException;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -21,6 +33,13 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
     Map<Long, Transaction> activeTransaction;
     Lock lock;
     LockTable lt;
+    // 等待清理的死版本候选
+    Queue<DeadVersion> deadVersions;
+    // 等待扫描的重启前的版本，由后台清理线程逐批登记为候选
+    private Queue<VacuumSweep> sweeps;
+    // 后台清理线程，为null表示未启动
+    private Thread vacuumThread;
+    private CountDownLatch vacuumStop;
 
     public VersionManagerImpl(TransactionManager tm, DataManager dm) {
         super(0);
@@ -31,6 +50,27 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
                 Transaction.newTransaction(TMConstant.SUPER_XID, 0, null));
         this.lock = new ReentrantLock();
         this.lt = new LockTable();
+        this.deadVersions = new ConcurrentLinkedQueue<>();
+        this.sweeps = new ConcurrentLinkedQueue<>();
+        dm.setActiveTransactions(this::activeTransactions);
+    }
+
+    /**
+     * 活跃事务表的快照，供 Data Manager 记录检查点
+     * @return
+     */
+    private Set<Long> activeTransactions() {
+        lock.lock();
+        try {
+            return new HashSet<>(activeTransaction.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected String cacheName() {
+        return "EntryCache";
     }
 
     @Override
@@ -56,6 +96,79 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     @Override
     public byte[] read(long xid, long uid) throws Exception {
+        Entry entry = getVisibleEntry(xid, uid);
+        if(entry == null) {
+            return null;
+        }
+        try {
+            return entry.getEntryData();
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * 读取指定事务（xid）对指定 UID 的数据，返回指向页面中数据的只读视图，不拷贝数据
+     * 数据对该事务不可见时返回null
+     * @param xid
+     * @param uid
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public EntryView readView(long xid, long uid) throws Exception {
+        Entry entry = getVisibleEntry(xid, uid);
+        if(entry == null) {
+            return null;
+        }
+        return new EntryView(entry);
+    }
+
+    /**
+     * 预读记录所在的页面，由 Data Manager 合并为按页号连续的预读
+     * @param uids
+     */
+    @Override
+    public void prefetch(List<Long> uids) {
+        dm.prefetch(uids);
+    }
+
+    /**
+     * 以流的形式读取指定事务（xid）对指定 UID 的数据，溢出块在读取时才逐块读入，不可见时返回null
+     * 关闭流时释放版本
+     * @param xid
+     * @param uid
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public InputStream readStream(long xid, long uid) throws Exception {
+        Entry entry = getVisibleEntry(xid, uid);
+        if(entry == null) {
+            return null;
+        }
+        return new FilterInputStream(entry.openStream()) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if(!closed) {
+                    closed = true;
+                    super.close();
+                    entry.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * 获取对事务可见的Entry，不可见或不存在时返回null，返回的Entry须由调用者释放
+     * @param xid
+     * @param uid
+     * @return
+     * @throws Exception
+     */
+    private Entry getVisibleEntry(long xid, long uid) throws Exception {
         lock.lock();
         Transaction t = activeTransaction.get(xid);
         lock.unlock();
@@ -68,21 +181,17 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         try {
             entry = super.getFromCache(uid);
         } catch(Exception e) {
-            if(e.equals(new NullEntryException(MessageConstant.NULL_ENTRY))) {
+            if(e instanceof NullEntryException) {
                 return null;
             } else {
                 throw e;
             }
         }
-        try {
-            if(Visibility.isVisible(tm, t, entry)) {
-                return entry.getEntryData();
-            } else {
-                return null;
-            }
-        } finally {
-            entry.release();
+        if(Visibility.isVisible(tm, t, entry)) {
+            return entry;
         }
+        entry.release();
+        return null;
     }
 
     /**
@@ -94,6 +203,19 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     @Override
     public long insert(long xid, byte[] data) throws Exception {
+        return insert(xid, data, null);
+    }
+
+    /**
+     * 插入数据，事务中止后插入的版本被清理前回调 listener
+     * @param xid
+     * @param data
+     * @param listener
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public long insert(long xid, byte[] data, VacuumListener listener) throws Exception {
         lock.lock();
         Transaction t = activeTransaction.get(xid);
         lock.unlock();
@@ -103,7 +225,12 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         }
 
         byte[] raw = Entry.wrapEntryRaw(xid, data);
-        return dm.insert(xid, raw);
+        long uid = dm.insert(xid, raw);
+        // 超级事务不会结束，其插入的版本不会成为死版本
+        if(xid != TMConstant.SUPER_XID) {
+            t.inserted.add(new DeadVersion(uid, xid, false, listener));
+        }
+        return uid;
     }
 
     /**
@@ -115,6 +242,19 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     @Override
     public boolean delete(long xid, long uid) throws Exception {
+        return delete(xid, uid, null);
+    }
+
+    /**
+     * 删除指定 UID 的数据，事务提交后被删除的版本被清理前回调 listener
+     * @param xid
+     * @param uid
+     * @param listener
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public boolean delete(long xid, long uid, VacuumListener listener) throws Exception {
         lock.lock();
         Transaction t = activeTransaction.get(xid);
         lock.unlock();
@@ -126,7 +266,7 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         try {
             entry = super.getFromCache(uid);
         } catch(Exception e) {
-            if(e.equals(new NullEntryException(MessageConstant.NULL_ENTRY))) {
+            if(e instanceof NullEntryException) {
                 return false;
             } else {
                 throw e;
@@ -162,6 +302,9 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             }
 
             entry.setDeleteVTN(xid);
+            if(xid != TMConstant.SUPER_XID) {
+                t.deleted.add(new DeadVersion(uid, xid, true, listener));
+            }
             return true;
 
         } finally {
@@ -214,6 +357,7 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
 
         lt.remove(xid);
         tm.commitTransaction(xid);
+        deadVersions.addAll(t.deleted);
     }
 
     /**
@@ -241,10 +385,226 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         if(t.autoAborted) return;
         lt.remove(xid);
         tm.abortTransaction(xid);
+        deadVersions.addAll(t.inserted);
     }
 
     public void releaseEntry(Entry entry) {
         super.releaseReferenceByKey(entry.getUid());
     }
 
+    /**
+     * 清理死版本：删除其索引项并释放其Data Item
+     * 被删除的版本须等到删除它的事务早于所有活跃事务的快照后才能清理，尚不能清理的候选重新放回队列
+     * @param limit 最多清理的版本数
+     * @return 实际清理的版本数
+     */
+    @Override
+    public int vacuum(int limit) {
+        long horizon = oldestSnapshot();
+        int candidates = deadVersions.size();
+        int vacuumed = 0;
+        for (int i = 0; i < candidates && vacuumed < limit; i ++) {
+            DeadVersion dv = deadVersions.poll();
+            if(dv == null) {
+                break;
+            }
+            if(dv.deleted && dv.xid >= horizon) {
+                deadVersions.offer(dv);
+                continue;
+            }
+            try {
+                if(vacuumVersion(dv)) {
+                    vacuumed ++;
+                }
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        }
+        return vacuumed;
+    }
+
+    /**
+     * 登记一个等待扫描的版本来源，重启前产生的死版本由后台清理线程逐批找出
+     * @param sweep
+     */
+    @Override
+    public void addSweep(VacuumSweep sweep) {
+        sweeps.offer(sweep);
+    }
+
+    /**
+     * 从第一个等待扫描的来源中取出约 limit 个版本，检查后登记死版本候选，来源扫描完后将其移除
+     * @param limit
+     */
+    void sweep(int limit) {
+        VacuumSweep sweep = sweeps.peek();
+        if(sweep == null) {
+            return;
+        }
+        try {
+            List<Long> uids = new ArrayList<>();
+            boolean more = true;
+            while(more && uids.size() < limit) {
+                more = sweep.nextSweepBatch(uids);
+            }
+            if(!more) {
+                sweeps.poll();
+            }
+            prefetch(uids);
+            checkDeadVersions(uids, sweep);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 逐个检查 uids 指向的版本，创建它的事务已中止或删除它的事务已提交时加入候选
+     * 提交或中止时已登记过的版本会重复登记，清理时会被跳过；删除是否对所有事务可见仍由清理时的快照判断
+     * @param uids
+     * @param listener
+     * @throws Exception
+     */
+    private void checkDeadVersions(List<Long> uids, VacuumListener listener) throws Exception {
+        for (long uid : uids) {
+            Entry entry = null;
+            try {
+                entry = super.getFromCache(uid);
+            } catch(Exception e) {
+                if(e instanceof NullEntryException) {
+                    continue;
+                } else {
+                    throw e;
+                }
+            }
+            try {
+                long xmin = entry.getCreateVTN();
+                long xmax = entry.getDeleteVTN();
+                if(tm.isAborted(xmin)) {
+                    deadVersions.offer(new DeadVersion(uid, xmin, false, listener));
+                } else if(xmax != TMConstant.SUPER_XID && tm.isCommitted(xmax)) {
+                    deadVersions.offer(new DeadVersion(uid, xmax, true, listener));
+                }
+            } finally {
+                entry.release();
+            }
+        }
+    }
+
+    /**
+     * 获取所有活跃事务中最早的快照：活跃事务及其快照中事务的最小xid
+     * 早于它提交的删除对任何活跃事务和之后开始的事务都可见
+     * @return
+     */
+    private long oldestSnapshot() {
+        lock.lock();
+        try {
+            long oldest = Long.MAX_VALUE;
+            for (Transaction t : activeTransaction.values()) {
+                if(t.xid == TMConstant.SUPER_XID) {
+                    continue;
+                }
+                oldest = Math.min(oldest, t.xid);
+                if(t.snapshot != null) {
+                    for (long x : t.snapshot.keySet()) {
+                        if(x != TMConstant.SUPER_XID) {
+                            oldest = Math.min(oldest, x);
+                        }
+                    }
+                }
+            }
+            return oldest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 确认版本仍是死版本后，通知 listener 删除索引项，再释放其Data Item
+     * 正在引用该版本的线程不受影响，之后读取该版本得到null
+     * @param dv
+     * @return
+     * @throws Exception
+     */
+    private boolean vacuumVersion(DeadVersion dv) throws Exception {
+        Entry entry = null;
+        try {
+            entry = super.getFromCache(dv.uid);
+        } catch(Exception e) {
+            if(e instanceof NullEntryException) {
+                return false;
+            } else {
+                throw e;
+            }
+        }
+        try {
+            boolean dead;
+            if(dv.deleted) {
+                dead = entry.getDeleteVTN() == dv.xid && tm.isCommitted(dv.xid);
+            } else {
+                dead = entry.getCreateVTN() == dv.xid && tm.isAborted(dv.xid);
+            }
+            if(!dead) {
+                return false;
+            }
+            if(dv.listener != null) {
+                dv.listener.beforeVacuum(dv.uid, entry.getEntryData());
+            }
+            dm.free(dv.uid);
+            return true;
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * 启动后台清理线程，每隔 intervalMillis 最多清理 batchSize 个死版本，并扫描一批重启前的版本，以限制清理占用的资源
+     * @param intervalMillis
+     * @param batchSize
+     */
+    @Override
+    public synchronized void startVacuum(long intervalMillis, int batchSize) {
+        if(vacuumThread != null) {
+            return;
+        }
+        CountDownLatch stop = new CountDownLatch(1);
+        vacuumStop = stop;
+        vacuumThread = new Thread(() -> {
+            try {
+                while(!stop.await(intervalMillis, TimeUnit.MILLISECONDS)) {
+                    vacuum(batchSize);
+                    sweep(VMConstant.SWEEP_BATCH);
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "vacuum");
+        vacuumThread.setDaemon(true);
+        vacuumThread.start();
+    }
+
+    /**
+     * 停止后台清理线程，等待正在进行的清理完成
+     */
+    @Override
+    public synchronized void stopVacuum() {
+        if(vacuumThread == null) {
+            return;
+        }
+        vacuumStop.countDown();
+        try {
+            vacuumThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        vacuumThread = null;
+    }
+
+    /**
+     * 先停止后台清理线程，再释放缓存中的全部记录并注销统计信息
+     */
+    @Override
+    public void close() {
+        stopVacuum();
+        super.closeCache();
+    }
+
 }
@@ -0,0 +1,12 @@
+package org.minidb.common.constant;
+
+public class CacheConstant {
+    // 锁分段的个数，必须为2的幂
+    public static final int LOCK_STRIPES = 64;
+    // 每段缓冲的淘汰策略事件个数，必须为2的幂
+    public static final int POLICY_BUFFER_SIZE = 128;
+    // 缓存已满且资源全部被引用时，等待其他线程释放资源的最长时间
+    public static final long FULL_WAIT_MILLIS = 1000;
+    // 单次等待的时间片
+    public static final long FULL_WAIT_SLICE_MILLIS = 10;
+}
@@ -4,5 +4,14 @@ public class DataItemConstant {
     public static final int VALID_OFFSET = 0;
     public static final int SIZE_OFFSET = 1;
     public static final int DATA_OFFSET = 3;
+    // ValidFlag 中的标志位：数据项无效、数据项带有溢出链
+    public static final byte INVALID_FLAG = 1;
+    public static final byte OVERFLOW_FLAG = 2;
+    // 带溢出链的数据项在数据之后记录 [TotalSize 4] [OverflowUid 8]
+    public static final int OVERFLOW_TAIL_SIZE = 12;
+    // 溢出块的数据以下一块的uid开头
+    public static final int NEXT_UID_SIZE = 8;
+    // 带溢出链的数据项在页面中保留的数据长度，其余数据存放在溢出块中
+    public static final int OVERFLOW_INLINE_SIZE = 256;
     public static final int MAX_INSERT_ATTEMPTS = 5;
 }
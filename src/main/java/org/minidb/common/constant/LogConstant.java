@@ -1,14 +1,27 @@
 package org.minidb.common.constant;
 
 public class LogConstant {
-    public static final int SEED = 13331;
+    // [CheckpointLSN]
+    public static final int HEADER_SIZE = 8;
+    // 每个日志段文件存放的日志字节数
+    public static final long SEGMENT_SIZE = 16L << 20;
+    // 检查后台线程的间隔，上次检查点之后的日志超过 CHECKPOINT_LOG_SIZE 时执行检查点
+    public static final long CHECKPOINT_INTERVAL_MILLIS = 10_000;
+    public static final long CHECKPOINT_LOG_SIZE = SEGMENT_SIZE;
+    // 顺序读取日志时每次从文件中预读的字节数
+    public static final int READ_BUFFER_SIZE = 1 << 20;
+    // [Size] [Checksum] [LSN] [Data]
     public static final int OFFSET_SIZE = 0;
     public static final int SIZE_OFFSET = 4;
     public static final int CHECKSUM_OFFSET = OFFSET_SIZE + 4;
-    public static final int DATA_OFFSET = CHECKSUM_OFFSET + 4;
+    public static final int LSN_OFFSET = CHECKSUM_OFFSET + 4;
+    public static final int DATA_OFFSET = LSN_OFFSET + 8;
     public static final String LOG_SUFFIX = ".log";
     public static final byte LOG_TYPE_INSERT = 0;
     public static final byte LOG_TYPE_UPDATE = 1;
+    public static final byte LOG_TYPE_FREE = 2;
+    public static final byte LOG_TYPE_CHECKPOINT = 3;
+    public static final byte LOG_TYPE_PAGE_IMAGE = 4;
     public static final int REDO = 0;
     public static final int UNDO = 1;
     // [LogType] [XID] [UID] [OldRaw] [NewRaw]
@@ -16,8 +29,18 @@ public class LogConstant {
     public static final int XID_OFFSET = TYPE_OFFSET + 1;
     public static final int UPDATE_UID_OFFSET = XID_OFFSET + 8;
     public static final int UPDATE_RAW_OFFSET = UPDATE_UID_OFFSET + 8;
-    // [LogType] [XID] [Pgno] [Offset] [Raw]
+    // [LogType] [XID] [Pgno] [Slot] [Generation] [Raw]
     public static final int INSERT_PAGENUM_OFFSET = XID_OFFSET + 8;
-    public static final int INSERT_OFFSET = INSERT_PAGENUM_OFFSET + 4;
-    public static final int INSERT_RAW_OFFSET = INSERT_OFFSET + 2;
+    public static final int INSERT_SLOT_OFFSET = INSERT_PAGENUM_OFFSET + 4;
+    public static final int INSERT_GENERATION_OFFSET = INSERT_SLOT_OFFSET + 2;
+    public static final int INSERT_RAW_OFFSET = INSERT_GENERATION_OFFSET + 2;
+    // [LogType] [XID] [UID]
+    public static final int FREE_UID_OFFSET = XID_OFFSET + 8;
+    // [LogType] [Pgno] [PageData]
+    public static final int PAGE_IMAGE_PAGENUM_OFFSET = TYPE_OFFSET + 1;
+    public static final int PAGE_IMAGE_DATA_OFFSET = PAGE_IMAGE_PAGENUM_OFFSET + 4;
+    // [LogType] [RedoLSN] [PageCount] [XidCount] [XID FirstLSN]... [DirtyCount] [Pgno RecLSN]...
+    public static final int CHECKPOINT_REDO_OFFSET = TYPE_OFFSET + 1;
+    public static final int CHECKPOINT_PAGECOUNT_OFFSET = CHECKPOINT_REDO_OFFSET + 8;
+    public static final int CHECKPOINT_TABLES_OFFSET = CHECKPOINT_PAGECOUNT_OFFSET + 4;
 }
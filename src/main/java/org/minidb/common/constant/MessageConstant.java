@@ -16,6 +16,10 @@ public class MessageConstant {
     public static final String DATA_OVERFLOW = "数据过大";
     public static final String DATABASE_BUSY = "数据库繁忙";
     public static final String EMPTY_PAGE = "未能正确获取到该页面";
+    public static final String BAD_PAGE_CHECKSUM = "页面校验和错误，页面可能写入不完整";
+    public static final String BAD_PAGE_SIZE = "页面大小须为4KB到32KB之间的2的幂";
+    public static final String BAD_FORMAT_VERSION = "db文件的格式版本与当前版本不一致";
+    public static final String MISSING_OVERFLOW_CHUNK = "数据项的溢出块不存在";
 
     // Messages in Transaction Manager
     public static final String BAD_XID_FILE = "XID文件已损坏";
@@ -1,15 +1,56 @@
 package org.minidb.common.constant;
 
 public class PageConstant {
+    // 创建数据库时默认的页面大小，数据库实际的页面大小保存在第一页中
     public static final int PAGE_SIZE = 1 << 13;
+    // 页面大小须为2的幂，最大为32KB，使空闲空间偏移能用2字节无符号数表示
+    public static final int MIN_PAGE_SIZE = 1 << 12;
+    public static final int MAX_PAGE_SIZE = 1 << 15;
     public static final int MEMORY_MIN_LIMIT = 10;
+    // 后台写回脏页的默认间隔
+    public static final long FLUSH_INTERVAL_MILLIS = 1000;
+    // 后台写回时每批最多写回的页面数
+    public static final int FLUSH_BATCH_PAGES = 256;
+    // 检测到顺序访问时默认预读的页数
+    public static final int READ_AHEAD_PAGES = 32;
+    // 连续顺序访问多少次后开始预读
+    public static final int SEQUENTIAL_THRESHOLD = 4;
+    // 异步读取页面的默认线程数
+    public static final int IO_THREADS = 4;
+    // 创建页面时文件按区段扩展，默认每次扩展的字节数
+    public static final long EXTENT_SIZE = 1L << 20;
+    // 页面帧池每次分配的堆外区域大小
+    public static final long FRAME_SLAB_SIZE = 16L << 20;
+    // 内存映射模式下每段映射的大小，须为最大页面大小的整数倍
+    public static final long MAP_SEGMENT_SIZE = 64L << 20;
     public static final String DB_SUFFIX = ".db";
     public static final int VALID_CHECK_OFFSET = 100;
     public static final int LENGTH_VALID_CHECK = 8;
+    // 第一页中保存页面大小的位置
+    public static final int PAGE_SIZE_OFFSET = VALID_CHECK_OFFSET + 2 * LENGTH_VALID_CHECK;
+    public static final int LENGTH_PAGE_SIZE = 4;
+    // 第一页中保存已分配页数的位置，正常关闭时写入
+    public static final int PAGE_COUNT_OFFSET = PAGE_SIZE_OFFSET + LENGTH_PAGE_SIZE;
+    public static final int LENGTH_PAGE_COUNT = 4;
+    // 第一页中保存文件格式版本的位置，创建db文件时写入
+    public static final int FORMAT_VERSION_OFFSET = PAGE_COUNT_OFFSET + LENGTH_PAGE_COUNT;
+    public static final int LENGTH_FORMAT_VERSION = 4;
+    // 当前的文件格式版本，表页的位置等文件布局改变时递增，打开其他版本的db文件时拒绝
+    public static final int FORMAT_VERSION = 1;
     public static final short FREE_OFFSET = 0;
-    public static final short DATA_OFFSET = 2;
-    public static final int MAX_FREE_SPACE = PAGE_SIZE - DATA_OFFSET;
+    // 页面校验和位于空闲空间偏移之后，所有页面都在这一位置保存校验和
+    public static final int CHECKSUM_OFFSET = 2;
+    public static final int LENGTH_CHECKSUM = 4;
+    // 普通页的槽个数、可回收字节数、空闲槽链表的表头与槽目录，槽为 [RecordOffset 2] [RecordLength 2] [Generation 2]
+    public static final int SLOT_COUNT_OFFSET = CHECKSUM_OFFSET + LENGTH_CHECKSUM;
+    public static final int GARBAGE_OFFSET = SLOT_COUNT_OFFSET + 2;
+    public static final int FREE_SLOT_OFFSET = GARBAGE_OFFSET + 2;
+    public static final int SLOT_OFFSET = FREE_SLOT_OFFSET + 2;
+    public static final int SLOT_SIZE = 6;
+    // 空闲空间表页中各页记录的起始位置，每个普通页占一个字节
+    public static final int FSM_ENTRY_OFFSET = CHECKSUM_OFFSET + LENGTH_CHECKSUM;
+    // 空闲空间表将页面大小划成256级
+    public static final int FSM_LEVELS = 256;
     // 将一页划成40个区间
     public static final int INTERVALS_NUMBER = 40;
-    public static final int INTERVAL_SIZE = PAGE_SIZE / INTERVALS_NUMBER;
 }
@@ -7,5 +7,10 @@ public class VMConstant {
     public static final int DELETE_VERSION_OFFSET = CREATE_VERSION_OFFSET + 8;
     public static final int DATA_OFFSET = DELETE_VERSION_OFFSET + 8;
     public static final int READ_UNCOMMITTED = 0;
+    // 后台清理死版本的默认间隔与每次最多清理的版本数
+    public static final long VACUUM_INTERVAL_MILLIS = 100;
+    public static final int VACUUM_BATCH = 64;
+    // 后台清理线程每次扫描重启前的版本数
+    public static final int SWEEP_BATCH = 1024;
 
 }
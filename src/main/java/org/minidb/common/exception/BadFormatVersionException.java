@@ -0,0 +1,8 @@
+package org.minidb.common.exception;
+
+public class BadFormatVersionException extends BaseException{
+    public BadFormatVersionException() {}
+    public BadFormatVersionException(String message) {
+        super(message);
+    }
+}
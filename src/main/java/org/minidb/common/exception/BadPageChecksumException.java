@@ -0,0 +1,8 @@
+package org.minidb.common.exception;
+
+public class BadPageChecksumException extends BaseException{
+    public BadPageChecksumException() {}
+    public BadPageChecksumException(String message) {
+        super(message);
+    }
+}
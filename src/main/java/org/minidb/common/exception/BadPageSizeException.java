@@ -0,0 +1,8 @@
+package org.minidb.common.exception;
+
+public class BadPageSizeException extends BaseException{
+    public BadPageSizeException() {}
+    public BadPageSizeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package org.minidb.common.exception;
+
+public class DuplicatedTableException extends BaseException{
+    public DuplicatedTableException() {}
+
+    public DuplicatedTableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package org.minidb.common.exception;
+
+public class FieldNotFoundException extends BaseException{
+    public FieldNotFoundException() {}
+
+    public FieldNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package org.minidb.common.exception;
+
+public class FieldNotIndexedException extends BaseException{
+    public FieldNotIndexedException() {}
+
+    public FieldNotIndexedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package org.minidb.common.exception;
+
+public class InvalidFieldException extends BaseException{
+    public InvalidFieldException() {}
+
+    public InvalidFieldException(String message) {
+        super(message);
+    }
+}
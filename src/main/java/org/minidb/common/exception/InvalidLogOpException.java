@@ -0,0 +1,9 @@
+package org.minidb.common.exception;
+
+public class InvalidLogOpException extends BaseException{
+    public InvalidLogOpException() {}
+
+    public InvalidLogOpException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package org.minidb.common.exception;
+
+public class InvalidValuesException extends BaseException{
+    public InvalidValuesException() {}
+
+    public InvalidValuesException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package org.minidb.common.exception;
+
+public class TableNotFoundException extends BaseException{
+    public TableNotFoundException() {}
+
+    public TableNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -1,4 +1,71 @@
 package org.minidb.backend.common;
 
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 public class CacheTest {
+
+    /**
+     * key 为负数时获取失败
+     */
+    private static class TestCache extends AbstractCache<Long> {
+        TestCache() {
+            super(16);
+        }
+
+        @Override
+        protected String cacheName() {
+            return "CacheTest";
+        }
+
+        @Override
+        protected Long get2Cache(long key) throws Exception {
+            if(key < 0) {
+                throw new IllegalArgumentException();
+            }
+            return key;
+        }
+
+        @Override
+        protected void releaseByObj(Long obj) {
+        }
+    }
+
+    private static Set<ObjectName> registered() throws Exception {
+        return ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("org.minidb:type=Cache,name=CacheTest,*"), null);
+    }
+
+    @Test
+    public void testMetricsRegisteredUntilClose() throws Exception {
+        TestCache cache = new TestCache();
+        // 构造时不注册
+        assertTrue(registered().isEmpty());
+        cache.registerMetrics();
+        assertEquals(1, registered().size());
+        assertEquals("CacheTest", cache.getCacheMetrics().getCacheName());
+        cache.closeCache();
+        assertTrue(registered().isEmpty());
+    }
+
+    @Test
+    public void testFailedLoadsAreNotCounted() throws Exception {
+        TestCache cache = new TestCache();
+        cache.getFromCache(1);
+        cache.releaseReferenceByKey(1);
+        try {
+            cache.getFromCache(-1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(2, cache.getCacheMetrics().getMisses());
+        assertEquals(1, cache.getCacheMetrics().getLoadCount());
+        cache.closeCache();
+    }
 }
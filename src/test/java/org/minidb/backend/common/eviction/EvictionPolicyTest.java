@@ -0,0 +1,117 @@
+package org.minidb.backend.common.eviction;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EvictionPolicyTest {
+
+    /**
+     * 按 AbstractCache 的调用顺序模拟一次获取和释放
+     */
+    private static void touch(EvictionPolicy policy, long key) {
+        policy.setEvictable(key, false);
+        policy.recordAccess(key);
+        policy.setEvictable(key, true);
+    }
+
+    private static void pin(EvictionPolicy policy, long key) {
+        policy.setEvictable(key, false);
+        policy.recordAccess(key);
+    }
+
+    @Test
+    public void testEmptyPolicyHasNoVictim() {
+        for (EvictionType type : EvictionType.values()) {
+            EvictionPolicy policy = EvictionPolicy.newPolicy(type, 8);
+            assertEquals(type.name(), EvictionPolicy.NO_VICTIM, policy.selectVictim());
+        }
+    }
+
+    @Test
+    public void testPinnedKeysAreNeverVictims() {
+        for (EvictionType type : EvictionType.values()) {
+            EvictionPolicy policy = EvictionPolicy.newPolicy(type, 8);
+            for (long key = 1; key <= 8; key ++) {
+                pin(policy, key);
+            }
+            assertEquals(type.name(), EvictionPolicy.NO_VICTIM, policy.selectVictim());
+            policy.setEvictable(5, true);
+            assertEquals(type.name(), 5, policy.selectVictim());
+            policy.setEvictable(5, false);
+            assertEquals(type.name(), EvictionPolicy.NO_VICTIM, policy.selectVictim());
+        }
+    }
+
+    @Test
+    public void testRemovedKeysAreNeverVictims() {
+        for (EvictionType type : EvictionType.values()) {
+            EvictionPolicy policy = EvictionPolicy.newPolicy(type, 16);
+            for (long key = 1; key <= 16; key ++) {
+                touch(policy, key);
+            }
+            Set<Long> evicted = new HashSet<>();
+            for (int i = 0; i < 16; i ++) {
+                long victim = policy.selectVictim();
+                assertNotEquals(type.name(), EvictionPolicy.NO_VICTIM, victim);
+                assertTrue(type.name(), evicted.add(victim));
+                policy.remove(victim);
+            }
+            assertEquals(type.name(), EvictionPolicy.NO_VICTIM, policy.selectVictim());
+        }
+    }
+
+    @Test
+    public void testLRUEvictsLeastRecentlyReleased() {
+        EvictionPolicy policy = new LRUPolicy();
+        touch(policy, 1);
+        touch(policy, 2);
+        touch(policy, 3);
+        touch(policy, 1);
+        assertEquals(2, policy.selectVictim());
+        policy.remove(2);
+        assertEquals(3, policy.selectVictim());
+    }
+
+    @Test
+    public void testClockGivesReferencedKeysASecondChance() {
+        EvictionPolicy policy = new ClockPolicy(4);
+        touch(policy, 1);
+        touch(policy, 2);
+        touch(policy, 3);
+        // 第一圈清除所有引用位，之后按环的顺序淘汰
+        assertEquals(1, policy.selectVictim());
+        policy.remove(1);
+        touch(policy, 2);
+        assertEquals(3, policy.selectVictim());
+    }
+
+    @Test
+    public void testTinyLFUKeepsFrequentKeysAgainstScans() {
+        int capacity = 100;
+        EvictionPolicy policy = new TinyLFUPolicy(capacity);
+        // 热点资源被反复访问，进入保护段
+        for (int round = 0; round < 5; round ++) {
+            for (long key = 0; key < 50; key ++) {
+                touch(policy, key);
+            }
+        }
+        // 一次性扫描大量资源，缓存满后每次淘汰一个
+        int resident = 50;
+        for (long key = 1000; key < 1200; key ++) {
+            touch(policy, key);
+            resident ++;
+            if(resident > capacity) {
+                long victim = policy.selectVictim();
+                policy.remove(victim);
+                resident --;
+                assertTrue("hot key " + victim + " evicted by a scan", victim >= 1000);
+            }
+        }
+    }
+}
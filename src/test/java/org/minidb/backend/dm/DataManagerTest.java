@@ -1,4 +1,306 @@
 package org.minidb.backend.dm;
 
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.minidb.backend.common.SubArray;
+import org.minidb.backend.dm.dataItem.DataItem;
+import org.minidb.backend.dm.logger.Logger;
+import org.minidb.backend.dm.pageCache.PageCache;
+import org.minidb.backend.dm.pageCache.PageCacheConfig;
+import org.minidb.backend.tm.TransactionManager;
+import org.minidb.common.constant.LogConstant;
+import org.minidb.common.constant.PageConstant;
+import org.minidb.common.exception.BadFormatVersionException;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
 public class DataManagerTest {
+    // 缓存只有32页，插入过程中页面会被淘汰和写回；后台每10毫秒写回一次脏页
+    private static final PageCacheConfig CONFIG = PageCacheConfig.builder().memory(32L * 8192).flushIntervalMillis(10).build();
+
+    private File dir;
+    private String path;
+    private TransactionManager tm;
+    private DataManager dm;
+    private List<TransactionManager> opened = new ArrayList<>();
+    private List<DataManager> openedDm = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("dm").toFile();
+        path = new File(dir, "test").getPath();
+        tm = TransactionManager.createTransactionManager(path);
+        dm = DataManager.createDataManager(path, CONFIG, tm);
+    }
+
+    @After
+    public void tearDown() {
+        dm.close();
+        tm.closeTransaction();
+        for (DataManager d : openedDm) {
+            d.close();
+        }
+        for (TransactionManager t : opened) {
+            t.closeTransaction();
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static byte[] value(int i) {
+        return ("value-" + i + "-" + "x".repeat(i % 100)).getBytes();
+    }
+
+    private static byte[] read(DataManager dm, long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        if(di == null) {
+            return null;
+        }
+        SubArray data = di.getData();
+        byte[] raw = new byte[data.end - data.start];
+        data.data.get(data.start, raw);
+        di.release();
+        return raw;
+    }
+
+    private static void update(DataManager dm, long xid, long uid, byte fill) throws Exception {
+        DataItem di = dm.read(uid);
+        di.writePrepare();
+        SubArray data = di.getData();
+        byte[] raw = new byte[data.end - data.start];
+        Arrays.fill(raw, fill);
+        data.data.put(data.start, raw);
+        di.writeAfter(xid);
+        di.release();
+    }
+
+    private static byte[] filled(int i, byte fill) {
+        byte[] raw = value(i);
+        Arrays.fill(raw, fill);
+        return raw;
+    }
+
+    /**
+     * 模拟崩溃：将 from 当前在磁盘上的文件复制为 to，不关闭 from。
+     * 先复制数据文件再复制日志，日志中包含数据文件中所有已记录日志的修改
+     * @param from
+     * @param to
+     */
+    private void crash(String from, String to) throws Exception {
+        String name = new File(from).getName() + ".";
+        List<File> files = new ArrayList<>(Arrays.asList(dir.listFiles((d, n) -> n.startsWith(name))));
+        files.sort((a, b) -> Integer.compare(order(a.getName()), order(b.getName())));
+        for (File f : files) {
+            File target = new File(to + f.getName().substring(name.length() - 1));
+            Files.copy(f.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static int order(String name) {
+        if(name.endsWith(".db")) {
+            return 0;
+        }
+        return name.endsWith(".xid") ? 2 : 1;
+    }
+
+    private DataManager open(String p) {
+        TransactionManager t = TransactionManager.openTransactionManager(p);
+        DataManager d = DataManager.openDataManager(p, CONFIG, t);
+        opened.add(t);
+        openedDm.add(d);
+        return d;
+    }
+
+    /**
+     * 已提交事务的插入和更新都被重做，崩溃时仍活跃的事务的修改都被撤销，
+     * 检查点之前开始的活跃事务也从其第一条日志开始撤销
+     * @return 各个数据项的uid，依次为：已提交的插入、已提交的插入、活跃事务的插入
+     */
+    private List<List<Long>> populate() throws Exception {
+        long xid1 = tm.beginTransaction();
+        List<Long> first = new ArrayList<>();
+        for (int i = 0; i < 2000; i ++) {
+            first.add(dm.insert(xid1, value(i)));
+        }
+        tm.commitTransaction(xid1);
+        dm.checkpoint();
+
+        long xid2 = tm.beginTransaction();
+        List<Long> second = new ArrayList<>();
+        for (int i = 2000; i < 2500; i ++) {
+            second.add(dm.insert(xid2, value(i)));
+        }
+        for (int i = 0; i < 100; i ++) {
+            update(dm, xid2, first.get(i), (byte)'U');
+        }
+        tm.commitTransaction(xid2);
+
+        long xid3 = tm.beginTransaction();
+        for (int i = 100; i < 200; i ++) {
+            update(dm, xid3, first.get(i), (byte)'A');
+        }
+        dm.checkpoint();
+        List<Long> aborted = new ArrayList<>();
+        for (int i = 2500; i < 2700; i ++) {
+            aborted.add(dm.insert(xid3, value(i)));
+        }
+        return List.of(first, second, aborted);
+    }
+
+    /**
+     * 检查恢复后的数据
+     * @param dm
+     * @param uids
+     * @param undone 是否检查活跃事务的修改已被撤销。撤销后事务即为已中止，之后再次恢复时与已提交事务一样重做，
+     *               已中止事务的数据由版本管理判断不可见
+     */
+    private static void verify(DataManager dm, List<List<Long>> uids, boolean undone) throws Exception {
+        List<Long> first = uids.get(0);
+        for (int i = 0; i < first.size(); i ++) {
+            if(i >= 100 && i < 200 && !undone) {
+                continue;
+            }
+            byte[] expected = i < 100 ? filled(i, (byte)'U') : value(i);
+            assertArrayEquals("item " + i, expected, read(dm, first.get(i)));
+        }
+        List<Long> second = uids.get(1);
+        for (int i = 0; i < second.size(); i ++) {
+            assertArrayEquals(value(2000 + i), read(dm, second.get(i)));
+        }
+        if(undone) {
+            for (long uid : uids.get(2)) {
+                assertNull(read(dm, uid));
+            }
+        }
+    }
+
+    @Test
+    public void testRecoverAfterCrash() throws Exception {
+        List<List<Long>> uids = populate();
+        String crashed = new File(dir, "crashed").getPath();
+        crash(path, crashed);
+        verify(open(crashed), uids, true);
+    }
+
+    @Test
+    public void testRecoveryIsRepeatable() throws Exception {
+        List<List<Long>> uids = populate();
+        String crashed = new File(dir, "crashed").getPath();
+        crash(path, crashed);
+        DataManager recovered = open(crashed);
+        // 恢复完成后立即再次崩溃，已提交的数据仍然完整
+        String again = new File(dir, "again").getPath();
+        crash(crashed, again);
+        verify(open(again), uids, false);
+        verify(recovered, uids, true);
+    }
+
+    @Test
+    public void testTornPagesAreRebuiltFromImages() throws Exception {
+        List<List<Long>> uids = populate();
+        // 等待后台线程写回所有页面，检查点之后重做只从检查点开始
+        Thread.sleep(300);
+        dm.checkpoint();
+        // 检查点之后修改一部分页面（写入相同的内容），崩溃时这些页面正在写回，只写入了前一半
+        long xid = tm.beginTransaction();
+        Set<Long> torn = new HashSet<>();
+        for (int i = 0; i < 100; i ++) {
+            update(dm, xid, uids.get(0).get(i), (byte)'U');
+            torn.add(uids.get(0).get(i) >>> 32);
+        }
+        tm.commitTransaction(xid);
+        String crashed = new File(dir, "crashed").getPath();
+        crash(path, crashed);
+        try (RandomAccessFile raf = new RandomAccessFile(crashed + ".db", "rw")) {
+            int pageSize = 8192;
+            byte[] garbage = new byte[pageSize / 2];
+            Arrays.fill(garbage, (byte)0xFF);
+            for (long pageNumber : torn) {
+                raf.seek((pageNumber - 1) * pageSize + pageSize / 2);
+                raf.write(garbage);
+            }
+        }
+        // 页面中检查点之前插入的数据只能从页面镜像中恢复
+        verify(open(crashed), uids, true);
+    }
+
+    @Test(expected = BadFormatVersionException.class)
+    public void testOldFormatIsRejected() throws Exception {
+        // 此前版本的db文件第一页中没有格式版本，表页位置与当前布局不同
+        String older = new File(dir, "older").getPath();
+        crash(path, older);
+        try (RandomAccessFile raf = new RandomAccessFile(older + ".db", "rw")) {
+            raf.seek(PageConstant.FORMAT_VERSION_OFFSET);
+            raf.writeInt(0);
+        }
+        PageCache.openPageCache(older, CONFIG);
+    }
+
+    @Test
+    public void testCleanCloseNeedsNoRecovery() throws Exception {
+        List<List<Long>> uids = populate();
+        dm.close();
+        tm.closeTransaction();
+        tm = TransactionManager.openTransactionManager(path);
+        dm = DataManager.openDataManager(path, CONFIG, tm);
+        // 正常关闭后打开不执行恢复，所有页面都已写回，已提交的数据都在
+        List<Long> first = uids.get(0);
+        for (int i = 0; i < 100; i ++) {
+            assertArrayEquals(filled(i, (byte)'U'), read(dm, first.get(i)));
+        }
+        List<Long> second = uids.get(1);
+        for (int i = 0; i < second.size(); i ++) {
+            assertArrayEquals(value(2000 + i), read(dm, second.get(i)));
+        }
+    }
+
+    @Test
+    public void testPageImageOncePerCheckpoint() throws Exception {
+        // 每次释放都写回页面，写回不会使之后的修改再记录镜像
+        String p = new File(dir, "images").getPath();
+        TransactionManager t = TransactionManager.createTransactionManager(p);
+        DataManager d = DataManager.createDataManager(p,
+                PageCacheConfig.builder().memory(32L * 8192).deferWriteBack(false).build(), t);
+        long xid = t.beginTransaction();
+        long uid = d.insert(xid, value(0));
+        t.commitTransaction(xid);
+        for (int i = 0; i < 20; i ++) {
+            if(i == 10) {
+                d.checkpoint();
+            }
+            xid = t.beginTransaction();
+            update(d, xid, uid, (byte)i);
+            t.commitTransaction(xid);
+        }
+        d.close();
+        t.closeTransaction();
+
+        // 插入时一个，检查点之后的第一次更新一个
+        Logger logger = Logger.open(p);
+        logger.seek(0);
+        int images = 0;
+        byte[] log;
+        while((log = logger.getNextLogData()) != null) {
+            if(log[LogConstant.TYPE_OFFSET] == LogConstant.LOG_TYPE_PAGE_IMAGE) {
+                images ++;
+            }
+        }
+        logger.close();
+        assertEquals(2, images);
+    }
 }
@@ -1,4 +1,172 @@
 package org.minidb.backend.dm.logger;
 
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.minidb.common.constant.LogConstant;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 public class LoggerTest {
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        path = Files.createTempDirectory("logger").resolve("test").toString();
+    }
+
+    @After
+    public void tearDown() {
+        File dir = new File(path).getParentFile();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static byte[] record(int length, int tag) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte)tag);
+        return data;
+    }
+
+    private static List<byte[]> readAll(Logger logger) {
+        List<byte[]> logs = new ArrayList<>();
+        logger.rewind();
+        byte[] log;
+        while((log = logger.getNextLogData()) != null) {
+            logs.add(log);
+        }
+        return logs;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(path + LogConstant.LOG_SUFFIX + "." + segment);
+    }
+
+    /**
+     * 修改段文件中 lsn 处的一个字节
+     */
+    private void corrupt(long lsn) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(lsn / LogConstant.SEGMENT_SIZE), "rw")) {
+            raf.seek(lsn % LogConstant.SEGMENT_SIZE);
+            int b = raf.read();
+            raf.seek(lsn % LogConstant.SEGMENT_SIZE);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    @Test
+    public void testLogsSurviveReopen() {
+        Logger logger = Logger.create(path);
+        List<byte[]> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i ++) {
+            byte[] data = record(1 + i * 7, i);
+            expected.add(data);
+            if(i % 10 == 9) {
+                logger.log(data);
+            } else {
+                logger.append(data);
+            }
+        }
+        logger.close();
+
+        logger = Logger.open(path);
+        List<byte[]> logs = readAll(logger);
+        assertEquals(expected.size(), logs.size());
+        for (int i = 0; i < logs.size(); i ++) {
+            assertArrayEquals(expected.get(i), logs.get(i));
+        }
+        logger.close();
+    }
+
+    @Test
+    public void testCorruptedLogTruncatesTail() throws Exception {
+        Logger logger = Logger.create(path);
+        long[] lsns = new long[10];
+        for (int i = 0; i < lsns.length; i ++) {
+            lsns[i] = logger.log(record(100, i));
+        }
+        long end = logger.getNextLsn();
+        logger.close();
+
+        // 第6条日志的数据被破坏，校验和不再匹配，之后的日志都视为 bad tail
+        corrupt(lsns[5] + LogConstant.DATA_OFFSET + 50);
+        logger = Logger.open(path);
+        assertEquals(lsns[5], logger.getNextLsn());
+        assertEquals(5, readAll(logger).size());
+        assertTrue(segmentFile(0).length() < end);
+
+        // 新日志从截断处继续写入
+        assertEquals(lsns[5], logger.log(record(10, 42)));
+        logger.close();
+        logger = Logger.open(path);
+        List<byte[]> logs = readAll(logger);
+        assertEquals(6, logs.size());
+        assertArrayEquals(record(10, 42), logs.get(5));
+        logger.close();
+    }
+
+    @Test
+    public void testTornTailIsRemoved() throws Exception {
+        Logger logger = Logger.create(path);
+        logger.log(record(100, 1));
+        long last = logger.log(record(100, 2));
+        logger.close();
+
+        // 崩溃时最后一条日志只写入了一部分
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(0), "rw")) {
+            raf.setLength(last + LogConstant.DATA_OFFSET + 30);
+        }
+        logger = Logger.open(path);
+        List<byte[]> logs = readAll(logger);
+        assertEquals(1, logs.size());
+        assertArrayEquals(record(100, 1), logs.get(0));
+        assertEquals(last, segmentFile(0).length());
+        logger.close();
+    }
+
+    @Test
+    public void testLogsSpanSegmentsAndRemoveBefore() {
+        Logger logger = Logger.create(path);
+        int size = 1 << 20;
+        List<Long> lsns = new ArrayList<>();
+        // 每条日志都比1MB多出日志头，总有日志跨越第2、3段的边界
+        while(logger.getNextLsn() < 3 * LogConstant.SEGMENT_SIZE + size) {
+            lsns.add(logger.append(record(size, lsns.size())));
+        }
+        logger.flush(lsns.get(lsns.size() - 1));
+        assertTrue(segmentFile(3).exists());
+
+        // 检查点位于第2段中，之前的段文件都可以删除
+        long checkpoint = lsns.stream().filter(lsn -> lsn >= 2 * LogConstant.SEGMENT_SIZE).findFirst().get();
+        logger.setCheckpoint(checkpoint);
+        logger.removeBefore(checkpoint);
+        assertFalse(segmentFile(0).exists());
+        assertFalse(segmentFile(1).exists());
+        logger.close();
+
+        logger = Logger.open(path);
+        List<byte[]> logs = readAll(logger);
+        int first = lsns.indexOf(checkpoint);
+        assertEquals(lsns.size() - first, logs.size());
+        for (int i = 0; i < logs.size(); i ++) {
+            assertArrayEquals(record(size, first + i), logs.get(i));
+        }
+        // 已删除的段文件中的日志读取不到
+        logger.seek(lsns.get(first - 1));
+        assertNull(logger.getNextLogData());
+        logger.close();
+    }
 }
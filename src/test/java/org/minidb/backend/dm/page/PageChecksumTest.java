@@ -0,0 +1,41 @@
+package org.minidb.backend.dm.page;
+
+import org.junit.Test;
+import org.minidb.common.constant.PageConstant;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PageChecksumTest {
+    private static final int PAGE_SIZE = 8192;
+
+    private static ByteBuffer newPage() {
+        ByteBuffer page = ByteBuffer.allocateDirect(PAGE_SIZE);
+        page.put(0, PageOthers.initRaw(PAGE_SIZE));
+        page.put(PAGE_SIZE - 1, (byte)1);
+        PageChecksum.set(page);
+        return page;
+    }
+
+    @Test
+    public void testChecksumDetectsChangedData() {
+        ByteBuffer page = newPage();
+        assertTrue(PageChecksum.verify(page));
+        page.put(100, (byte)1);
+        assertFalse(PageChecksum.verify(page));
+    }
+
+    @Test
+    public void testZeroedChecksumDoesNotDisableVerification() {
+        ByteBuffer page = newPage();
+        page.putInt(PageConstant.CHECKSUM_OFFSET, 0);
+        assertFalse(PageChecksum.verify(page));
+    }
+
+    @Test
+    public void testNeverWrittenPageHasNoChecksum() {
+        assertTrue(PageChecksum.verify(ByteBuffer.allocateDirect(PAGE_SIZE)));
+    }
+}
@@ -0,0 +1,157 @@
+package org.minidb.backend.dm.page;
+
+import org.junit.Test;
+import org.minidb.common.constant.PageConstant;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PageOthersTest {
+    private static final int PAGE_SIZE = 8192;
+
+    private static Page newPage() {
+        ByteBuffer frame = ByteBuffer.allocateDirect(PAGE_SIZE);
+        frame.put(0, PageOthers.initRaw(PAGE_SIZE));
+        return new PageImpl(2, frame, null);
+    }
+
+    private static byte[] record(int length, int tag) {
+        byte[] raw = new byte[length];
+        Arrays.fill(raw, (byte)tag);
+        return raw;
+    }
+
+    private static byte[] read(Page page, short slot, short generation, int length) {
+        int offset = PageOthers.getRecordOffset(page, slot, generation);
+        assertNotEquals(0, offset);
+        byte[] raw = new byte[length];
+        page.getPageBuffer().get(offset, raw);
+        return raw;
+    }
+
+    @Test
+    public void testInsertFreeAndCompact() {
+        Page page = newPage();
+        List<byte[]> records = new ArrayList<>();
+        Random random = new Random(1);
+        while(true) {
+            byte[] raw = record(3 + random.nextInt(200), records.size() + 1);
+            if(PageOthers.getContiguousFreeSpace(page) < raw.length) {
+                break;
+            }
+            assertEquals(records.size(), PageOthers.insert(page, raw));
+            records.add(raw);
+        }
+
+        int before = PageOthers.getFreeSpace(page);
+        int freed = 0;
+        for (int i = 0; i < records.size(); i += 2) {
+            PageOthers.free(page, (short)i, (short)0);
+            freed += records.get(i).length;
+        }
+        // 重复释放不改变页面；有空闲槽后插入不再需要新的槽
+        PageOthers.free(page, (short)0, (short)0);
+        assertEquals(before + freed + PageConstant.SLOT_SIZE, PageOthers.getFreeSpace(page));
+
+        PageOthers.compact(page);
+        assertEquals(PageOthers.getFreeSpace(page), PageOthers.getContiguousFreeSpace(page));
+        for (int i = 0; i < records.size(); i ++) {
+            if(i % 2 == 0) {
+                assertEquals(0, PageOthers.getRecordOffset(page, (short)i, (short)0));
+            } else {
+                assertArrayEquals(records.get(i), read(page, (short)i, (short)0, records.get(i).length));
+            }
+        }
+    }
+
+    @Test
+    public void testFreedSlotsAreReusedWithNewGeneration() {
+        Page page = newPage();
+        short first = PageOthers.insert(page, record(10, 1));
+        PageOthers.insert(page, record(10, 2));
+        PageOthers.free(page, first, (short)0);
+
+        assertEquals(first, PageOthers.nextSlot(page));
+        assertEquals(1, PageOthers.nextGeneration(page));
+        short reused = PageOthers.insert(page, record(20, 3));
+        assertEquals(first, reused);
+        assertEquals(1, PageOthers.getGeneration(page, reused));
+        assertEquals(2, PageOthers.getSlotCount(page));
+
+        // 指向旧记录的uid不会读到新记录，也不能释放它
+        assertEquals(0, PageOthers.getRecordOffset(page, reused, (short)0));
+        PageOthers.free(page, reused, (short)0);
+        assertArrayEquals(record(20, 3), read(page, reused, (short)1, 20));
+    }
+
+    @Test
+    public void testSlotDirectoryDoesNotGrowUnderChurn() {
+        Page page = newPage();
+        for (int i = 0; i < 10_000; i ++) {
+            byte[] raw = record(50, i);
+            if(PageOthers.getContiguousFreeSpace(page) < raw.length) {
+                PageOthers.compact(page);
+            }
+            short slot = PageOthers.insert(page, raw);
+            PageOthers.free(page, slot, PageOthers.getGeneration(page, slot));
+        }
+        assertEquals(1, PageOthers.getSlotCount(page));
+        assertEquals(PageOthers.getMaxFreeSpace(PAGE_SIZE), PageOthers.getFreeSpace(page));
+    }
+
+    @Test
+    public void testRedoIsIdempotent() {
+        Page page = newPage();
+        // 按插入日志与释放日志的内容记录每一步：{slot, generation, tag, length}，length 为0表示释放
+        List<int[]> log = new ArrayList<>();
+        Random random = new Random(2);
+        List<int[]> live = new ArrayList<>();
+        for (int i = 0; i < 2000; i ++) {
+            if(!live.isEmpty() && random.nextInt(3) == 0) {
+                int[] victim = live.remove(random.nextInt(live.size()));
+                PageOthers.free(page, (short)victim[0], (short)victim[1]);
+                log.add(new int[] {victim[0], victim[1], 0, 0});
+                continue;
+            }
+            int length = 3 + random.nextInt(100);
+            if(PageOthers.getContiguousFreeSpace(page) < length) {
+                PageOthers.compact(page);
+                if(PageOthers.getContiguousFreeSpace(page) < length) {
+                    continue;
+                }
+            }
+            short slot = PageOthers.nextSlot(page);
+            short generation = PageOthers.nextGeneration(page);
+            assertEquals(slot, PageOthers.insert(page, record(length, i)));
+            int[] entry = {slot, generation, i, length};
+            log.add(entry);
+            live.add(entry);
+        }
+
+        // 从空页面重做，再在重做后的页面上重做一遍
+        Page recovered = newPage();
+        for (int round = 0; round < 2; round ++) {
+            for (int[] entry : log) {
+                if(entry[3] == 0) {
+                    PageOthers.free(recovered, (short)entry[0], (short)entry[1]);
+                } else {
+                    PageOthers.recoverInsert(recovered, record(entry[3], entry[2]), (short)entry[0], (short)entry[1]);
+                }
+            }
+            assertEquals(PageOthers.getSlotCount(page), PageOthers.getSlotCount(recovered));
+            for (int[] entry : live) {
+                assertArrayEquals(record(entry[3], entry[2]), read(recovered, (short)entry[0], (short)entry[1], entry[3]));
+            }
+            assertEquals(PageOthers.getFreeSpace(page), PageOthers.getFreeSpace(recovered));
+        }
+        assertTrue(PageOthers.getFreeSpace(recovered) > 0);
+    }
+}
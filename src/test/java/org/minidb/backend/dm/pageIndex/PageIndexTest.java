@@ -1,4 +1,150 @@
 package org.minidb.backend.dm.pageIndex;
 
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 public class PageIndexTest {
+    private static final int PAGE_SIZE = 8192;
+
+    @Test
+    public void testSelectReturnsPageWithEnoughSpace() {
+        PageIndex index = new PageIndex(PAGE_SIZE);
+        index.add(2, 500);
+        index.add(3, 4000);
+        PageInfo pi = index.select(1000);
+        assertEquals(3, pi.pageNumber);
+        // 被取出的页面在重新加入前不会再被取出
+        assertNull(index.select(1000));
+        assertEquals(2, index.select(300).pageNumber);
+    }
+
+    @Test
+    public void testStaleEntriesAreSkipped() {
+        PageIndex index = new PageIndex(PAGE_SIZE);
+        index.add(2, 4000);
+        index.update(2, 500);
+        assertNull(index.select(1000));
+        // 反复更新只留下最后一次的空闲空间
+        for (int i = 0; i < 10_000; i ++) {
+            index.update(2, 500 + i % 4000);
+        }
+        index.add(2, 6000);
+        assertEquals(2, index.select(5000).pageNumber);
+        assertNull(index.select(1));
+    }
+
+    @Test
+    public void testUpdateIgnoresSelectedPages() {
+        PageIndex index = new PageIndex(PAGE_SIZE);
+        index.add(2, 4000);
+        PageInfo pi = index.select(1000);
+        index.update(pi.pageNumber, 8000);
+        assertNull(index.select(1));
+    }
+
+    @Test
+    public void testConcurrentUpdateOfSelectedPageNeverOverstates() throws Exception {
+        // 与 DataManager 相同：插入和释放都在页面锁内修改并读取空闲空间，释放在锁内更新索引，插入在解锁后重新加入
+        PageIndex index = new PageIndex(PAGE_SIZE);
+        int page = 2;
+        int[] freeSpace = {4000};
+        ReentrantLock pageLock = new ReentrantLock();
+        index.add(page, freeSpace[0]);
+        AtomicBoolean overstated = new AtomicBoolean();
+        int rounds = 20_000;
+        CountDownLatch done = new CountDownLatch(3);
+        for (int t = 0; t < 2; t ++) {
+            new Thread(() -> {
+                for (int i = 0; i < rounds; i ++) {
+                    PageInfo pi = index.select(100);
+                    if(pi == null) {
+                        continue;
+                    }
+                    int fs;
+                    pageLock.lock();
+                    try {
+                        if(pi.freeSpace > freeSpace[0]) {
+                            overstated.set(true);
+                        }
+                        if(freeSpace[0] >= 1000) {
+                            freeSpace[0] -= 100;
+                        }
+                        fs = freeSpace[0];
+                    } finally {
+                        pageLock.unlock();
+                    }
+                    index.add(pi.pageNumber, fs);
+                }
+                done.countDown();
+            }).start();
+        }
+        new Thread(() -> {
+            for (int i = 0; i < 2 * rounds; i ++) {
+                pageLock.lock();
+                try {
+                    if(freeSpace[0] < 7000) {
+                        freeSpace[0] += 100;
+                    }
+                    index.update(page, freeSpace[0]);
+                } finally {
+                    pageLock.unlock();
+                }
+            }
+            done.countDown();
+        }).start();
+        done.await();
+        // 取出的页面记录的空闲空间从不超过页面实际的空闲空间，最后页面只有一个有效的 PageInfo
+        assertFalse(overstated.get());
+        PageInfo pi = index.select(100);
+        assertEquals(page, pi.pageNumber);
+        assertTrue(pi.freeSpace <= freeSpace[0]);
+        assertNull(index.select(100));
+    }
+
+    @Test
+    public void testConcurrentSelectsNeverShareAPage() throws Exception {
+        PageIndex index = new PageIndex(PAGE_SIZE);
+        int pages = 64;
+        for (int i = 0; i < pages; i ++) {
+            index.add(i + 2, 4000);
+        }
+        Set<Integer> taken = ConcurrentHashMap.newKeySet();
+        AtomicBoolean shared = new AtomicBoolean();
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t ++) {
+            new Thread(() -> {
+                for (int i = 0; i < 10_000; i ++) {
+                    PageInfo pi = index.select(500);
+                    if(pi == null) {
+                        continue;
+                    }
+                    if(!taken.add(pi.pageNumber)) {
+                        shared.set(true);
+                    }
+                    taken.remove(pi.pageNumber);
+                    index.add(pi.pageNumber, 1000 + i % 4000);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        assertFalse(shared.get());
+        int selected = 0;
+        while(index.select(1) != null) {
+            selected ++;
+        }
+        assertEquals(pages, selected);
+        assertTrue(taken.isEmpty());
+    }
 }
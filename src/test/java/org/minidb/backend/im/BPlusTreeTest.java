@@ -1,4 +1,85 @@
 package org.minidb.backend.im;
 
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.minidb.backend.dm.DataManager;
+import org.minidb.backend.dm.pageCache.PageCacheConfig;
+import org.minidb.backend.tm.TransactionManager;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
 public class BPlusTreeTest {
+    private String path;
+    private TransactionManager tm;
+    private DataManager dm;
+
+    @Before
+    public void setUp() throws Exception {
+        path = Files.createTempDirectory("bptree").resolve("test").toString();
+        tm = TransactionManager.createTransactionManager(path);
+        // 缓存只有64页，叶子节点会被淘汰，范围查找需要从磁盘异步读取兄弟节点
+        dm = DataManager.createDataManager(path, PageCacheConfig.builder().memory(64L * 8192).build(), tm);
+    }
+
+    @After
+    public void tearDown() {
+        dm.close();
+        tm.closeTransaction();
+        File dir = new File(path).getParentFile();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSearchRangeAcrossLeaves() throws Exception {
+        BPlusTree tree = BPlusTree.load(BPlusTree.create(dm), dm);
+        int n = 5000;
+        for (int i = 0; i < n; i ++) {
+            tree.insert(i, i + 1);
+        }
+
+        List<Long> all = tree.searchRange(0, n);
+        assertEquals(n, all.size());
+        for (int i = 0; i < n; i ++) {
+            assertEquals(i + 1, (long)all.get(i));
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long i = 1234; i <= 3456; i ++) {
+            expected.add(i + 1);
+        }
+        assertEquals(expected, tree.searchRange(1234, 3456));
+        assertEquals(List.of(43L), tree.search(42));
+        tree.close();
+    }
+
+    @Test
+    public void testScanLeavesCoversNegativeKeys() throws Exception {
+        BPlusTree tree = BPlusTree.load(BPlusTree.create(dm), dm);
+        int n = 3000;
+        for (int i = 0; i < n; i ++) {
+            // 一半是负数的 key，插入顺序打乱以产生中间的分裂
+            long key = (i * 7919L % n) - n / 2;
+            tree.insert(key, key + n);
+        }
+
+        List<Long> uids = new ArrayList<>();
+        long leaf = tree.firstLeaf();
+        while(leaf != 0) {
+            leaf = tree.scanLeaf(leaf, uids);
+        }
+        assertEquals(n, uids.size());
+        for (int i = 0; i < n; i ++) {
+            assertEquals(i - n / 2 + n, (long)uids.get(i));
+        }
+        tree.close();
+    }
 }
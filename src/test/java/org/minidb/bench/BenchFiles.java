@@ -0,0 +1,38 @@
+package org.minidb.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 基准使用的临时数据库文件
+ */
+final class BenchFiles {
+    private BenchFiles() {
+    }
+
+    /**
+     * 创建一个临时目录，返回其中名为 name 的数据库路径（不带后缀）
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    static String createPath(String name) throws IOException {
+        return Files.createTempDirectory("minidb-bench").resolve(name).toString();
+    }
+
+    /**
+     * 删除数据库路径所在的临时目录
+     * @param path
+     */
+    static void delete(String path) {
+        File dir = new File(path).getParentFile();
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+}
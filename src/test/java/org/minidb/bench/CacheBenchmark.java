@@ -0,0 +1,161 @@
+package org.minidb.bench;
+
+import org.minidb.backend.common.AbstractCache;
+import org.minidb.backend.common.eviction.EvictionPolicy;
+import org.minidb.backend.common.eviction.EvictionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AbstractCache 在 1 到 64 个线程下获取并释放资源的吞吐量
+ * keys 小于容量时全部命中，衡量分段锁的开销；大于容量时不断淘汰和加载，衡量同一资源的并发加载与淘汰。
+ * impl 为 legacy 时运行改为分段锁之前的实现 LegacyCache，作为比较的基线；它不保留引用计数为零的资源，每次获取都要加载。
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=CacheBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    private static final int CAPACITY = 1024;
+
+    @Param({"512", "4096"})
+    public int keys;
+
+    @Param({"striped", "legacy"})
+    public String impl;
+
+    private Cache cache;
+
+    /**
+     * 被测的缓存，两种实现的获取、释放与关闭
+     */
+    interface Cache {
+        long[] get(long key) throws Exception;
+        void release(long key);
+        void close();
+    }
+
+    /**
+     * 加载即分配一个小对象的缓存，加载本身几乎没有开销
+     */
+    static class BenchCache extends AbstractCache<long[]> implements Cache {
+        BenchCache(int maxResource) {
+            super(maxResource, EvictionPolicy.newPolicy(EvictionType.LRU, maxResource));
+        }
+
+        @Override
+        protected long[] get2Cache(long key) {
+            return new long[] {key};
+        }
+
+        @Override
+        protected void releaseByObj(long[] obj) {
+        }
+
+        @Override
+        public long[] get(long key) throws Exception {
+            return getFromCache(key);
+        }
+
+        @Override
+        public void release(long key) {
+            releaseReferenceByKey(key);
+        }
+
+        @Override
+        public void close() {
+            closeCache();
+        }
+    }
+
+    /**
+     * 基于 LegacyCache 的同一缓存
+     */
+    static class LegacyBenchCache extends LegacyCache<long[]> implements Cache {
+        LegacyBenchCache(int maxResource) {
+            super(maxResource);
+        }
+
+        @Override
+        protected long[] get2Cache(long key) {
+            return new long[] {key};
+        }
+
+        @Override
+        protected void releaseByObj(long[] obj) {
+        }
+
+        @Override
+        public long[] get(long key) throws Exception {
+            return getFromCache(key);
+        }
+
+        @Override
+        public void release(long key) {
+            releaseReferenceByKey(key);
+        }
+
+        @Override
+        public void close() {
+            closeCache();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        cache = "legacy".equals(impl) ? new LegacyBenchCache(CAPACITY) : new BenchCache(CAPACITY);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+    }
+
+    private long[] getAndRelease() throws Exception {
+        long key = ThreadLocalRandom.current().nextInt(keys);
+        long[] value = cache.get(key);
+        cache.release(key);
+        return value;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long[] threads01() throws Exception {
+        return getAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long[] threads04() throws Exception {
+        return getAndRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long[] threads16() throws Exception {
+        return getAndRelease();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long[] threads64() throws Exception {
+        return getAndRelease();
+    }
+}
@@ -0,0 +1,65 @@
+package org.minidb.bench;
+
+import org.minidb.backend.dm.page.PageChecksum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个页面计算和校验 CRC32C 的耗时，覆盖所有合法的页面大小
+ * 页面与帧都是堆外的直接缓冲区。写回时本来就要将页面拷贝到一个帧中，copy 是这次拷贝的耗时，用作比较的基准；
+ * 按每秒写回和读入的页数乘以单页耗时，即校验和占用的CPU时间。
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=ChecksumBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({"4096", "8192", "16384", "32768"})
+    public int pageSize;
+
+    private ByteBuffer page;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setUp() {
+        byte[] raw = new byte[pageSize];
+        new Random(1).nextBytes(raw);
+        page = ByteBuffer.allocateDirect(pageSize);
+        page.put(0, raw);
+        PageChecksum.set(page);
+        frame = ByteBuffer.allocateDirect(pageSize);
+    }
+
+    @Benchmark
+    public ByteBuffer copy() {
+        frame.put(0, page, 0, pageSize);
+        return frame;
+    }
+
+    @Benchmark
+    public ByteBuffer set() {
+        PageChecksum.set(page);
+        return page;
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return PageChecksum.verify(page);
+    }
+}
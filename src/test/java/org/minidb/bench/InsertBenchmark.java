@@ -0,0 +1,89 @@
+package org.minidb.bench;
+
+import org.minidb.backend.dm.DataManager;
+import org.minidb.backend.dm.pageCache.PageCacheConfig;
+import org.minidb.backend.tm.TransactionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程并发调用 DataManager.insert 的吞吐量
+ * 每次插入都要等待其日志持久化，组提交时一次刷盘释放多个等待者，吞吐量随线程数增长，直到刷盘带宽饱和。
+ * 文件建在 java.io.tmpdir 下，它位于内存文件系统时刷盘没有开销，需用 -jvmArgs -Djava.io.tmpdir= 指向真实的磁盘。
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=InsertBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBenchmark {
+    private static final byte[] DATA = new byte[100];
+
+    private String path;
+    private TransactionManager tm;
+    private DataManager dm;
+
+    /**
+     * 每个线程在自己的事务中插入
+     */
+    @State(Scope.Thread)
+    public static class Transaction {
+        long xid;
+
+        @Setup
+        public void setUp(InsertBenchmark benchmark) {
+            xid = benchmark.tm.beginTransaction();
+        }
+
+        @TearDown
+        public void tearDown(InsertBenchmark benchmark) {
+            benchmark.tm.commitTransaction(xid);
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        path = BenchFiles.createPath("insert");
+        tm = TransactionManager.createTransactionManager(path);
+        dm = DataManager.createDataManager(path, PageCacheConfig.builder().memory(64L << 20).build(), tm);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dm.close();
+        tm.closeTransaction();
+        BenchFiles.delete(path);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long threads01(Transaction transaction) throws Exception {
+        return dm.insert(transaction.xid, DATA);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long threads08(Transaction transaction) throws Exception {
+        return dm.insert(transaction.xid, DATA);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public long threads32(Transaction transaction) throws Exception {
+        return dm.insert(transaction.xid, DATA);
+    }
+}
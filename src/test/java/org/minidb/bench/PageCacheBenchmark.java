@@ -0,0 +1,79 @@
+package org.minidb.bench;
+
+import org.minidb.backend.dm.page.Page;
+import org.minidb.backend.dm.page.PageOthers;
+import org.minidb.backend.dm.pageCache.PageCache;
+import org.minidb.backend.dm.pageCache.PageCacheConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 页面全部在缓存中时 PageCacheImpl.getPage 与 release 的开销
+ * 配合 -prof gc 运行，gc.alloc.rate.norm 即每次获取和释放分配的字节数。
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args="PageCacheBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageCacheBenchmark {
+    private static final int PAGES = 1024;
+
+    @Param({"4096", "8192", "16384", "32768"})
+    public int pageSize;
+
+    private String path;
+    private PageCache pageCache;
+
+    @Setup
+    public void setUp() throws Exception {
+        path = BenchFiles.createPath("pagecache");
+        pageCache = PageCache.createPageCache(path, PageCacheConfig.builder()
+                .memory(2L * PAGES * pageSize).pageSize(pageSize).build());
+        for (int i = 0; i < PAGES; i ++) {
+            pageCache.newPage(PageOthers.initRaw(pageSize));
+        }
+        for (int i = 1; i <= PAGES; i ++) {
+            pageCache.getPage(i).releasePage();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pageCache.closeCache(null);
+        BenchFiles.delete(path);
+    }
+
+    private Page getAndRelease() throws Exception {
+        Page page = pageCache.getPage(1 + ThreadLocalRandom.current().nextInt(PAGES));
+        page.releasePage();
+        return page;
+    }
+
+    @Benchmark
+    public Page getPage() throws Exception {
+        return getAndRelease();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Page getPageConcurrent() throws Exception {
+        return getAndRelease();
+    }
+}
@@ -0,0 +1,80 @@
+package org.minidb.bench;
+
+import org.minidb.backend.dm.pageIndex.PageIndex;
+import org.minidb.backend.dm.pageIndex.PageInfo;
+import org.minidb.common.constant.PageConstant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按插入的方式并发使用 PageIndex：取出一个空间足够的页面，插入后以新的空闲空间放回
+ * 各线程只在取出和放回时竞争，吞吐量应随线程数增长。
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=PageIndexBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageIndexBenchmark {
+    private static final int PAGES = 4096;
+
+    private PageIndex pageIndex;
+
+    @Setup
+    public void setUp() {
+        pageIndex = new PageIndex(PageConstant.PAGE_SIZE);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < PAGES; i ++) {
+            pageIndex.add(i + 2, PageConstant.PAGE_SIZE / 4 + random.nextInt(PageConstant.PAGE_SIZE / 2));
+        }
+    }
+
+    private PageInfo insert() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        PageInfo pi = pageIndex.select(50 + random.nextInt(200));
+        if(pi != null) {
+            // 插入后空闲空间减少，页面快满时模拟释放数据后空间恢复
+            int freeSpace = pi.freeSpace - 250;
+            pageIndex.add(pi.pageNumber, freeSpace < PageConstant.PAGE_SIZE / 8 ? PageConstant.PAGE_SIZE * 3 / 4 : freeSpace);
+        }
+        return pi;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PageInfo threads01() {
+        return insert();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PageInfo threads04() {
+        return insert();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public PageInfo threads16() {
+        return insert();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public PageInfo threads64() {
+        return insert();
+    }
+}
@@ -0,0 +1,91 @@
+package org.minidb.bench;
+
+import org.minidb.backend.dm.page.Page;
+import org.minidb.backend.dm.page.PageOthers;
+import org.minidb.backend.dm.pageCache.PageCache;
+import org.minidb.backend.dm.pageCache.PageCacheConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程随机读取页面，文件远大于缓存，几乎每次获取都要从文件中读取
+ * 各线程的读取互不阻塞时吞吐量随线程数增长。数据在操作系统的页缓存中时衡量的是读取路径上的锁，
+ * 在 NVMe 上衡量真实的磁盘读取时，每轮测量前清空操作系统的页缓存，或将 fileMegabytes 设为大于内存。
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=RandomReadBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomReadBenchmark {
+    // 缓存只有256页
+    private static final int CACHE_PAGES = 256;
+
+    @Param({"256"})
+    public int fileMegabytes;
+
+    @Param({"4096", "8192", "16384", "32768"})
+    public int pageSize;
+
+    private String path;
+    private PageCache pageCache;
+    private int pages;
+
+    @Setup
+    public void setUp() throws Exception {
+        path = BenchFiles.createPath("randomread");
+        pageCache = PageCache.createPageCache(path, PageCacheConfig.builder()
+                .memory((long)CACHE_PAGES * pageSize).pageSize(pageSize).build());
+        pages = (int)((long)fileMegabytes * (1 << 20) / pageSize);
+        byte[] initData = PageOthers.initRaw(pageSize);
+        for (int i = 0; i < pages; i ++) {
+            pageCache.newPage(initData);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pageCache.closeCache(null);
+        BenchFiles.delete(path);
+    }
+
+    private Page read() throws Exception {
+        Page page = pageCache.getPage(1 + ThreadLocalRandom.current().nextInt(pages));
+        page.releasePage();
+        return page;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Page threads01() throws Exception {
+        return read();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Page threads04() throws Exception {
+        return read();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Page threads16() throws Exception {
+        return read();
+    }
+}
@@ -0,0 +1,146 @@
+package org.minidb.bench;
+
+import org.minidb.backend.common.SubArray;
+import org.minidb.backend.dm.DataManager;
+import org.minidb.backend.dm.dataItem.DataItem;
+import org.minidb.backend.dm.pageCache.PageCacheConfig;
+import org.minidb.backend.tm.TransactionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 崩溃后打开数据库的耗时，即重做和撤销 logMegabytes 大小的日志
+ * 准备时关闭后台写回，脏页一直不写回，检查点的重做起点停留在日志开头，恢复时要重做全部日志。
+ * 每次测量前将崩溃时的文件复制一份，复制的文件多在操作系统的页缓存中，衡量的主要是恢复的CPU开销。
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args="RecoveryBenchmark -p logMegabytes=4096"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecoveryBenchmark {
+    private static final int ITEMS = 1024;
+    private static final int ITEM_SIZE = 1000;
+    // 每个事务更新的数据项个数
+    private static final int UPDATES_PER_TRANSACTION = 100;
+    private static final PageCacheConfig CONFIG = PageCacheConfig.builder()
+            .memory(64L << 20).flushIntervalMillis(0).build();
+
+    @Param({"64"})
+    public int logMegabytes;
+
+    private String crashed;
+    private String work;
+    private TransactionManager tm;
+    private DataManager dm;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        String path = BenchFiles.createPath("recovery");
+        crashed = path + "-crashed";
+        work = path + "-work";
+        TransactionManager t = TransactionManager.createTransactionManager(path);
+        DataManager d = DataManager.createDataManager(path, CONFIG, t);
+
+        long xid = t.beginTransaction();
+        long[] uids = new long[ITEMS];
+        for (int i = 0; i < ITEMS; i ++) {
+            uids[i] = d.insert(xid, new byte[ITEM_SIZE]);
+        }
+        t.commitTransaction(xid);
+
+        xid = t.beginTransaction();
+        // 每次更新的日志包含新旧两份数据
+        long updates = ((long)logMegabytes << 20) / (2 * ITEM_SIZE);
+        for (long i = 0; i < updates; i ++) {
+            if(i > 0 && i % UPDATES_PER_TRANSACTION == 0) {
+                t.commitTransaction(xid);
+                xid = t.beginTransaction();
+            }
+            update(d, xid, uids[(int)(i % ITEMS)], (byte)i);
+        }
+        // 最后一个事务崩溃时仍活跃，恢复时被撤销
+        copy(path, crashed);
+        d.close();
+        t.closeTransaction();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        BenchFiles.delete(crashed);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        copy(crashed, work);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        dm.close();
+        tm.closeTransaction();
+    }
+
+    private static void update(DataManager dm, long xid, long uid, byte fill) throws Exception {
+        DataItem di = dm.read(uid);
+        di.writePrepare();
+        SubArray data = di.getData();
+        byte[] raw = new byte[data.end - data.start];
+        Arrays.fill(raw, fill);
+        data.data.put(data.start, raw);
+        di.writeAfter(xid);
+        di.release();
+    }
+
+    /**
+     * 将 from 当前在磁盘上的文件复制为 to。
+     * 先复制数据文件再复制日志，最后复制事务状态，与崩溃时磁盘上的状态一致
+     * @param from
+     * @param to
+     */
+    private static void copy(String from, String to) throws Exception {
+        String name = new File(from).getName() + ".";
+        File dir = new File(from).getParentFile();
+        List<File> files = new ArrayList<>(Arrays.asList(dir.listFiles((d, n) -> n.startsWith(name))));
+        files.sort((a, b) -> Integer.compare(order(a.getName()), order(b.getName())));
+        for (File f : files) {
+            File target = new File(to + f.getName().substring(name.length() - 1));
+            Files.copy(f.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static int order(String name) {
+        if(name.endsWith(".db")) {
+            return 0;
+        }
+        return name.endsWith(".xid") ? 2 : 1;
+    }
+
+    @Benchmark
+    public DataManager recover() {
+        tm = TransactionManager.openTransactionManager(work);
+        dm = DataManager.openDataManager(work, CONFIG, tm);
+        return dm;
+    }
+}